@@ -0,0 +1,85 @@
+package org.ftpc;
+
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.filesystem.DirectoryEntry;
+import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.fake.filesystem.FileSystem;
+import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+//  Embedded loopback server shared by the benchmarks.
+class BenchmarkServer {
+  static final String HOST = "localhost";
+  static final String USER = "bench";
+  static final String PASSWORD = "bench";
+  static final String HOME_DIR = "/";
+
+  private final FakeFtpServer fakeFtpServer = new FakeFtpServer();
+  private final FileSystem fileSystem = new UnixFakeFileSystem();
+
+  BenchmarkServer() {
+    fakeFtpServer.addUserAccount(new UserAccount(USER, PASSWORD, HOME_DIR));
+    fileSystem.add(new DirectoryEntry(HOME_DIR));
+    fakeFtpServer.setFileSystem(fileSystem);
+    fakeFtpServer.setServerControlPort(0);
+  }
+
+  BenchmarkServer start() {
+    fakeFtpServer.start();
+    return this;
+  }
+
+  void stop() {
+    fakeFtpServer.stop();
+  }
+
+  int getPort() {
+    return fakeFtpServer.getServerControlPort();
+  }
+
+  FakeFtpServer getFakeFtpServer() {
+    return fakeFtpServer;
+  }
+
+  void addDirectory(String path, int entries) {
+    fileSystem.add(new DirectoryEntry(path));
+    for (int i = 0; i < entries; i++) {
+      fileSystem.add(new FileEntry(String.format("%s/entry%06d.dat", path, i), "x"));
+    }
+  }
+
+  void addFile(String path, int size) {
+    FileEntry entry = new FileEntry(path);
+    entry.setContents(randomBytes(size));
+    fileSystem.add(entry);
+  }
+
+  FTPClient connect(String downloadDir) throws IOException {
+    FTPClient ftpClient = new FTPClient(downloadDir);
+    ftpClient.connect(HOST, getPort(), USER, PASSWORD);
+    return ftpClient;
+  }
+
+  static File createLocalFile(File dir, String name, int size) throws IOException {
+    File file = new File(dir, name);
+    Files.write(file.toPath(), randomBytes(size));
+    return file;
+  }
+
+  static File createTempDir() throws IOException {
+    File dir = Files.createTempDirectory("ftpc-bench").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+}
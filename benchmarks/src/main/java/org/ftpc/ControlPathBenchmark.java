@@ -0,0 +1,80 @@
+package org.ftpc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ControlPathBenchmark {
+  private static final String PASV_REPLY = "227 Entering Passive Mode (127,0,0,1,195,80).";
+  private static final String EPSV_REPLY = "229 Entering Extended Passive Mode (|||50000|)";
+  private static final byte[] REPLY_BATCH = ("150 Opening BINARY mode data connection.\r\n" +
+    "226 Transfer complete.\r\n211-Features:\r\n MDTM\r\n SIZE\r\n REST STREAM\r\n211 End\r\n")
+    .getBytes(StandardCharsets.US_ASCII);
+
+  private BenchmarkServer server;
+  private FTPClient ftpClient;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = new BenchmarkServer().start();
+    ftpClient = server.connect(BenchmarkServer.createTempDir().getAbsolutePath());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    ftpClient.disconnect();
+    server.stop();
+  }
+
+  @Benchmark
+  public FTPClient loginHandshake() throws IOException {
+    FTPClient client = new FTPClient(".");
+    client.connect(BenchmarkServer.HOST, server.getPort(), BenchmarkServer.USER, BenchmarkServer.PASSWORD);
+    client.disconnect();
+    return client;
+  }
+
+  @Benchmark
+  public void noopRoundTrip() throws IOException {
+    ftpClient.noop();
+  }
+
+  @Benchmark
+  public String pwdRoundTrip() throws IOException {
+    return ftpClient.getCurrentWorkingDir();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public DataEndpoint parsePasv() throws IOException {
+    return DataEndpoint.parsePasv(PASV_REPLY);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public DataEndpoint parseEpsv() throws IOException {
+    return DataEndpoint.parseEpsv(EPSV_REPLY, InetAddress.getLoopbackAddress());
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int decodeReplies() throws IOException {
+    ReplyDecoder decoder = new ReplyDecoder(new ByteArrayInputStream(REPLY_BATCH), StandardCharsets.US_ASCII);
+    int codes = 0;
+    FTPReply reply;
+    while ((reply = decoder.next()) != null) {
+      codes += reply.getCode();
+    }
+    return codes;
+  }
+}
@@ -0,0 +1,51 @@
+package org.ftpc;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+  @Param({"100", "10000"})
+  public int entries;
+
+  private BenchmarkServer server;
+  private FTPClient ftpClient;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    server = new BenchmarkServer();
+    server.addDirectory("/listing", entries);
+    server.start();
+    ftpClient = server.connect(BenchmarkServer.createTempDir().getAbsolutePath());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    ftpClient.disconnect();
+    server.stop();
+  }
+
+  @Benchmark
+  public List<String> list() throws IOException {
+    return ftpClient.getListEntries("/listing");
+  }
+
+  @Benchmark
+  public List<String> nlst() throws IOException {
+    return ftpClient.getListEntriesNLST("/listing");
+  }
+
+  @Benchmark
+  public void typedEntries(Blackhole blackhole) throws IOException {
+    ftpClient.listEntries("/listing", blackhole::consume);
+  }
+}
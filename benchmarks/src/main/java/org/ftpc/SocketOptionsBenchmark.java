@@ -0,0 +1,69 @@
+package org.ftpc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//  RETR and STOR of one file with different data socket buffers, chunk sizes and read timeouts. Loopback has no
+//  delay, so buffer sizes only show their effect on a delayed link, e.g. after
+//  `tc qdisc add dev lo root netem delay 50ms` for a 100 ms round trip. The timeout parameter measures the
+//  selector-based read path that enforces the data read timeout.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SocketOptionsBenchmark {
+  private static final int FILE_SIZE = 8 * 1024 * 1024;
+
+  @Param({"0", "262144", "4194304"})
+  public int socketBuffer;
+
+  @Param({"65536", "8388608"})
+  public int chunkSize;
+
+  @Param({"0", "300"})
+  public int readTimeout;
+
+  private BenchmarkServer server;
+  private FTPClient ftpClient;
+  private File localFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    File uploadDir = BenchmarkServer.createTempDir();
+    File downloadDir = BenchmarkServer.createTempDir();
+
+    server = new BenchmarkServer();
+    server.addFile("/large.dat", FILE_SIZE);
+    server.start();
+    localFile = BenchmarkServer.createLocalFile(uploadDir, "upload.dat", FILE_SIZE);
+
+    SocketOptions dataOptions = SocketOptions.data();
+    dataOptions.setSendBufferSize(socketBuffer);
+    dataOptions.setReceiveBufferSize(socketBuffer);
+    dataOptions.setReadTimeout((int) TimeUnit.SECONDS.toMillis(readTimeout));
+    ftpClient = server.connect(downloadDir.getAbsolutePath());
+    ftpClient.setDataOptions(dataOptions);
+    ftpClient.getDataTransfer().setChunkSize(chunkSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    ftpClient.disconnect();
+    server.stop();
+  }
+
+  @Benchmark
+  public File retr() throws IOException {
+    return ftpClient.download("large.dat");
+  }
+
+  @Benchmark
+  public void stor() throws IOException {
+    ftpClient.upload(localFile);
+  }
+}
@@ -0,0 +1,89 @@
+package org.ftpc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+  private static final int FILES_PER_BATCH = 16;
+
+  @Param({"4096", "1048576", "16777216"})
+  public int fileSize;
+
+  @Param({"1", "4"})
+  public int concurrency;
+
+  @Param({"0", "262144"})
+  public long smallFileThreshold;
+
+  private BenchmarkServer server;
+  private FTPClient ftpClient;
+  private FTPClientService ftpClientService;
+  private File localFile;
+  private List<String> localFiles;
+  private List<String> remoteFiles;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    File uploadDir = BenchmarkServer.createTempDir();
+    File downloadDir = BenchmarkServer.createTempDir();
+
+    server = new BenchmarkServer();
+    localFiles = new LinkedList<>();
+    remoteFiles = new LinkedList<>();
+    for (int i = 0; i < FILES_PER_BATCH; i++) {
+      String name = String.format("batch%02d.dat", i);
+      localFiles.add(BenchmarkServer.createLocalFile(uploadDir, name, fileSize).getAbsolutePath());
+      server.addFile("/" + name, fileSize);
+      remoteFiles.add(name);
+    }
+    server.addFile("/single.dat", fileSize);
+    server.start();
+
+    localFile = BenchmarkServer.createLocalFile(uploadDir, "single.dat", fileSize);
+    ftpClient = server.connect(downloadDir.getAbsolutePath());
+
+    ftpClientService = new FTPClientService(BenchmarkServer.HOST, server.getPort(),
+      BenchmarkServer.USER, BenchmarkServer.PASSWORD);
+    ftpClientService.setDownloadDir(downloadDir.getAbsolutePath());
+    ftpClientService.getScheduler().setConcurrency(concurrency);
+    ftpClientService.setSmallFileThreshold(smallFileThreshold);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    ftpClient.disconnect();
+    ftpClientService.close();
+    server.stop();
+  }
+
+  @Benchmark
+  public void storSingle() throws IOException {
+    ftpClient.upload(localFile);
+  }
+
+  @Benchmark
+  public File retrSingle() throws IOException {
+    return ftpClient.download("single.dat");
+  }
+
+  @Benchmark
+  public void storBatch() {
+    ftpClientService.upload(localFiles);
+  }
+
+  @Benchmark
+  public void retrBatch() {
+    ftpClientService.download(remoteFiles);
+  }
+}
@@ -2,10 +2,21 @@ package org.ftpc;
 
 import org.apache.commons.cli.*;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 
 
 public class App {
@@ -14,12 +25,79 @@ public class App {
     String user = cmd.getOptionValue("u");
     String password = cmd.getOptionValue("pw");
     String host = cmd.getOptionValue("h");
-    int port = Integer.parseInt(cmd.getOptionValue("h"));
+    int port = Integer.parseInt(cmd.getOptionValue("p"));
 
     FTPClientService ftpClientService = new FTPClientService(host, port, user, password);
+    try {
+      ftpClientService.setJournal(new TransferJournal(TransferJournal.defaultPath(host, port)));
+    } catch (IOException e) {
+      System.err.println("Transfers cannot be resumed: " + e.getMessage());
+    }
     if (cmd.hasOption("dl")) {
       ftpClientService.setDownloadDir(cmd.getOptionValue("dl"));
     }
+    if (cmd.hasOption("x")) {
+      ftpClientService.setExecutionMode(TransferScheduler.ExecutionMode.valueOf(cmd.getOptionValue("x").toUpperCase()));
+    }
+    if (cmd.hasOption("c")) {
+      ftpClientService.getScheduler().setConcurrency(Integer.parseInt(cmd.getOptionValue("c")));
+    }
+    if (cmd.hasOption("mr")) {
+      ftpClientService.getMetrics().startReporting(new LogMetricsReporter(),
+        Long.parseLong(cmd.getOptionValue("mr")), TimeUnit.SECONDS);
+    }
+    try {
+      ftpClientService.getMetrics().registerMBean(
+        String.format("org.ftpc:type=TransferMetrics,host=%s,port=%d", ObjectName.quote(host), port));
+    } catch (JMException e) {
+      System.err.println(e.getMessage());
+    }
+    if (cmd.hasOption("sg")) {
+      ftpClientService.setSegmentCount(Integer.parseInt(cmd.getOptionValue("sg")));
+    }
+    if (cmd.hasOption("ms")) {
+      ftpClientService.setMinSegmentSize(Long.parseLong(cmd.getOptionValue("ms")));
+    }
+    if (cmd.hasOption("sf")) {
+      ftpClientService.setSmallFileThreshold(Long.parseLong(cmd.getOptionValue("sf")));
+    }
+    if (cmd.hasOption("cs")) {
+      ftpClientService.getControlOptions().configure(cmd.getOptionValue("cs"));
+    }
+    if (cmd.hasOption("ds")) {
+      ftpClientService.getDataOptions().configure(cmd.getOptionValue("ds"));
+    }
+    if (cmd.hasOption("dm")) {
+      ftpClientService.setDataConnectionMode(DataConnectionMode.valueOf(cmd.getOptionValue("dm").toUpperCase()));
+    }
+    if (cmd.hasOption("ck")) {
+      ftpClientService.setChunkSize(Integer.parseInt(cmd.getOptionValue("ck")));
+    }
+    if (cmd.hasOption("ct")) {
+      ftpClientService.setDirectoryCache(new DirectoryCache(DirectoryCache.DEFAULT_MAX_DIRECTORIES,
+        TimeUnit.SECONDS.toMillis(Long.parseLong(cmd.getOptionValue("ct")))));
+    }
+    if (cmd.hasOption("a")) {
+      ftpClientService.setAsciiExtensions(new HashSet<>(Arrays.asList(cmd.getOptionValue("a").split(","))));
+    }
+    if (cmd.hasOption("bw")) {
+      ftpClientService.getRateLimiter().setRate(Long.parseLong(cmd.getOptionValue("bw")));
+    }
+    if (cmd.hasOption("tb")) {
+      ftpClientService.getTransferRateLimit().setRate(Long.parseLong(cmd.getOptionValue("tb")));
+    }
+    if (cmd.hasOption("nv")) {
+      ftpClientService.setVerifyDownloads(false);
+    }
+    if (cmd.hasOption("z")) {
+      ftpClientService.setCompressionPolicy(new CompressionPolicy());
+    }
+    if (cmd.hasOption("ac")) {
+      ftpClientService.setAdaptiveConcurrency(true);
+    }
+    if (cmd.hasOption("b")) {
+      System.exit(batch(ftpClientService, cmd.getOptionValue("b")));
+    }
 //  Menu loop
     menu(ftpClientService, String.format("%s@%s~", user, host));
   }
@@ -54,12 +132,114 @@ public class App {
     downloadDirOpt.setType(String.class);
     options.addOption(downloadDirOpt);
 
+    Option concurrencyOpt = new Option("c", "concurrency", true, "Option to set number of concurrent transfers.");
+    concurrencyOpt.setRequired(false);
+    concurrencyOpt.setType(Integer.class);
+    options.addOption(concurrencyOpt);
+
+    Option executorOpt = new Option("x", "executor", true, "Option to run transfers on platform or virtual threads." +
+      "Note: virtual threads require JDK 21 or newer and run one transfer per pooled session unless -c is set!");
+    executorOpt.setRequired(false);
+    executorOpt.setType(String.class);
+    options.addOption(executorOpt);
+
+    Option metricsOpt = new Option("mr", "metrics", true, "Option to log transfer metrics every <arg> seconds.");
+    metricsOpt.setRequired(false);
+    metricsOpt.setType(Long.class);
+    options.addOption(metricsOpt);
+
+    Option segmentsOpt = new Option("sg", "segments", true, "Option to set number of segments for segmented download and upload.");
+    segmentsOpt.setRequired(false);
+    segmentsOpt.setType(Integer.class);
+    options.addOption(segmentsOpt);
+
+    Option minSegmentOpt = new Option("ms", "minsegment", true, "Option to set minimum segment size in bytes.");
+    minSegmentOpt.setRequired(false);
+    minSegmentOpt.setType(Long.class);
+    options.addOption(minSegmentOpt);
+
+    Option smallFileOpt = new Option("sf", "smallfile", true, "Option to set size in bytes below which uploads " +
+      "are batched over one session. Note: 0 disables batching!");
+    smallFileOpt.setRequired(false);
+    smallFileOpt.setType(Long.class);
+    options.addOption(smallFileOpt);
+
+    Option controlSocketOpt = new Option("cs", "controlsocket", true, "Option to set control connection socket " +
+      "options, e.g. connecttimeout=30,readtimeout=300,nodelay=true,keepalive=true. Note: timeouts are in seconds!");
+    controlSocketOpt.setRequired(false);
+    controlSocketOpt.setType(String.class);
+    options.addOption(controlSocketOpt);
+
+    Option dataSocketOpt = new Option("ds", "datasocket", true, "Option to set data connection socket options, " +
+      "e.g. sndbuf=4194304,rcvbuf=4194304,readtimeout=300,writetimeout=300. Note: buffers of 0 keep the system " +
+      "default!");
+    dataSocketOpt.setRequired(false);
+    dataSocketOpt.setType(String.class);
+    options.addOption(dataSocketOpt);
+
+    Option dataModeOpt = new Option("dm", "datamode", true, "Option to open data connections with auto, pasv, " +
+      "epsv or active. Note: auto uses EPSV when the server lists it in FEAT!");
+    dataModeOpt.setRequired(false);
+    dataModeOpt.setType(String.class);
+    options.addOption(dataModeOpt);
+
+    Option chunkOpt = new Option("ck", "chunk", true, "Option to set transfer chunk size in bytes.");
+    chunkOpt.setRequired(false);
+    chunkOpt.setType(Integer.class);
+    options.addOption(chunkOpt);
+
+    Option cacheTtlOpt = new Option("ct", "cachettl", true, "Option to set directory listing cache TTL in seconds." +
+      "Note: 0 disables the cache!");
+    cacheTtlOpt.setRequired(false);
+    cacheTtlOpt.setType(Long.class);
+    options.addOption(cacheTtlOpt);
+
+    Option adaptiveOpt = new Option("ac", "adaptive", false, "Option to tune number of concurrent transfers " +
+      "from observed throughput. Note: overrides -c and -sg!");
+    adaptiveOpt.setRequired(false);
+    options.addOption(adaptiveOpt);
+
+    Option batchOpt = new Option("b", "batch", true, "Option to run transfers listed in a manifest file " +
+      "instead of the menu. Note: - reads the manifest from stdin!");
+    batchOpt.setRequired(false);
+    batchOpt.setType(String.class);
+    options.addOption(batchOpt);
+
+    Option asciiOpt = new Option("a", "ascii", true, "Option to set comma separated file extensions transferred " +
+      "in ASCII mode. Note: other files are transferred in binary!");
+    asciiOpt.setRequired(false);
+    asciiOpt.setType(String.class);
+    options.addOption(asciiOpt);
+
+    Option bandwidthOpt = new Option("bw", "bandwidth", true, "Option to cap total transfer rate in bytes per second.");
+    bandwidthOpt.setRequired(false);
+    bandwidthOpt.setType(Long.class);
+    options.addOption(bandwidthOpt);
+
+    Option transferBandwidthOpt = new Option("tb", "transferbandwidth", true, "Option to cap rate of each transfer " +
+      "in bytes per second.");
+    transferBandwidthOpt.setRequired(false);
+    transferBandwidthOpt.setType(Long.class);
+    options.addOption(transferBandwidthOpt);
+
+    Option noVerifyOpt = new Option("nv", "noverify", false, "Option to skip checking downloads against the " +
+      "server's hash or size.");
+    noVerifyOpt.setRequired(false);
+    options.addOption(noVerifyOpt);
+
+    Option compressOpt = new Option("z", "compress", false, "Option to compress transfers with MODE Z when " +
+      "the server supports it. Note: archives, media and files under 64 KB are sent as is!");
+    compressOpt.setRequired(false);
+    options.addOption(compressOpt);
+
     CommandLineParser parser = new DefaultParser();
     HelpFormatter formatter = new HelpFormatter();
     CommandLine cmd = null;
 
     try {
       cmd = parser.parse(options, args);
+      checkChoice(cmd, "x", TransferScheduler.ExecutionMode.values());
+      checkChoice(cmd, "dm", DataConnectionMode.values());
     } catch (ParseException e) {
       System.out.println(e.getMessage());
       formatter.printHelp("FTP", options);
@@ -69,6 +249,35 @@ public class App {
     return cmd;
   }
 
+  private static void checkChoice(CommandLine cmd, String option, Enum<?>[] choices) throws ParseException {
+    if (!cmd.hasOption(option)) {
+      return;
+    }
+    String value = cmd.getOptionValue(option);
+    for (Enum<?> choice : choices) {
+      if (choice.name().equalsIgnoreCase(value)) {
+        return;
+      }
+    }
+    throw new ParseException(String.format("Invalid value for -%s: %s", option, value));
+  }
+
+  //  Prints a JSON summary, the exit status is 0 when every line transferred, 1 on failures and 2 without a manifest
+
+  public static int batch(FTPClientService ftpClientService, String manifest) {
+    try (Reader reader = manifest.equals("-") ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+      : Files.newBufferedReader(Paths.get(manifest), StandardCharsets.UTF_8)) {
+      BatchResult result = new BatchRunner(ftpClientService).run(reader);
+      System.out.println(result.toJson());
+      return result.isSuccessful() ? 0 : 1;
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+      return 2;
+    } finally {
+      ftpClientService.close();
+    }
+  }
+
   public static void menu(FTPClientService ftpClientService, String usr) {
     Scanner in = new Scanner(System.in);
     String inputLine, cwd = "/";
@@ -78,6 +287,7 @@ public class App {
       );
       inputLine = in.nextLine().trim();
       if (inputLine.equals("exit")) {
+        ftpClientService.close();
         break;
       } else if (inputLine.startsWith("upload")) {
         List<String> files = new LinkedList<>();
@@ -95,6 +305,16 @@ public class App {
           }
         }
         ftpClientService.upload(files);
+      } else if (inputLine.startsWith("supload")) {
+        StringTokenizer stringTokenizer = new StringTokenizer(inputLine.substring("supload".length()));
+        while (stringTokenizer.hasMoreTokens()) {
+          ftpClientService.uploadSegmented(stringTokenizer.nextToken());
+        }
+      } else if (inputLine.startsWith("sdownload")) {
+        StringTokenizer stringTokenizer = new StringTokenizer(inputLine.substring("sdownload".length()));
+        while (stringTokenizer.hasMoreTokens()) {
+          ftpClientService.downloadSegmented(stringTokenizer.nextToken());
+        }
       } else if (inputLine.startsWith("download")) {
         List<String> files = new LinkedList<>();
         StringTokenizer stringTokenizer;
@@ -111,6 +331,31 @@ public class App {
           }
         }
         ftpClientService.download(files);
+      } else if (inputLine.startsWith("sync")) {
+        String[] syncArgs = inputLine.substring("sync".length()).trim().split("\\s+");
+        if (syncArgs.length < 3 || !(syncArgs[0].equals("up") || syncArgs[0].equals("down"))) {
+          System.out.println("usage: sync <up|down> <local dir> <remote dir> [delete]");
+          continue;
+        }
+        try {
+          ftpClientService.sync(syncArgs[1], syncArgs[2], syncArgs[0].equals("up") ?
+              TransferJournal.Direction.UPLOAD : TransferJournal.Direction.DOWNLOAD,
+            syncArgs.length > 3 && syncArgs[3].equals("delete"));
+        } catch (IOException e) {
+          System.err.println(e.getMessage());
+        }
+      } else if (inputLine.startsWith("limit")) {
+        String[] limitArgs = inputLine.substring("limit".length()).trim().split("\\s+");
+        try {
+          ftpClientService.getRateLimiter().setRate(Long.parseLong(limitArgs[0]));
+          if (limitArgs.length > 1) {
+            ftpClientService.getTransferRateLimit().setRate(Long.parseLong(limitArgs[1]));
+          }
+        } catch (IllegalArgumentException e) {
+          System.out.println("usage: limit <total B/s> [<per transfer B/s>], 0 for unlimited");
+        }
+      } else if (inputLine.startsWith("resume")) {
+        ftpClientService.resumePending();
       } else if (inputLine.startsWith("cwd")) {
         String changeTo = inputLine.substring(inputLine.indexOf(" ") + 1).trim();
         cwd = ftpClientService.cwd(changeTo.equals("cwd") ? "." : changeTo);
@@ -127,6 +372,11 @@ public class App {
         System.out.println("usage: FTP");
         System.out.println(" upload <args>        Command for listing files for uploading to server");
         System.out.println(" download <args>      Command for listing files for download from server.");
+        System.out.println(" sdownload <args>     Command for downloading large files from server in parallel segments.");
+        System.out.println(" supload <args>       Command for uploading large files to server in parallel segments.");
+        System.out.println(" sync <args>          Command for mirroring directories: sync <up|down> <local> <remote> [delete]");
+        System.out.println(" limit <args>         Command for capping bandwidth: limit <total B/s> [<per transfer B/s>]");
+        System.out.println(" resume               Command for resuming interrupted transfers");
         System.out.println(" cwd <arg>            Command for change working directory");
         System.out.println(" pwd                  Command for getting current working directory");
         System.out.println(" ls <arg>             Command for listing files (detailed) in current working directory");
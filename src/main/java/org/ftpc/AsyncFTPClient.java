@@ -0,0 +1,567 @@
+package org.ftpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+//  Non-blocking counterpart of FTPClient. Sessions share the threads of an EventLoopGroup instead of pinning one each,
+//  futures complete on the session's event loop, so callbacks must not block. The timeouts of the control and data
+//  SocketOptions bound every wait on the server, an expired one fails the session with a SocketTimeoutException.
+
+public class AsyncFTPClient implements AutoCloseable {
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  private final EventLoopGroup.EventLoop loop;
+  private final DirectBufferPool bufferPool;
+  private final SocketOptions controlOptions;
+  private final SocketOptions dataOptions;
+  private final Charset charset = Charset.defaultCharset();
+  private final ReplyDecoder replyDecoder = new ReplyDecoder(charset);
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private final Queue<ByteBuffer> writes = new ArrayDeque<>();
+  private final Queue<PendingReply> pending = new ArrayDeque<>();
+  private final ControlHandler controlHandler = new ControlHandler();
+  private volatile SocketChannel control;
+  private SelectionKey controlKey;
+  private DataConnection data;
+  private IOException failure;
+  private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+  private long lastActivity;
+  private boolean timerArmed;
+
+  AsyncFTPClient(EventLoopGroup.EventLoop loop, DirectBufferPool bufferPool, SocketOptions controlOptions,
+                 SocketOptions dataOptions) {
+    this.loop = loop;
+    this.bufferPool = bufferPool;
+    this.controlOptions = controlOptions;
+    this.dataOptions = dataOptions;
+  }
+
+  public static CompletableFuture<AsyncFTPClient> connect(EventLoopGroup group, String host, int port, String user,
+                                                          String password) {
+    return connect(group, host, port, user, password, SocketOptions.control(), SocketOptions.data());
+  }
+
+  public static CompletableFuture<AsyncFTPClient> connect(EventLoopGroup group, String host, int port, String user,
+                                                          String password, SocketOptions controlOptions,
+                                                          SocketOptions dataOptions) {
+    AsyncFTPClient client = new AsyncFTPClient(group.next(), DirectBufferPool.shared(), controlOptions.copy(),
+      dataOptions.copy());
+    return client.open(host, port)
+      .thenCompose(reply -> expect(reply, 220))
+      .thenCompose(reply -> client.command("USER " + user))
+      .thenCompose(reply -> expect(reply, 331))
+      .thenCompose(reply -> client.command("PASS " + password))
+      .thenCompose(reply -> expect(reply, 230))
+      .thenCompose(reply -> client.command("TYPE " + TransferType.BINARY.getCode()))
+      .thenCompose(reply -> expect(reply, 200))
+      .thenApply(reply -> client)
+      .whenComplete((connected, e) -> {
+        if (e != null) {
+          client.close();
+        }
+      });
+  }
+
+  public boolean isOpen() {
+    return control != null && control.isOpen();
+  }
+
+  //  Operations of one session run one after another, a failed one does not stop those queued behind it
+
+  public CompletableFuture<List<String>> listAsync(String folder) {
+    return enqueue(() -> withPassive(address -> {
+      ByteArrayOutputStream listing = new ByteArrayOutputStream();
+      byte[] chunk = new byte[bufferPool.getBufferSize()];
+      DataConnection connection = new DataConnection(address, buffer -> {
+        int length = buffer.remaining();
+        buffer.get(chunk, 0, length);
+        listing.write(chunk, 0, length);
+      });
+      PendingReply list = send(folder == null || folder.isEmpty() ? "LIST" : "LIST " + folder, true);
+      return transfer(list, connection).thenApply(bytes -> {
+        List<String> lines = new LinkedList<>();
+        for (String line : new String(listing.toByteArray(), charset).split("\r?\n")) {
+          if (!line.isEmpty()) {
+            lines.add(line);
+          }
+        }
+        return lines;
+      });
+    }));
+  }
+
+  public CompletableFuture<Long> uploadAsync(File file) {
+    return enqueue(() -> withPassive(address -> {
+      FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        DataConnection connection = new DataConnection(address, source, source.size());
+        return closeAfter(transfer(send("STOR " + file.getName(), true), connection), source);
+      } catch (IOException e) {
+        source.close();
+        throw e;
+      }
+    }));
+  }
+
+  //  Data goes to a .part file next to the target that replaces it only after the 226, so a failed download
+  //  leaves an existing local file as it was
+
+  public CompletableFuture<Long> downloadAsync(String fileName, File target) {
+    return enqueue(() -> withPassive(address -> {
+      Path partial = target.toPath().resolveSibling(target.getName() + ".part");
+      FileChannel sink = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+      long[] position = new long[1];
+      try {
+        DataConnection connection = new DataConnection(address, buffer -> {
+          while (buffer.hasRemaining()) {
+            position[0] += sink.write(buffer, position[0]);
+          }
+        });
+        return moveAfter(closeAfter(transfer(send("RETR " + fileName, true), connection), sink), partial,
+          target.toPath());
+      } catch (IOException e) {
+        sink.close();
+        Files.deleteIfExists(partial);
+        throw e;
+      }
+    }));
+  }
+
+  @Override
+  public void close() {
+    inLoop(() -> fail(new IOException("FTP client is closed")));
+  }
+
+  //  Helper functions for async client
+
+  private CompletableFuture<FTPReply> open(String host, int port) {
+    PendingReply greeting = new PendingReply(false);
+    inLoop(() -> {
+      pending.add(greeting);
+      control = SocketChannel.open();
+      controlOptions.apply(control.socket());
+      control.configureBlocking(false);
+      touch();
+      armTimer();
+      boolean connected = control.connect(new InetSocketAddress(host, port));
+      controlKey = loop.register(control, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, controlHandler);
+    });
+    return greeting.first;
+  }
+
+  private synchronized <T> CompletableFuture<T> enqueue(Supplier<CompletableFuture<T>> operation) {
+    CompletableFuture<T> result = tail.handle((ignored, e) -> null).thenCompose(ignored -> operation.get());
+    tail = result;
+    return result;
+  }
+
+  //  Runs the transfer on the event loop once the server has opened its passive port
+
+  private <T> CompletableFuture<T> withPassive(IOFunction<InetSocketAddress, CompletableFuture<T>> transfer) {
+    return passive().thenComposeAsync(address -> {
+      try {
+        return transfer.apply(address);
+      } catch (IOException e) {
+        return failed(e);
+      }
+    }, this::execute);
+  }
+
+  private CompletableFuture<FTPReply> command(String command) {
+    return send(command, false).first;
+  }
+
+  private PendingReply send(String command, boolean transfer) {
+    PendingReply reply = new PendingReply(transfer);
+    inLoop(() -> {
+      if (failure != null) {
+        reply.fail(failure);
+        return;
+      }
+      if (pending.isEmpty() && data == null) {
+        touch();
+      }
+      pending.add(reply);
+      armTimer();
+      writes.add(charset.encode(command + "\r\n"));
+      flushWrites();
+    });
+    return reply;
+  }
+
+  private CompletableFuture<InetSocketAddress> passive() {
+    return command("PASV").thenCompose(reply -> {
+      if (reply.getCode() != 227) {
+        return failed(new IOException(reply.getText()));
+      }
+      try {
+        return CompletableFuture.completedFuture(DataEndpoint.parsePasv(reply.getText()).toSocketAddress());
+      } catch (IOException e) {
+        return failed(e);
+      }
+    });
+  }
+
+  //  Data flows once the server confirms the command with a 1xx reply, the result waits for its 226 as well
+
+  private CompletableFuture<Long> transfer(PendingReply command, DataConnection connection) {
+    return command.first.thenCompose(reply -> {
+      if (!reply.isPreliminary()) {
+        connection.abort(new IOException(reply.getText()));
+        return failed(new IOException(reply.getText()));
+      }
+      connection.start();
+      return connection.done;
+    }).thenCompose(bytes -> command.last.thenCompose(reply -> reply.getCode() == 226
+      ? CompletableFuture.completedFuture(bytes) : failed(new IOException(reply.getText()))));
+  }
+
+  private void dispatch(FTPReply reply) {
+    PendingReply head = pending.peek();
+    if (head == null) {
+      if (reply.getCode() == 421) {
+        fail(new IOException(reply.getText()));
+      }
+      return;
+    }
+    if (reply.isPreliminary()) {
+      if (head.last != null) {
+        head.first.complete(reply);
+      }
+      return;
+    }
+    pending.poll();
+    head.first.complete(reply);
+    if (head.last != null) {
+      head.last.complete(reply);
+    }
+  }
+
+  private void flushWrites() throws IOException {
+    if (control.isConnectionPending()) {
+      return;
+    }
+    while (!writes.isEmpty()) {
+      ByteBuffer buffer = writes.peek();
+      control.write(buffer);
+      if (buffer.hasRemaining()) {
+        break;
+      }
+      writes.poll();
+    }
+    controlKey.interestOps(writes.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  //  One timer per session checks the wait in progress, it goes quiet while nothing is outstanding
+
+  private void armTimer() {
+    long timeout = currentTimeout();
+    if (!timerArmed && timeout > 0) {
+      timerArmed = true;
+      loop.schedule(this::checkTimeout, timeout);
+    }
+  }
+
+  private void checkTimeout() {
+    timerArmed = false;
+    long timeout = currentTimeout();
+    if (failure != null || (pending.isEmpty() && data == null) || timeout == 0) {
+      return;
+    }
+    long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity);
+    if (idle >= timeout) {
+      fail(new SocketTimeoutException("Timed out after " + timeout + " ms waiting for the FTP server"));
+      return;
+    }
+    timerArmed = true;
+    loop.schedule(this::checkTimeout, timeout - idle);
+  }
+
+  private long currentTimeout() {
+    if (control != null && control.isConnectionPending()) {
+      return controlOptions.getConnectTimeout();
+    }
+    if (data != null && data.channel.isConnectionPending()) {
+      return dataOptions.getConnectTimeout();
+    }
+    if (data != null && data.started) {
+      return data.source != null ? dataOptions.getWriteTimeout() : dataOptions.getReadTimeout();
+    }
+    return controlOptions.getReadTimeout();
+  }
+
+  private void touch() {
+    lastActivity = System.nanoTime();
+  }
+
+  private void fail(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+    if (data != null) {
+      data.abort(e);
+    }
+    if (control != null) {
+      try {
+        control.close();
+      } catch (IOException ignored) {
+      }
+    }
+    PendingReply reply;
+    while ((reply = pending.poll()) != null) {
+      reply.fail(e);
+    }
+  }
+
+  private void inLoop(IORunnable task) {
+    execute(() -> {
+      try {
+        task.run();
+      } catch (IOException e) {
+        fail(e);
+      }
+    });
+  }
+
+  private void execute(Runnable task) {
+    if (loop.inEventLoop()) {
+      task.run();
+    } else {
+      loop.execute(task);
+    }
+  }
+
+  private static CompletableFuture<FTPReply> expect(FTPReply reply, int code) {
+    return reply.getCode() == code ? CompletableFuture.completedFuture(reply) : failed(new IOException(reply.getText()));
+  }
+
+  private static <T> CompletableFuture<T> closeAfter(CompletableFuture<T> result, FileChannel file) {
+    return result.whenComplete((value, e) -> {
+      try {
+        file.close();
+      } catch (IOException ignored) {
+      }
+    });
+  }
+
+  private static CompletableFuture<Long> moveAfter(CompletableFuture<Long> result, Path partial, Path target) {
+    return result.handle((bytes, e) -> {
+      try {
+        if (e == null) {
+          Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+          return CompletableFuture.completedFuture(bytes);
+        }
+        Files.deleteIfExists(partial);
+      } catch (IOException moveFailure) {
+        return AsyncFTPClient.<Long>failed(moveFailure);
+      }
+      return AsyncFTPClient.<Long>failed(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+    }).thenCompose(moved -> moved);
+  }
+
+  private static <T> CompletableFuture<T> failed(Throwable e) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    result.completeExceptionally(e);
+    return result;
+  }
+
+  private interface IOFunction<T, R> {
+    R apply(T value) throws IOException;
+  }
+
+  private interface IORunnable {
+    void run() throws IOException;
+  }
+
+  private interface Sink {
+    void write(ByteBuffer buffer) throws IOException;
+  }
+
+  //  Transfer commands complete first with their 1xx reply and last with the final one
+
+  private static class PendingReply {
+    final CompletableFuture<FTPReply> first = new CompletableFuture<>();
+    final CompletableFuture<FTPReply> last;
+
+    PendingReply(boolean transfer) {
+      last = transfer ? new CompletableFuture<>() : null;
+    }
+
+    void fail(IOException e) {
+      first.completeExceptionally(e);
+      if (last != null) {
+        last.completeExceptionally(e);
+      }
+    }
+  }
+
+  private class ControlHandler implements EventLoopGroup.Handler {
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      if (key.isConnectable() && control.finishConnect()) {
+        touch();
+        flushWrites();
+      }
+      if (key.isValid() && key.isReadable()) {
+        ((Buffer) readBuffer).clear();
+        if (control.read(readBuffer) < 0) {
+          throw new IOException("FTP server closed the control connection");
+        }
+        touch();
+        ((Buffer) readBuffer).flip();
+        replyDecoder.feed(readBuffer);
+        FTPReply reply;
+        while ((reply = replyDecoder.poll()) != null) {
+          dispatch(reply);
+        }
+      }
+      if (key.isValid() && key.isWritable()) {
+        flushWrites();
+      }
+    }
+
+    @Override
+    public void failed(IOException e) {
+      fail(e);
+    }
+  }
+
+  //  One passive data connection, either draining a file region into the socket or the socket into a sink
+
+  private class DataConnection implements EventLoopGroup.Handler {
+    final CompletableFuture<Long> done = new CompletableFuture<>();
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final FileChannel source;
+    private final long end;
+    private final Sink sink;
+    private ByteBuffer buffer;
+    private long position;
+    private long transferred;
+    private boolean started;
+
+    DataConnection(InetSocketAddress address, FileChannel source, long end) throws IOException {
+      this(address, source, end, null);
+    }
+
+    DataConnection(InetSocketAddress address, Sink sink) throws IOException {
+      this(address, null, 0, sink);
+    }
+
+    private DataConnection(InetSocketAddress address, FileChannel source, long end, Sink sink) throws IOException {
+      this.source = source;
+      this.end = end;
+      this.sink = sink;
+      buffer = bufferPool.acquire();
+      ((Buffer) buffer).limit(source != null ? 0 : buffer.capacity());
+      channel = SocketChannel.open();
+      dataOptions.apply(channel.socket());
+      channel.configureBlocking(false);
+      boolean connected = channel.connect(address);
+      key = loop.register(channel, connected ? 0 : SelectionKey.OP_CONNECT, this);
+      data = this;
+      touch();
+      armTimer();
+    }
+
+    void start() {
+      started = true;
+      touch();
+      if (key.isValid() && !channel.isConnectionPending()) {
+        key.interestOps(source != null ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      }
+    }
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      if (key.isConnectable() && channel.finishConnect()) {
+        touch();
+        key.interestOps(0);
+        if (started) {
+          start();
+        }
+      }
+      if (key.isValid() && key.isReadable()) {
+        int read = channel.read(buffer);
+        if (read < 0) {
+          finish();
+          return;
+        }
+        ((Buffer) buffer).flip();
+        sink.write(buffer);
+        ((Buffer) buffer).clear();
+        transferred += read;
+        touch();
+      }
+      if (key.isValid() && key.isWritable()) {
+        if (!buffer.hasRemaining()) {
+          ((Buffer) buffer).clear();
+          ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), end - position));
+          int read = buffer.hasRemaining() ? source.read(buffer, position) : -1;
+          ((Buffer) buffer).flip();
+          if (read < 0) {
+            finish();
+            return;
+          }
+          position += read;
+        }
+        int written = channel.write(buffer);
+        if (written > 0) {
+          transferred += written;
+          touch();
+        }
+      }
+    }
+
+    @Override
+    public void failed(IOException e) {
+      abort(e);
+    }
+
+    void abort(IOException e) {
+      close();
+      done.completeExceptionally(e);
+    }
+
+    private void finish() {
+      close();
+      done.complete(transferred);
+    }
+
+    private void close() {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+      if (buffer != null) {
+        bufferPool.release(buffer);
+        buffer = null;
+      }
+      if (data == this) {
+        data = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package org.ftpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BatchResult {
+  public static final int MAX_REPORTED_FAILURES = 1000;
+
+  private final AtomicInteger submitted = new AtomicInteger();
+  private final AtomicInteger succeeded = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicInteger invalid = new AtomicInteger();
+  private final AtomicLong transferredBytes = new AtomicLong();
+  private final List<String> failures = new ArrayList<>();
+  private long durationMillis;
+
+  void operationSubmitted() {
+    submitted.incrementAndGet();
+  }
+
+  void operationSucceeded(long bytes) {
+    succeeded.incrementAndGet();
+    transferredBytes.addAndGet(bytes);
+  }
+
+  void operationFailed(long line, String operation, String path, String error) {
+    failed.incrementAndGet();
+    report(String.format("{\"line\":%d,\"op\":%s,\"path\":%s,\"error\":%s}",
+      line, quote(operation), quote(path), quote(error)));
+  }
+
+  void lineInvalid(long line, String text) {
+    invalid.incrementAndGet();
+    report(String.format("{\"line\":%d,\"error\":%s}", line, quote("Invalid manifest line: " + text)));
+  }
+
+  void finished(long durationMillis) {
+    this.durationMillis = durationMillis;
+  }
+
+  public int getSubmitted() {
+    return submitted.get();
+  }
+
+  public int getSucceeded() {
+    return succeeded.get();
+  }
+
+  public int getFailed() {
+    return failed.get();
+  }
+
+  public int getInvalid() {
+    return invalid.get();
+  }
+
+  public long getTransferredBytes() {
+    return transferredBytes.get();
+  }
+
+  public boolean isSuccessful() {
+    return getFailed() == 0 && getInvalid() == 0;
+  }
+
+  //  One JSON object, failures beyond MAX_REPORTED_FAILURES are only counted
+
+  public synchronized String toJson() {
+    return String.format(Locale.ROOT, "{\"submitted\":%d,\"succeeded\":%d,\"failed\":%d,\"invalid\":%d,\"bytes\":%d," +
+        "\"seconds\":%.3f,\"failures\":[%s]}", getSubmitted(), getSucceeded(), getFailed(), getInvalid(),
+      getTransferredBytes(), durationMillis / 1000.0, String.join(",", failures));
+  }
+
+  @Override
+  public String toString() {
+    return toJson();
+  }
+
+  private synchronized void report(String failure) {
+    if (failures.size() < MAX_REPORTED_FAILURES) {
+      failures.add(failure);
+    }
+  }
+
+  static String quote(String value) {
+    if (value == null) {
+      return "null";
+    }
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          quoted.append("\\\"");
+          break;
+        case '\\':
+          quoted.append("\\\\");
+          break;
+        case '\n':
+          quoted.append("\\n");
+          break;
+        case '\r':
+          quoted.append("\\r");
+          break;
+        case '\t':
+          quoted.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
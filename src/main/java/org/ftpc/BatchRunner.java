@@ -0,0 +1,199 @@
+package org.ftpc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Phaser;
+
+//  Runs a manifest of transfers without the interactive menu. Each line is either "<op> <path>" or a JSON object
+//  like {"op":"download","path":"reports/2020.csv"}, blank lines and lines starting with '#' are skipped.
+
+public class BatchRunner {
+  public static final String UPLOAD = "upload";
+  public static final String DOWNLOAD = "download";
+
+  private final FTPClientService ftpClientService;
+
+  public BatchRunner(FTPClientService ftpClientService) {
+    this.ftpClientService = ftpClientService;
+  }
+
+  //  Lines are submitted as they are read and the scheduler queue bounds how far reading runs ahead,
+  //  so manifests of any length are never held in memory
+
+  public BatchResult run(Reader manifest) throws IOException {
+    BatchResult result = new BatchResult();
+    Phaser inFlight = new Phaser(1);
+    long start = System.currentTimeMillis();
+    BufferedReader reader = new BufferedReader(manifest);
+    try {
+      String text;
+      long line = 0;
+      while ((text = reader.readLine()) != null) {
+        line++;
+        text = text.trim();
+        if (text.isEmpty() || text.startsWith("#")) {
+          continue;
+        }
+        Map<String, String> operation = parse(text);
+        String op = operation == null ? null : operation.get("op");
+        String path = operation == null ? null : operation.get("path");
+        if (path == null || path.isEmpty() || !(UPLOAD.equals(op) || DOWNLOAD.equals(op))) {
+          result.lineInvalid(line, text);
+          continue;
+        }
+        submit(result, inFlight, line, op, path);
+      }
+    } finally {
+      inFlight.arriveAndAwaitAdvance();
+      result.finished(System.currentTimeMillis() - start);
+    }
+    return result;
+  }
+
+  //  Helper functions for batch runner
+
+  private void submit(BatchResult result, Phaser inFlight, long line, String op, String path)
+    throws InterruptedIOException {
+    CompletableFuture<Long> transfer;
+    try {
+      transfer = op.equals(UPLOAD) ? ftpClientService.submitUpload(path) : ftpClientService.submitDownload(path);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while submitting line " + line);
+    }
+    result.operationSubmitted();
+    inFlight.register();
+    transfer.whenComplete((bytes, e) -> {
+      if (e == null) {
+        result.operationSucceeded(bytes);
+      } else {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        result.operationFailed(line, op, path, String.valueOf(cause.getMessage()));
+      }
+      inFlight.arriveAndDeregister();
+    });
+  }
+
+  static Map<String, String> parse(String line) {
+    if (line.startsWith("{")) {
+      return parseJson(line);
+    }
+    String[] parts = line.split("\\s+", 2);
+    Map<String, String> operation = new HashMap<>();
+    operation.put("op", parts[0].toLowerCase());
+    operation.put("path", parts.length > 1 ? parts[1] : null);
+    return operation;
+  }
+
+  //  Flat objects only, numbers and literals are kept as text. Returns null for anything else.
+
+  static Map<String, String> parseJson(String line) {
+    Map<String, String> values = new HashMap<>();
+    int[] position = {1};
+    skipWhitespace(line, position);
+    if (position[0] < line.length() && line.charAt(position[0]) == '}') {
+      return values;
+    }
+    while (position[0] < line.length()) {
+      String key = readString(line, position);
+      skipWhitespace(line, position);
+      if (key == null || position[0] >= line.length() || line.charAt(position[0]++) != ':') {
+        return null;
+      }
+      skipWhitespace(line, position);
+      String value;
+      if (position[0] < line.length() && line.charAt(position[0]) == '"') {
+        value = readString(line, position);
+      } else {
+        int valueStart = position[0];
+        while (position[0] < line.length() && ",} \t".indexOf(line.charAt(position[0])) < 0) {
+          position[0]++;
+        }
+        value = line.substring(valueStart, position[0]);
+      }
+      if (value == null) {
+        return null;
+      }
+      values.put(key, value);
+      skipWhitespace(line, position);
+      if (position[0] >= line.length()) {
+        return null;
+      }
+      char separator = line.charAt(position[0]++);
+      if (separator == '}') {
+        return values;
+      }
+      if (separator != ',') {
+        return null;
+      }
+      skipWhitespace(line, position);
+    }
+    return null;
+  }
+
+  private static String readString(String line, int[] position) {
+    if (position[0] >= line.length() || line.charAt(position[0]) != '"') {
+      return null;
+    }
+    StringBuilder value = new StringBuilder();
+    int i = position[0] + 1;
+    while (i < line.length()) {
+      char c = line.charAt(i++);
+      if (c == '"') {
+        position[0] = i;
+        return value.toString();
+      }
+      if (c != '\\') {
+        value.append(c);
+        continue;
+      }
+      if (i >= line.length()) {
+        return null;
+      }
+      char escaped = line.charAt(i++);
+      switch (escaped) {
+        case 'n':
+          value.append('\n');
+          break;
+        case 't':
+          value.append('\t');
+          break;
+        case 'r':
+          value.append('\r');
+          break;
+        case 'b':
+          value.append('\b');
+          break;
+        case 'f':
+          value.append('\f');
+          break;
+        case 'u':
+          if (i + 4 > line.length()) {
+            return null;
+          }
+          try {
+            value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+          } catch (NumberFormatException e) {
+            return null;
+          }
+          i += 4;
+          break;
+        default:
+          value.append(escaped);
+      }
+    }
+    return null;
+  }
+
+  private static void skipWhitespace(String line, int[] position) {
+    while (position[0] < line.length() && Character.isWhitespace(line.charAt(position[0]))) {
+      position[0]++;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package org.ftpc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+public class CompressionPolicy {
+  public static final long DEFAULT_MIN_SIZE = 64 * 1024;
+  public static final double DEFAULT_MIN_RATIO = 1.1;
+  public static final long SAMPLE_BYTES = 1024 * 1024;
+
+  private static final Set<String> PRECOMPRESSED = new HashSet<>(Arrays.asList(
+    "gz", "tgz", "zip", "bz2", "xz", "7z", "rar", "zst", "lz4", "jar", "war",
+    "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "avi", "mov", "ogg", "pdf", "docx", "xlsx"));
+
+  private final Set<String> extensions;
+  private final long minSize;
+  private final double minRatio;
+  private final int level;
+  private final Map<String, Ratio> observed = new ConcurrentHashMap<>();
+
+  public CompressionPolicy() {
+    this(Collections.emptySet(), DEFAULT_MIN_SIZE, DEFAULT_MIN_RATIO, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  //  An empty extension set allows every file type that is not already compressed
+
+  public CompressionPolicy(Set<String> extensions, long minSize, double minRatio, int level) {
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+    Set<String> normalized = new HashSet<>();
+    for (String extension : extensions) {
+      normalized.add(extension.toLowerCase());
+    }
+    this.extensions = Collections.unmodifiableSet(normalized);
+    this.minSize = minSize;
+    this.minRatio = minRatio;
+    this.level = level;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  //  Size is -1 when unknown, e.g. downloads without SIZE, and is then decided by type alone
+
+  public boolean shouldCompress(String fileName, long size) {
+    String extension = extension(fileName);
+    if (PRECOMPRESSED.contains(extension)) {
+      return false;
+    }
+    if (!extensions.isEmpty() && !extensions.contains(extension)) {
+      return false;
+    }
+    if (size >= 0 && size < minSize) {
+      return false;
+    }
+    Ratio ratio = observed.get(extension);
+    return ratio == null || ratio.raw.sum() < SAMPLE_BYTES || ratio.get() >= minRatio;
+  }
+
+  public void record(String fileName, long rawBytes, long wireBytes) {
+    Ratio ratio = observed.computeIfAbsent(extension(fileName), key -> new Ratio());
+    ratio.raw.add(rawBytes);
+    ratio.wire.add(wireBytes);
+  }
+
+  public double getRatio(String extension) {
+    Ratio ratio = observed.get(extension.toLowerCase());
+    return ratio == null ? 0.0 : ratio.get();
+  }
+
+  //  Helper functions for compression policy
+
+  private static String extension(String fileName) {
+    int slash = fileName.lastIndexOf('/');
+    int dot = fileName.lastIndexOf('.');
+    return dot <= slash + 1 ? "" : fileName.substring(dot + 1).toLowerCase();
+  }
+
+  private static class Ratio {
+    private final LongAdder raw = new LongAdder();
+    private final LongAdder wire = new LongAdder();
+
+    double get() {
+      long wireBytes = wire.sum();
+      return wireBytes == 0 ? 0.0 : (double) raw.sum() / wireBytes;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package org.ftpc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+public class ConcurrencyController {
+  public static final int DEFAULT_MIN_CONCURRENCY = 2;
+  public static final long DEFAULT_INTERVAL = TimeUnit.SECONDS.toMillis(2);
+  public static final double TOLERANCE = 0.05;
+  public static final int HOLD_INTERVALS = 5;
+  public static final int RECOVERY_INTERVALS = 30;
+  //  Replies servers use when they refuse another session or data connection
+  private static final int[] LIMIT_REPLY_CODES = {421, 425};
+
+  private final TransferScheduler scheduler;
+  private final TransferMetrics metrics;
+  private final String host;
+  private final int minConcurrency;
+  private final int concurrencyLimit;
+  private final List<IntConsumer> listeners = new CopyOnWriteArrayList<>();
+  private int maxConcurrency;
+  private int concurrency;
+  private int previousConcurrency;
+  private double previousThroughput;
+  private int holdIntervals;
+  private int cleanIntervals;
+  private long lastBytes;
+  private long lastLimitFailures;
+  private long lastSampleAt;
+  private ScheduledExecutorService sampling;
+
+  public ConcurrencyController(TransferScheduler scheduler, TransferMetrics metrics, String host,
+                               int minConcurrency, int maxConcurrency) {
+    if (minConcurrency < 1 || maxConcurrency < minConcurrency) {
+      throw new IllegalArgumentException("Concurrency bounds must satisfy 1 <= min <= max");
+    }
+    this.scheduler = scheduler;
+    this.metrics = metrics;
+    this.host = host;
+    this.minConcurrency = minConcurrency;
+    this.maxConcurrency = maxConcurrency;
+    concurrencyLimit = maxConcurrency;
+    concurrency = minConcurrency;
+    previousConcurrency = minConcurrency;
+  }
+
+  //  Listeners are told every new level, e.g. to match the number of download segments
+
+  public void addListener(IntConsumer listener) {
+    listeners.add(listener);
+  }
+
+  public synchronized int getConcurrency() {
+    return concurrency;
+  }
+
+  //  Upper bound, lowered below any level at which the server refused connections and raised again by one after
+  //  every RECOVERY_INTERVALS intervals without refusals, up to the configured maximum
+
+  public synchronized int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public synchronized void start(long interval, TimeUnit unit) {
+    stop();
+    concurrency = minConcurrency;
+    previousConcurrency = minConcurrency;
+    previousThroughput = 0;
+    holdIntervals = 0;
+    cleanIntervals = 0;
+    lastBytes = metrics.getBytesMoved();
+    lastLimitFailures = limitFailures();
+    lastSampleAt = System.nanoTime();
+    apply();
+    sampling = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ftp-concurrency-controller");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sampling.scheduleAtFixedRate(this::sample, interval, interval, unit);
+  }
+
+  public synchronized void stop() {
+    if (sampling != null) {
+      sampling.shutdownNow();
+      sampling = null;
+    }
+  }
+
+  synchronized void sample() {
+    long now = System.nanoTime();
+    long bytes = metrics.getBytesMoved();
+    long failures = limitFailures();
+    double throughput = now == lastSampleAt ? 0 : Math.max(0, bytes - lastBytes) * 1e9 / (now - lastSampleAt);
+    boolean saturated = scheduler.getQueued() > 0 || scheduler.getRunning() >= scheduler.getConcurrency();
+    adjust(throughput, Math.max(0, failures - lastLimitFailures), saturated);
+    lastBytes = bytes;
+    lastLimitFailures = failures;
+    lastSampleAt = now;
+  }
+
+  //  AIMD: refused connections halve the level and cap it below where they happened. While work is queued
+  //  one session is added per interval, and a step that lowered throughput is undone and held for a while.
+  //  Idle intervals say nothing about the best level and leave it alone. Refusals may have been a passing
+  //  server load, so a quiet stretch lifts the cap one step at a time.
+
+  synchronized int adjust(double throughput, long limitFailures, boolean saturated) {
+    int next = concurrency;
+    cleanIntervals = limitFailures > 0 ? 0 : cleanIntervals + 1;
+    if (cleanIntervals >= RECOVERY_INTERVALS && maxConcurrency < concurrencyLimit) {
+      maxConcurrency++;
+      cleanIntervals = 0;
+    }
+    if (limitFailures > 0) {
+      maxConcurrency = Math.max(minConcurrency, Math.min(maxConcurrency, concurrency - 1));
+      next = Math.max(minConcurrency, concurrency / 2);
+      previousConcurrency = next;
+      previousThroughput = 0;
+      holdIntervals = HOLD_INTERVALS;
+    } else if (holdIntervals > 0) {
+      holdIntervals--;
+    } else if (saturated) {
+      if (concurrency > previousConcurrency && throughput < previousThroughput * (1 - TOLERANCE)) {
+        next = previousConcurrency;
+        holdIntervals = HOLD_INTERVALS;
+      } else {
+        next = Math.min(maxConcurrency, concurrency + 1);
+      }
+      previousConcurrency = concurrency;
+      previousThroughput = throughput;
+    }
+    if (next != concurrency) {
+      concurrency = next;
+      apply();
+    }
+    return concurrency;
+  }
+
+  private void apply() {
+    scheduler.setConcurrency(concurrency);
+    for (IntConsumer listener : listeners) {
+      listener.accept(concurrency);
+    }
+  }
+
+  private long limitFailures() {
+    long total = 0;
+    for (int replyCode : LIMIT_REPLY_CODES) {
+      total += metrics.getFailures(host, replyCode);
+    }
+    return total;
+  }
+}
@@ -0,0 +1,11 @@
+package org.ftpc;
+
+//  How data connections are opened. AUTO uses EPSV when the server lists it in FEAT or the control connection is
+//  IPv6, and PASV otherwise. ACTIVE listens locally and sends PORT, or EPRT over IPv6.
+
+public enum DataConnectionMode {
+  AUTO,
+  PASV,
+  EPSV,
+  ACTIVE
+}
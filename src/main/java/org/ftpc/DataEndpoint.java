@@ -0,0 +1,136 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+//  Address and port of one data connection, parsed from PASV and EPSV replies or formatted for PORT and EPRT
+
+public final class DataEndpoint {
+  private final InetAddress address;
+  private final int port;
+
+  public DataEndpoint(InetAddress address, int port) {
+    if (port < 0 || port > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid port: " + port);
+    }
+    this.address = Objects.requireNonNull(address, "address");
+    this.port = port;
+  }
+
+  //  227 Entering Passive Mode (h1,h2,h3,h4,p1,p2), some servers leave out the parentheses
+
+  public static DataEndpoint parsePasv(String reply) throws IOException {
+    int position = reply.indexOf('(');
+    if (position < 0) {
+      position = Math.min(3, reply.length());
+      while (position < reply.length() && !Character.isDigit(reply.charAt(position))) {
+        position++;
+      }
+    } else {
+      position++;
+    }
+    int[] fields = new int[6];
+    for (int i = 0; i < fields.length; i++) {
+      int value = 0;
+      int digits = 0;
+      while (position < reply.length() && Character.isDigit(reply.charAt(position)) && digits < 3) {
+        value = value * 10 + reply.charAt(position++) - '0';
+        digits++;
+      }
+      if (digits == 0 || value > 255 || (i < 5 && (position >= reply.length() || reply.charAt(position++) != ','))) {
+        throw new IOException("Error: " + reply);
+      }
+      fields[i] = value;
+    }
+    byte[] address = {(byte) fields[0], (byte) fields[1], (byte) fields[2], (byte) fields[3]};
+    return new DataEndpoint(InetAddress.getByAddress(address), fields[4] << 8 | fields[5]);
+  }
+
+  //  229 Entering Extended Passive Mode (|||port|) only names a port, the data connection goes to the address of
+  //  the control connection
+
+  public static DataEndpoint parseEpsv(String reply, InetAddress controlAddress) throws IOException {
+    int open = reply.indexOf('(');
+    if (open < 0 || open + 4 >= reply.length()) {
+      throw new IOException("Error: " + reply);
+    }
+    char delimiter = reply.charAt(open + 1);
+    int position = open + 4;
+    if (reply.charAt(open + 2) != delimiter || reply.charAt(open + 3) != delimiter) {
+      throw new IOException("Error: " + reply);
+    }
+    int port = 0;
+    int digits = 0;
+    while (position < reply.length() && Character.isDigit(reply.charAt(position)) && digits < 5) {
+      port = port * 10 + reply.charAt(position++) - '0';
+      digits++;
+    }
+    if (digits == 0 || port > 0xFFFF || position >= reply.length() || reply.charAt(position) != delimiter) {
+      throw new IOException("Error: " + reply);
+    }
+    return new DataEndpoint(controlAddress, port);
+  }
+
+  public InetAddress getAddress() {
+    return address;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public boolean isIpv6() {
+    return address instanceof Inet6Address;
+  }
+
+  public InetSocketAddress toSocketAddress() {
+    return new InetSocketAddress(address, port);
+  }
+
+  //  h1,h2,h3,h4,p1,p2 for PORT, which only carries IPv4 addresses
+
+  public String toPortArgument() {
+    if (isIpv6()) {
+      throw new IllegalStateException("PORT cannot name an IPv6 address, use EPRT: " + this);
+    }
+    byte[] bytes = address.getAddress();
+    return String.format("%d,%d,%d,%d,%d,%d", bytes[0] & 0xFF, bytes[1] & 0xFF, bytes[2] & 0xFF, bytes[3] & 0xFF,
+      port >> 8, port & 0xFF);
+  }
+
+  //  |1|192.0.2.7|6446| or |2|2001:db8::7|6446|, the zone of a link-local address means nothing to the server
+
+  public String toEprtArgument() {
+    String host = address.getHostAddress();
+    int zone = host.indexOf('%');
+    if (zone >= 0) {
+      host = host.substring(0, zone);
+    }
+    return String.format("|%d|%s|%d|", isIpv6() ? 2 : 1, host, port);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof DataEndpoint)) {
+      return false;
+    }
+    DataEndpoint endpoint = (DataEndpoint) other;
+    return port == endpoint.port && address.equals(endpoint.address);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * address.hashCode() + port;
+  }
+
+  @Override
+  public String toString() {
+    return (isIpv6() ? "[" + address.getHostAddress() + "]" : address.getHostAddress()) + ":" + port;
+  }
+}
@@ -0,0 +1,163 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//  Bound and listening server sockets for active mode. A listener accepts one data connection per transfer and goes
+//  back to the pool, so sessions skip the bind and listen calls and reuse the same few ports. Anyone can connect to
+//  an idle listener, so connections queued while it was pooled are dropped and only the server's address is accepted.
+
+public class DataListenerPool {
+  public static final int DEFAULT_MAX_IDLE = 16;
+  public static final int BACKLOG = 4;
+
+  private static final DataListenerPool SHARED = new DataListenerPool(0, 0, DEFAULT_MAX_IDLE);
+
+  private final int minPort;
+  private final int maxPort;
+  private final int maxIdle;
+  private final Map<InetAddress, Queue<ServerSocketChannel>> listeners = new ConcurrentHashMap<>();
+  private final AtomicInteger idle = new AtomicInteger();
+  private final AtomicInteger nextPort = new AtomicInteger();
+
+  //  Ports 0 to 0 take any free port, a range lets firewalls open just those ports for the server's connections
+
+  public DataListenerPool(int minPort, int maxPort, int maxIdle) {
+    if (minPort < 0 || maxPort > 0xFFFF || minPort > maxPort || (minPort == 0) != (maxPort == 0)) {
+      throw new IllegalArgumentException("Invalid port range: " + minPort + "-" + maxPort);
+    }
+    this.minPort = minPort;
+    this.maxPort = maxPort;
+    this.maxIdle = maxIdle;
+  }
+
+  public static DataListenerPool shared() {
+    return SHARED;
+  }
+
+  public int getIdle() {
+    return idle.get();
+  }
+
+  //  Listeners are bound to the local address of the control connection, the one the server already reaches
+
+  public ServerSocketChannel acquire(InetAddress localAddress) throws IOException {
+    Queue<ServerSocketChannel> pooled = listeners.get(localAddress);
+    ServerSocketChannel listener;
+    while (pooled != null && (listener = pooled.poll()) != null) {
+      idle.decrementAndGet();
+      if (listener.isOpen() && !hasQueuedConnection(listener)) {
+        return listener;
+      }
+      close(listener);
+    }
+    return bind(localAddress);
+  }
+
+  //  Waits up to timeout ms (0 waits forever) for a connection from peer, connections from other hosts are closed
+
+  public static SocketChannel accept(ServerSocketChannel listener, InetAddress peer, int timeout) throws IOException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    while (true) {
+      long remaining = deadline - System.nanoTime();
+      if (timeout > 0 && remaining <= 0) {
+        throw new SocketTimeoutException(
+          "No data connection from " + peer.getHostAddress() + " after " + timeout + " ms");
+      }
+      listener.socket().setSoTimeout(timeout == 0 ? 0 : (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+      Socket socket = listener.socket().accept();
+      if (peer.equals(socket.getInetAddress())) {
+        return socket.getChannel();
+      }
+      socket.close();
+    }
+  }
+
+  //  A listener is only pooled when clean, i.e. no server connection for a failed transfer can still be queued on it
+
+  public void release(ServerSocketChannel listener, boolean clean) {
+    if (!clean || !listener.isOpen() || hasQueuedConnection(listener)) {
+      close(listener);
+      return;
+    }
+    if (idle.incrementAndGet() > maxIdle) {
+      idle.decrementAndGet();
+      close(listener);
+      return;
+    }
+    InetAddress localAddress = listener.socket().getInetAddress();
+    listeners.computeIfAbsent(localAddress, address -> new ConcurrentLinkedQueue<>()).offer(listener);
+  }
+
+  public void close() {
+    for (Queue<ServerSocketChannel> pooled : listeners.values()) {
+      ServerSocketChannel listener;
+      while ((listener = pooled.poll()) != null) {
+        idle.decrementAndGet();
+        close(listener);
+      }
+    }
+  }
+
+  //  Helper functions for data listener pool
+
+  private ServerSocketChannel bind(InetAddress localAddress) throws IOException {
+    ServerSocketChannel listener = ServerSocketChannel.open();
+    try {
+      if (minPort == 0) {
+        listener.bind(new InetSocketAddress(localAddress, 0), BACKLOG);
+        return listener;
+      }
+      int ports = maxPort - minPort + 1;
+      for (int i = 0; i < ports; i++) {
+        int port = minPort + Math.floorMod(nextPort.getAndIncrement(), ports);
+        try {
+          listener.bind(new InetSocketAddress(localAddress, port), BACKLOG);
+          return listener;
+        } catch (BindException ignored) {
+        }
+      }
+      throw new BindException("No free port for active mode in " + minPort + "-" + maxPort);
+    } catch (IOException e) {
+      close(listener);
+      throw e;
+    }
+  }
+
+  //  Closes every queued connection, a listener that had one was reached by someone and is not reused
+
+  private static boolean hasQueuedConnection(ServerSocketChannel listener) {
+    try {
+      listener.configureBlocking(false);
+      boolean queued = false;
+      SocketChannel stray;
+      while ((stray = listener.accept()) != null) {
+        stray.close();
+        queued = true;
+      }
+      listener.configureBlocking(true);
+      return queued;
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  private static void close(ServerSocketChannel listener) {
+    try {
+      listener.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
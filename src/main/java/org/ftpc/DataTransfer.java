@@ -0,0 +1,507 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class DataTransfer {
+  public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+  public static final int THROTTLED_CHUNK_SIZE = 64 * 1024;
+  public static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+  public static final int MAX_COPY_BUFFER_SIZE = 256 * 1024;
+  private static final int HEAP_BUFFER_SIZE = 64 * 1024;
+  private static final int LINE_BUFFER_SIZE = 16 * 1024;
+
+  private final DirectBufferPool bufferPool;
+  private boolean zeroCopy;
+  private int chunkSize;
+  private RateLimiter rateLimiter;
+  private RateLimiter transferRateLimiter = new RateLimiter();
+  private TransferMetrics metrics;
+  private Deflater deflater;
+  private Inflater inflater;
+  private byte[] rawBuffer;
+  private byte[] deflateBuffer;
+  private byte[] asciiBuffer;
+  private byte[] lineBuffer;
+  private long lastWireBytes;
+
+  public DataTransfer() {
+    this(DirectBufferPool.shared());
+  }
+
+  public DataTransfer(DirectBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+    zeroCopy = !Boolean.getBoolean("ftpc.nozerocopy");
+    chunkSize = DEFAULT_CHUNK_SIZE;
+  }
+
+  public DirectBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  public boolean isZeroCopy() {
+    return zeroCopy;
+  }
+
+  public void setZeroCopy(boolean zeroCopy) {
+    this.zeroCopy = zeroCopy;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  //  Bytes per zero-copy call and between progress reports, copies move up to MAX_COPY_BUFFER_SIZE at a time
+
+  public void setChunkSize(int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  //  Shared limiter for all transfers of a service, the transfer limiter caps this data path alone
+
+  public void setRateLimiter(RateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  public RateLimiter getTransferRateLimiter() {
+    return transferRateLimiter;
+  }
+
+  public void setTransferRateLimiter(RateLimiter transferRateLimiter) {
+    this.transferRateLimiter = transferRateLimiter;
+  }
+
+  public TransferMetrics getMetrics() {
+    return metrics;
+  }
+
+  public void setMetrics(TransferMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public long send(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+    return send(source, position, count, target, null);
+  }
+
+  //  Binary sends use transferTo, with zero-copy off or once it stops making progress the rest is written from
+  //  mapped windows instead
+
+  public long send(FileChannel source, long position, long count, WritableByteChannel target,
+                   Progress progress) throws IOException {
+    long sent = 0;
+    if (zeroCopy) {
+      long reported = 0;
+      while (sent < count) {
+        long step = Math.min(step(), count - sent);
+        long transferred = target instanceof SocketOptions.TimedChannel
+          ? ((SocketOptions.TimedChannel) target).transferFrom(source, position + sent, step)
+          : source.transferTo(position + sent, step, target);
+        if (transferred <= 0) {
+          break;
+        }
+        sent += transferred;
+        throttle(transferred);
+        if (sent - reported >= chunkSize || sent == count) {
+          reported = sent;
+          report(progress, position + sent);
+        }
+      }
+    }
+    if (sent < count) {
+      sent += sendMapped(source, position + sent, count - sent, target, progress);
+    }
+    return sent;
+  }
+
+  //  Maps one step of the file at a time, at most MAP_WINDOW_SIZE, and writes it to the target as it is, so no bytes
+  //  are copied into Java buffers and concurrent senders of one FileChannel each map their own region. Mappings are
+  //  only released once collected, small windows keep the address space a send holds on to bounded.
+
+  public long sendMapped(FileChannel source, long position, long count, WritableByteChannel target,
+                         Progress progress) throws IOException {
+    long sent = 0;
+    long reported = 0;
+    count = Math.min(count, source.size() - position);
+    while (sent < count) {
+      int length = (int) Math.min(Math.min(step(), MAP_WINDOW_SIZE), count - sent);
+      MappedByteBuffer window = source.map(FileChannel.MapMode.READ_ONLY, position + sent, length);
+      while (window.hasRemaining()) {
+        target.write(window);
+      }
+      sent += length;
+      throttle(length);
+      if (sent - reported >= chunkSize) {
+        reported = sent;
+        report(progress, position + sent);
+      }
+    }
+    if (sent > reported) {
+      report(progress, position + sent);
+    }
+    return sent;
+  }
+
+  public long receive(ReadableByteChannel source, FileChannel target, long position) throws IOException {
+    return receive(source, target, position, Long.MAX_VALUE, null);
+  }
+
+  public long receive(ReadableByteChannel source, FileChannel target, long position, long count) throws IOException {
+    return receive(source, target, position, count, null);
+  }
+
+  public long receive(ReadableByteChannel source, FileChannel target, long position, long count,
+                      Progress progress) throws IOException {
+    return receive(source, target, position, count, progress, null);
+  }
+
+  //  A digest needs the bytes in user space, so digested transfers take the copy path
+
+  public long receive(ReadableByteChannel source, FileChannel target, long position, long count,
+                      Progress progress, FileDigest digest) throws IOException {
+    if (!zeroCopy || digest != null) {
+      return copy(source, target, position, count, progress, digest);
+    }
+    long received = 0;
+    long reported = 0;
+    while (received < count) {
+      long transferred = target.transferFrom(source, position + received, Math.min(step(), count - received));
+      if (transferred <= 0) {
+        break;
+      }
+      received += transferred;
+      throttle(transferred);
+      if (received - reported >= chunkSize) {
+        reported = received;
+        report(progress, position + received);
+      }
+    }
+    if (received > reported) {
+      report(progress, position + received);
+    }
+    return received;
+  }
+
+  //  MODE Z streams are zlib deflate streams, the deflater, inflater and heap buffers are reused between files
+
+  public long sendDeflated(FileChannel source, long position, long count, WritableByteChannel target,
+                           int level) throws IOException {
+    allocateHeapBuffers();
+    if (deflater == null) {
+      deflater = new Deflater(level);
+    } else {
+      deflater.reset();
+      deflater.setLevel(level);
+    }
+    lastWireBytes = 0;
+    long sent = 0;
+    while (sent < count) {
+      int read = source.read(ByteBuffer.wrap(rawBuffer, 0, (int) Math.min(rawBuffer.length, count - sent)),
+        position + sent);
+      if (read < 0) {
+        break;
+      }
+      sent += read;
+      deflater.setInput(rawBuffer, 0, read);
+      while (!deflater.needsInput()) {
+        writeDeflated(target, deflater.deflate(deflateBuffer));
+      }
+    }
+    deflater.finish();
+    while (!deflater.finished()) {
+      writeDeflated(target, deflater.deflate(deflateBuffer));
+    }
+    return sent;
+  }
+
+  public long receiveInflated(ReadableByteChannel source, FileChannel target, long position,
+                              Progress progress, FileDigest digest) throws IOException {
+    allocateHeapBuffers();
+    if (inflater == null) {
+      inflater = new Inflater();
+    } else {
+      inflater.reset();
+    }
+    lastWireBytes = 0;
+    long received = 0;
+    long reported = 0;
+    try {
+      while (!inflater.finished()) {
+        if (inflater.needsInput()) {
+          int read = source.read(ByteBuffer.wrap(deflateBuffer));
+          if (read < 0) {
+            throw new IOException("Error: compressed data ended before the end of stream");
+          }
+          lastWireBytes += read;
+          throttle(read);
+          inflater.setInput(deflateBuffer, 0, read);
+        }
+        int inflated = inflater.inflate(rawBuffer);
+        if (inflated == 0 && inflater.needsDictionary()) {
+          throw new IOException("Error: compressed data needs a preset dictionary");
+        }
+        if (digest != null) {
+          digest.update(rawBuffer, 0, inflated);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(rawBuffer, 0, inflated);
+        while (buffer.hasRemaining()) {
+          received += target.write(buffer, position + received);
+        }
+        if (received - reported >= chunkSize) {
+          reported = received;
+          report(progress, position + received);
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Error: invalid compressed data: " + e.getMessage());
+    }
+    if (received > reported) {
+      report(progress, position + received);
+    }
+    return received;
+  }
+
+  //  ASCII data travels with CRLF line ends, bare LFs are expanded on send and CRLF becomes the local separator on receive
+
+  public long sendAscii(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+    allocateHeapBuffers();
+    lastWireBytes = 0;
+    long sent = 0;
+    boolean carriageReturn = false;
+    while (sent < count) {
+      int read = source.read(ByteBuffer.wrap(rawBuffer, 0, (int) Math.min(rawBuffer.length, count - sent)),
+        position + sent);
+      if (read < 0) {
+        break;
+      }
+      sent += read;
+      int length = 0;
+      for (int i = 0; i < read; i++) {
+        byte value = rawBuffer[i];
+        if (value == '\n' && !carriageReturn) {
+          asciiBuffer[length++] = '\r';
+        }
+        asciiBuffer[length++] = value;
+        carriageReturn = value == '\r';
+      }
+      writeAscii(target, length);
+    }
+    return sent;
+  }
+
+  public long receiveAscii(ReadableByteChannel source, FileChannel target, long position,
+                           Progress progress) throws IOException {
+    if (System.lineSeparator().equals("\r\n")) {
+      return receive(source, target, position, Long.MAX_VALUE, progress, null);
+    }
+    allocateHeapBuffers();
+    lastWireBytes = 0;
+    long received = 0;
+    long reported = 0;
+    boolean carriageReturn = false;
+    int read;
+    while ((read = source.read(ByteBuffer.wrap(rawBuffer))) >= 0) {
+      lastWireBytes += read;
+      throttle(read);
+      int length = 0;
+      for (int i = 0; i < read; i++) {
+        byte value = rawBuffer[i];
+        if (carriageReturn && value != '\n') {
+          asciiBuffer[length++] = '\r';
+        }
+        carriageReturn = value == '\r';
+        if (!carriageReturn) {
+          asciiBuffer[length++] = value;
+        }
+      }
+      received += writeAt(target, position + received, length);
+      if (received - reported >= chunkSize) {
+        reported = received;
+        report(progress, position + received);
+      }
+    }
+    if (carriageReturn) {
+      asciiBuffer[0] = '\r';
+      received += writeAt(target, position + received, 1);
+    }
+    if (received > reported) {
+      report(progress, position + received);
+    }
+    return received;
+  }
+
+  public long getLastWireBytes() {
+    return lastWireBytes;
+  }
+
+  //  Listing lines are cut from a pooled buffer, a trailing CR is dropped and the last line may lack its LF
+
+  public long receiveLines(ReadableByteChannel source, Charset charset, Consumer<String> lines) throws IOException {
+    if (lineBuffer == null) {
+      lineBuffer = new byte[512];
+    }
+    ByteBuffer buffer = bufferPool.acquire(LINE_BUFFER_SIZE);
+    long received = 0;
+    int lineLength = 0;
+    try {
+      int read;
+      while ((read = source.read(buffer)) >= 0) {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+          byte value = buffer.get();
+          if (value == '\n') {
+            lines.accept(decodeLine(lineLength, charset));
+            lineLength = 0;
+            continue;
+          }
+          if (lineLength == lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, lineBuffer.length * 2);
+          }
+          lineBuffer[lineLength++] = value;
+        }
+        ((Buffer) buffer).clear();
+        received += read;
+        throttle(read);
+      }
+      if (lineLength > 0) {
+        lines.accept(decodeLine(lineLength, charset));
+      }
+    } finally {
+      bufferPool.release(buffer);
+    }
+    return received;
+  }
+
+  public interface Progress {
+    void transferred(long position) throws IOException;
+  }
+
+  //  Throttled zero-copy transfers move small chunks so limiters can interleave concurrent streams
+
+  private long step() {
+    return isThrottled() ? Math.min(chunkSize, THROTTLED_CHUNK_SIZE) : chunkSize;
+  }
+
+  private int copyBufferSize() {
+    return (int) Math.min(step(), MAX_COPY_BUFFER_SIZE);
+  }
+
+  private boolean isThrottled() {
+    return (rateLimiter != null && rateLimiter.isLimited()) || transferRateLimiter.isLimited();
+  }
+
+  private void throttle(long bytes) throws IOException {
+    if (metrics != null) {
+      metrics.recordBytesMoved(bytes);
+    }
+    if (rateLimiter != null) {
+      rateLimiter.acquire(bytes);
+    }
+    transferRateLimiter.acquire(bytes);
+  }
+
+  private static void report(Progress progress, long position) throws IOException {
+    if (progress != null) {
+      progress.transferred(position);
+    }
+  }
+
+  private String decodeLine(int length, Charset charset) {
+    if (length > 0 && lineBuffer[length - 1] == '\r') {
+      length--;
+    }
+    return new String(lineBuffer, 0, length, charset);
+  }
+
+  private void allocateHeapBuffers() {
+    if (rawBuffer == null) {
+      rawBuffer = new byte[HEAP_BUFFER_SIZE];
+      deflateBuffer = new byte[HEAP_BUFFER_SIZE];
+      asciiBuffer = new byte[2 * HEAP_BUFFER_SIZE];
+    }
+  }
+
+  private void writeAscii(WritableByteChannel target, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(asciiBuffer, 0, length);
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+    lastWireBytes += length;
+    throttle(length);
+  }
+
+  private int writeAt(FileChannel target, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(asciiBuffer, 0, length);
+    int written = 0;
+    while (buffer.hasRemaining()) {
+      written += target.write(buffer, position + written);
+    }
+    return written;
+  }
+
+  private void writeDeflated(WritableByteChannel target, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(deflateBuffer, 0, length);
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+    lastWireBytes += length;
+    throttle(length);
+  }
+
+  //  Digested and non zero-copy receives go through pooled direct buffers of up to one chunk, capped at the largest
+  //  pooled size
+
+  private long copy(ReadableByteChannel source, FileChannel target, long position, long count,
+                    Progress progress, FileDigest digest) throws IOException {
+    ByteBuffer buffer = bufferPool.acquire(copyBufferSize());
+    long received = 0;
+    long reported = 0;
+    try {
+      while (received < count) {
+        ((Buffer) buffer).clear();
+        if (count - received < buffer.capacity()) {
+          ((Buffer) buffer).limit((int) (count - received));
+        }
+        int read = source.read(buffer);
+        if (read < 0) {
+          break;
+        }
+        ((Buffer) buffer).flip();
+        if (digest != null) {
+          digest.update(buffer);
+        }
+        while (buffer.hasRemaining()) {
+          received += target.write(buffer, position + received);
+        }
+        throttle(read);
+        if (received - reported >= chunkSize) {
+          reported = received;
+          report(progress, position + received);
+        }
+      }
+    } finally {
+      bufferPool.release(buffer);
+    }
+    if (received > reported) {
+      report(progress, position + received);
+    }
+    return received;
+  }
+}
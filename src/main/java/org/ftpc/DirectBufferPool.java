@@ -0,0 +1,190 @@
+package org.ftpc;
+
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DirectBufferPool {
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  public static final int DEFAULT_MAX_POOLED = 64;
+  public static final int SIZE_CLASSES = 4;
+  public static final int THREAD_CACHE_SIZE = 4;
+
+  private static final DirectBufferPool SHARED = new DirectBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+  private static final Method IS_VIRTUAL = isVirtualMethod();
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final int[] classSizes = new int[SIZE_CLASSES];
+  private final List<ConcurrentLinkedQueue<ByteBuffer>> buffers = new ArrayList<>(SIZE_CLASSES);
+  private final AtomicInteger[] pooled = new AtomicInteger[SIZE_CLASSES];
+  private final ThreadLocal<List<ArrayDeque<ByteBuffer>>> threadCache;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final AtomicInteger outstanding = new AtomicInteger();
+  private final Map<ByteBuffer, Throwable> leases = Collections.synchronizedMap(new IdentityHashMap<>());
+  private volatile boolean leakDetection = Boolean.getBoolean("ftpc.bufferleaks");
+
+  //  Sizes grow by 4x, bufferSize is the third of four classes: 4, 16, 64 and 256 kB for the shared pool
+
+  public DirectBufferPool(int bufferSize, int maxPooled) {
+    if (bufferSize < 16) {
+      throw new IllegalArgumentException("Buffer size must be at least 16 bytes: " + bufferSize);
+    }
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+    for (int i = 0; i < SIZE_CLASSES; i++) {
+      classSizes[i] = (bufferSize >> 4) << (2 * i);
+      buffers.add(new ConcurrentLinkedQueue<>());
+      pooled[i] = new AtomicInteger();
+    }
+    classSizes[2] = bufferSize;
+    threadCache = ThreadLocal.withInitial(() -> {
+      List<ArrayDeque<ByteBuffer>> cache = new ArrayList<>(SIZE_CLASSES);
+      for (int i = 0; i < SIZE_CLASSES; i++) {
+        cache.add(new ArrayDeque<>(THREAD_CACHE_SIZE));
+      }
+      return cache;
+    });
+  }
+
+  public static DirectBufferPool shared() {
+    return SHARED;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public ByteBuffer acquire() {
+    return acquire(bufferSize);
+  }
+
+  //  Smallest class that holds capacity bytes, larger requests get an exact buffer that is never pooled
+
+  public ByteBuffer acquire(int capacity) {
+    int sizeClass = sizeClass(capacity);
+    ByteBuffer buffer = null;
+    if (sizeClass >= 0) {
+      if (!isVirtualThread()) {
+        buffer = threadCache.get().get(sizeClass).pollLast();
+      }
+      if (buffer == null) {
+        buffer = buffers.get(sizeClass).poll();
+        if (buffer != null) {
+          pooled[sizeClass].decrementAndGet();
+        }
+      }
+    }
+    if (buffer == null) {
+      misses.increment();
+      buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? classSizes[sizeClass] : capacity);
+    } else {
+      hits.increment();
+      ((Buffer) buffer).clear();
+    }
+    outstanding.incrementAndGet();
+    if (leakDetection) {
+      leases.put(buffer, new Throwable("Buffer of " + buffer.capacity() + " bytes acquired here"));
+    }
+    return buffer;
+  }
+
+  //  Released buffers go to the releasing thread's cache first, the shared queues take the overflow. Virtual threads
+  //  run a single task and end, so their buffers go straight to the shared queues.
+
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    if (leakDetection && leases.remove(buffer) == null) {
+      throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+    }
+    outstanding.decrementAndGet();
+    int sizeClass = sizeClass(buffer.capacity());
+    if (sizeClass < 0 || classSizes[sizeClass] != buffer.capacity()) {
+      return;
+    }
+    if (!isVirtualThread()) {
+      ArrayDeque<ByteBuffer> cache = threadCache.get().get(sizeClass);
+      if (cache.size() < THREAD_CACHE_SIZE) {
+        cache.addLast(buffer);
+        return;
+      }
+    }
+    if (pooled[sizeClass].incrementAndGet() > maxPooled) {
+      pooled[sizeClass].decrementAndGet();
+      return;
+    }
+    buffers.get(sizeClass).offer(buffer);
+  }
+
+  public double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return total == 0 ? 0.0 : (double) hitCount / total;
+  }
+
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  public boolean isLeakDetection() {
+    return leakDetection;
+  }
+
+  //  Records where every outstanding buffer was acquired and rejects double releases. Turn it on before buffers
+  //  are handed out, e.g. with -Dftpc.bufferleaks=true.
+
+  public void setLeakDetection(boolean leakDetection) {
+    if (!leakDetection) {
+      leases.clear();
+    }
+    this.leakDetection = leakDetection;
+  }
+
+  public List<Throwable> getLeaks() {
+    synchronized (leases) {
+      return new ArrayList<>(leases.values());
+    }
+  }
+
+  //  Thread.isVirtual exists from Java 21 on, as with the executor in TransferScheduler
+
+  private static Method isVirtualMethod() {
+    try {
+      return Thread.class.getMethod("isVirtual");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static boolean isVirtualThread() {
+    if (IS_VIRTUAL == null) {
+      return false;
+    }
+    try {
+      return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+    } catch (ReflectiveOperationException e) {
+      return false;
+    }
+  }
+
+  private int sizeClass(int capacity) {
+    for (int i = 0; i < SIZE_CLASSES; i++) {
+      if (capacity <= classSizes[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,158 @@
+package org.ftpc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DirectoryCache {
+  public static final int DEFAULT_MAX_DIRECTORIES = 1024;
+  public static final long DEFAULT_TTL = 30 * 1000;
+
+  public static final String LIST = "LIST";
+  public static final String NLST = "NLST";
+  public static final String ENTRIES = "ENTRIES";
+
+  private final int maxDirectories;
+  private final long ttl;
+  private final LinkedHashMap<String, Map<String, Listing>> directories;
+  private long hits;
+  private long misses;
+
+  public DirectoryCache() {
+    this(DEFAULT_MAX_DIRECTORIES, DEFAULT_TTL);
+  }
+
+  public DirectoryCache(int maxDirectories, long ttl) {
+    if (maxDirectories < 1) {
+      throw new IllegalArgumentException("Max cached directories must be positive: " + maxDirectories);
+    }
+    this.maxDirectories = maxDirectories;
+    this.ttl = ttl;
+    directories = new LinkedHashMap<String, Map<String, Listing>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Map<String, Listing>> eldest) {
+        return size() > DirectoryCache.this.maxDirectories;
+      }
+    };
+  }
+
+  public long getTtl() {
+    return ttl;
+  }
+
+  @SuppressWarnings("unchecked")
+  public synchronized <T> List<T> get(String path, String kind) {
+    Map<String, Listing> listings = directories.get(path);
+    Listing listing = listings == null ? null : listings.get(kind);
+    if (listing == null || listing.expiresAt <= System.currentTimeMillis()) {
+      if (listing != null) {
+        listings.remove(kind);
+      }
+      misses++;
+      return null;
+    }
+    hits++;
+    return (List<T>) listing.items;
+  }
+
+  public synchronized void put(String path, String kind, List<?> items) {
+    if (ttl <= 0) {
+      return;
+    }
+    directories.computeIfAbsent(path, key -> new HashMap<>())
+      .put(kind, new Listing(Collections.unmodifiableList(new ArrayList<>(items)), System.currentTimeMillis() + ttl));
+  }
+
+  //  A directory is known when its parent's typed listing shows it as one. Its own listings prove nothing, LIST and
+  //  NLST of a file list that file.
+
+  public synchronized boolean isKnownDirectory(String path) {
+    if (path.equals("/")) {
+      return true;
+    }
+    long now = System.currentTimeMillis();
+    Map<String, Listing> parentListings = directories.get(parent(path));
+    Listing entries = parentListings == null ? null : parentListings.get(ENTRIES);
+    if (entries != null && entries.expiresAt > now) {
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      for (Object item : entries.items) {
+        FTPListEntry entry = (FTPListEntry) item;
+        if (entry.isDirectory() && entry.getName().equals(name)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  //  Changing a path makes its own listings, its subtree and its parent's listings stale
+
+  public synchronized void invalidate(String path) {
+    String prefix = path.endsWith("/") ? path : path + "/";
+    directories.remove(parent(path));
+    Iterator<String> iterator = directories.keySet().iterator();
+    while (iterator.hasNext()) {
+      String cached = iterator.next();
+      if (cached.equals(path) || cached.startsWith(prefix)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    directories.clear();
+  }
+
+  public synchronized int size() {
+    return directories.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  public static String resolve(String base, String path) {
+    String combined = path.startsWith("/") ? path : (base.endsWith("/") ? base : base + "/") + path;
+    List<String> parts = new ArrayList<>();
+    for (String part : combined.split("/")) {
+      if (part.isEmpty() || part.equals(".")) {
+        continue;
+      }
+      if (part.equals("..")) {
+        if (!parts.isEmpty()) {
+          parts.remove(parts.size() - 1);
+        }
+      } else {
+        parts.add(part);
+      }
+    }
+    return "/" + String.join("/", parts);
+  }
+
+  //  Helper functions for directory cache
+
+  private static String parent(String path) {
+    int slash = path.lastIndexOf('/');
+    return slash <= 0 ? "/" : path.substring(0, slash);
+  }
+
+  private static class Listing {
+    private final List<?> items;
+    private final long expiresAt;
+
+    Listing(List<?> items, long expiresAt) {
+      this.items = items;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventLoopGroup implements AutoCloseable {
+  public static final int DEFAULT_THREADS = 2;
+
+  private final EventLoop[] loops;
+  private final AtomicInteger next = new AtomicInteger();
+
+  public EventLoopGroup() throws IOException {
+    this(DEFAULT_THREADS);
+  }
+
+  public EventLoopGroup(int threads) throws IOException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Event loop threads must be positive: " + threads);
+    }
+    loops = new EventLoop[threads];
+    try {
+      for (int i = 0; i < threads; i++) {
+        loops[i] = new EventLoop("ftp-event-loop-" + i);
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  //  Sessions are spread round robin, every channel of a session stays on its loop
+
+  public EventLoop next() {
+    return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+  }
+
+  @Override
+  public void close() {
+    for (EventLoop loop : loops) {
+      if (loop != null) {
+        loop.close();
+      }
+    }
+  }
+
+  public interface Handler {
+    void ready(SelectionKey key) throws IOException;
+
+    void failed(IOException e);
+  }
+
+  //  One selector thread. Channel state may only be touched from it, other threads hand work over with execute().
+
+  public static class EventLoop {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    EventLoop(String name) throws IOException {
+      selector = Selector.open();
+      thread = new Thread(this::run, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    public boolean inEventLoop() {
+      return Thread.currentThread() == thread;
+    }
+
+    public void execute(Runnable task) {
+      if (closed) {
+        throw new IllegalStateException("Event loop is closed");
+      }
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    public SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+      if (!inEventLoop()) {
+        throw new IllegalStateException("Channels are registered from their event loop");
+      }
+      return channel.register(selector, ops, handler);
+    }
+
+    //  Runs the task on this loop once the delay in milliseconds has passed
+
+    public void schedule(Runnable task, long delay) {
+      if (!inEventLoop()) {
+        throw new IllegalStateException("Timers are scheduled from their event loop");
+      }
+      timers.add(new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay), task));
+    }
+
+    void close() {
+      closed = true;
+      selector.wakeup();
+    }
+
+    private void run() {
+      try {
+        while (!closed) {
+          Timer timer = timers.peek();
+          long wait = timer == null ? 0 : TimeUnit.NANOSECONDS.toMillis(timer.deadline - System.nanoTime());
+          if (timer != null && wait <= 0) {
+            selector.selectNow();
+          } else {
+            selector.select(wait);
+          }
+          Runnable task;
+          while ((task = tasks.poll()) != null) {
+            runTask(task);
+          }
+          while ((timer = timers.peek()) != null && timer.deadline - System.nanoTime() <= 0) {
+            runTask(timers.poll().task);
+          }
+          for (SelectionKey key : selector.selectedKeys()) {
+            Handler handler = (Handler) key.attachment();
+            try {
+              handler.ready(key);
+            } catch (IOException e) {
+              key.cancel();
+              handler.failed(e);
+            } catch (CancelledKeyException ignored) {
+            } catch (RuntimeException e) {
+              key.cancel();
+              handler.failed(new IOException(e));
+            }
+          }
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          ((Handler) key.attachment()).failed(new IOException("Event loop closed"));
+        }
+        try {
+          selector.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+
+    private static void runTask(Runnable task) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        System.err.println(e.getMessage());
+      }
+    }
+  }
+
+  private static final class Timer implements Comparable<Timer> {
+    private final long deadline;
+    private final Runnable task;
+
+    Timer(long deadline, Runnable task) {
+      this.deadline = deadline;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(Timer other) {
+      return Long.signum(deadline - other.deadline);
+    }
+  }
+}
@@ -1,16 +1,52 @@
 package org.ftpc;
 
 import java.io.*;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class FTPClient {
+  public static final int PIPELINE_DEPTH = 16;
+  public static final long CHECKPOINT_BYTES = 64L * 1024 * 1024;
+  public static final long CHECKPOINT_INTERVAL = 5000;
+
   private String downloadPath;
+  private String workingDir;
+  private Set<String> features;
+  private String host;
   private Socket ftpClientSock;
-  private BufferedReader ftpInputBuffer;
+  private final DataTransfer dataTransfer = new DataTransfer();
+  private final Deque<PendingCommand> pendingCommands = new ArrayDeque<>();
+  private TransferMetrics metrics;
+  private DirectoryCache directoryCache;
+  private CompressionPolicy compressionPolicy;
+  private char transferMode = 'S';
+  private TransferType transferType;
+  private Set<String> asciiExtensions = Collections.emptySet();
+  private TransferType currentType;
+  private HashAlgorithm hashAlgorithm;
+  private boolean hashCommand;
+  private boolean hashResolved;
+  private ReplyDecoder replyDecoder;
   private BufferedWriter ftpOutputBuffer;
+  private SocketOptions controlOptions = SocketOptions.control();
+  private SocketOptions dataOptions = SocketOptions.data();
+  private DataConnectionMode dataConnectionMode = DataConnectionMode.AUTO;
+  private DataConnectionMode resolvedMode;
+  private DataListenerPool listenerPool = DataListenerPool.shared();
 
   FTPClient(){
     downloadPath = setDownloadDir();
@@ -25,40 +61,152 @@ public class FTPClient {
       throw new IOException("FTP client already connected. Disconnect first.");
     }
 
-    ftpClientSock = new Socket(host, port);
-    ftpInputBuffer = new BufferedReader(new InputStreamReader(ftpClientSock.getInputStream()));
+    long connectStart = System.nanoTime();
+    this.host = host;
+    ftpClientSock = controlOptions.connect(new InetSocketAddress(host, port));
+    replyDecoder = new ReplyDecoder(ftpClientSock.getInputStream(), Charset.defaultCharset());
     ftpOutputBuffer = new BufferedWriter(new OutputStreamWriter(ftpClientSock.getOutputStream()));
 
-    String ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("220")) {
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 220) {
+      if (metrics != null) {
+        metrics.recordFailure(TransferMetrics.CONNECT, host, ftpResponse.getCode());
+      }
       throw new IOException("FTP client received unknown response: " + ftpResponse);
     }
 
     send("USER " + user);
     ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("331")) {
-      throw new IOException(ftpResponse);
+    if (ftpResponse.getCode() != 331) {
+      throw new IOException(ftpResponse.getText());
     }
 
     send("PASS " + password);
     ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("230")) {
-      throw new IOException(ftpResponse);
+    if (ftpResponse.getCode() != 230) {
+      throw new IOException(ftpResponse.getText());
+    }
+
+    if (metrics != null) {
+      metrics.recordConnect(host, System.nanoTime() - connectStart);
+    }
+  }
+
+  public SocketOptions getControlOptions() {
+    return controlOptions;
+  }
+
+  //  Control options apply from the next connect, data options from the next data connection
+
+  public void setControlOptions(SocketOptions controlOptions) {
+    this.controlOptions = controlOptions;
+  }
+
+  public SocketOptions getDataOptions() {
+    return dataOptions;
+  }
+
+  public void setDataOptions(SocketOptions dataOptions) {
+    this.dataOptions = dataOptions;
+  }
+
+  public DataConnectionMode getDataConnectionMode() {
+    return dataConnectionMode;
+  }
+
+  public void setDataConnectionMode(DataConnectionMode dataConnectionMode) {
+    if (dataConnectionMode != this.dataConnectionMode) {
+      this.dataConnectionMode = dataConnectionMode;
+      resolvedMode = null;
+    }
+  }
+
+  public DataListenerPool getListenerPool() {
+    return listenerPool;
+  }
+
+  public void setListenerPool(DataListenerPool listenerPool) {
+    this.listenerPool = listenerPool;
+  }
+
+  public TransferMetrics getMetrics() {
+    return metrics;
+  }
+
+  public void setMetrics(TransferMetrics metrics) {
+    this.metrics = metrics;
+    dataTransfer.setMetrics(metrics);
+  }
+
+  public DirectoryCache getDirectoryCache() {
+    return directoryCache;
+  }
+
+  public void setDirectoryCache(DirectoryCache directoryCache) {
+    this.directoryCache = directoryCache;
+  }
+
+  public CompressionPolicy getCompressionPolicy() {
+    return compressionPolicy;
+  }
+
+  public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+    this.compressionPolicy = compressionPolicy;
+  }
+
+  public TransferType getTransferType() {
+    return transferType;
+  }
+
+  //  A transfer type set here overrides the per-file extension rules, null restores them
+
+  public void setTransferType(TransferType transferType) {
+    this.transferType = transferType;
+  }
+
+  public Set<String> getAsciiExtensions() {
+    return asciiExtensions;
+  }
+
+  public void setAsciiExtensions(Set<String> asciiExtensions) {
+    Set<String> normalized = new HashSet<>();
+    for (String extension : asciiExtensions) {
+      normalized.add(extension.toLowerCase());
     }
+    this.asciiExtensions = Collections.unmodifiableSet(normalized);
+  }
 
+  public TransferType transferTypeFor(String fileName) {
+    if (transferType != null) {
+      return transferType;
+    }
+    int dot = fileName.lastIndexOf('.');
+    String extension = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase();
+    return asciiExtensions.contains(extension) ? TransferType.ASCII : TransferType.BINARY;
   }
 
   public boolean isConnected() {
     return ftpClientSock.isConnected();
   }
 
+  public boolean isOpen() {
+    return ftpClientSock != null && ftpClientSock.isConnected() && !ftpClientSock.isClosed();
+  }
+
+  public void noop() throws IOException {
+    send("NOOP");
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 200) {
+      throw new IOException("FTP client received unknown response: " + ftpResponse);
+    }
+  }
+
   public void disconnect() throws IOException {
     if (ftpClientSock == null || !ftpClientSock.isConnected() || ftpClientSock.isClosed()) {
       throw new IOException("Client already disconnected!");
     }
     send("QUIT");
     ftpClientSock.close();
-    ftpInputBuffer.close();
     ftpOutputBuffer.close();
   }
 
@@ -67,16 +215,25 @@ public class FTPClient {
       throw new IOException("Client is not connected!");
     }
 
-    send("PASV");
-    String ftpResponse = readResponse();
+    List<String> list = new LinkedList<>();
+    handleList("LIST", "LIST " + folder, openDataLink(), list::add);
+    return list;
+  }
 
-    send("LIST " + folder);
-    if (!ftpResponse.startsWith("227")) {
-      throw new IOException(ftpResponse);
+  public void listEntries(String folder, Consumer<FTPListEntry> consumer) throws IOException {
+    if (ftpClientSock == null) {
+      throw new IOException("Client is not connected!");
     }
+    boolean machineListing = hasFeature("MLST");
+    String operation = machineListing ? "MLSD" : "LIST";
 
-    Map<String, Object> ipAndPort = extractIpPort(ftpResponse);
-    return handleList((String) ipAndPort.get("ip"), (int) ipAndPort.get("port"));
+    String command = folder == null || folder.isEmpty() ? operation : operation + " " + folder;
+    handleList(operation, command, openDataLink(), line -> {
+      FTPListEntry entry = machineListing ? FTPListParser.parseMlsd(line) : FTPListParser.parseList(line);
+      if (entry != null) {
+        consumer.accept(entry);
+      }
+    });
   }
 
   public List<String> getListEntriesNLST(String folder) throws IOException {
@@ -84,184 +241,794 @@ public class FTPClient {
       throw new IOException("Client is not connected!");
     }
 
-    send("PASV");
-    String ftpResponse = readResponse();
+    List<String> list = new LinkedList<>();
+    handleList("NLST", "NLST " + folder, openDataLink(), list::add);
+    return list;
+  }
+
+  public Set<String> getFeatures() throws IOException {
+    if (features == null) {
+      send("FEAT");
+      FTPReply ftpResponse = readResponse();
+      Set<String> advertised = new HashSet<>();
+      if (ftpResponse.getCode() == 211) {
+        List<String> lines = ftpResponse.getLines();
+        for (String line : lines.subList(1, Math.max(1, lines.size() - 1))) {
+          String feature = line.trim();
+          int end = feature.indexOf(' ');
+          if (!feature.isEmpty()) {
+            advertised.add((end < 0 ? feature : feature.substring(0, end)).toUpperCase());
+            advertised.add(feature.toUpperCase());
+          }
+        }
+      }
+      features = Collections.unmodifiableSet(advertised);
+    }
+    return features;
+  }
+
+  public boolean hasFeature(String feature) throws IOException {
+    return getFeatures().contains(feature.toUpperCase());
+  }
+
+  public void upload(File file) throws IOException {
+    upload(file, 0);
+  }
 
-    if (!ftpResponse.startsWith("227")) {
-      throw new IOException(ftpResponse);
+  public void upload(File file, long offset) throws IOException {
+    TransferType type = transferTypeFor(file.getName());
+    boolean ascii = type == TransferType.ASCII;
+    if (ascii) {
+      offset = 0;
     }
+    changeTransferType(type);
+    boolean compressed = useCompression(file.getName(), file.length() - offset, type);
+    long transferStart = startTransfer("STOR");
+    long sent = 0;
+    boolean completed = false;
+    try {
+      try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        DataLink dataLink = openDataLink();
+        try {
+          storeAt(file.getName(), offset);
+          FTPReply ftpResponse = readResponse();
 
-    Map<String, Object> ipAndPort = extractIpPort(ftpResponse);
+          if (ftpResponse.getCode() != 150) {
+            throw new IOException(ftpResponse.getText());
+          }
 
-    send("NLST " + folder);
-    return handleList((String) ipAndPort.get("ip"), (int) ipAndPort.get("port"));
+          WritableByteChannel dataChannel = dataLink.writable();
+          if (ascii) {
+            sent = dataTransfer.sendAscii(fileChannel, 0, fileChannel.size(), dataChannel);
+          } else if (compressed) {
+            sent = dataTransfer.sendDeflated(fileChannel, offset, fileChannel.size() - offset, dataChannel,
+              compressionPolicy.getLevel());
+          } else {
+            sent = dataTransfer.send(fileChannel, offset, fileChannel.size() - offset, dataChannel);
+          }
+        } finally {
+          dataLink.close();
+        }
+      }
 
+      FTPReply ftpResponse = readResponse();
+      if (ftpResponse.getCode() != 226) {
+        throw new IOException(
+                "Error: " + ftpResponse
+        );
+      }
+      if (compressed) {
+        recordCompression("STOR", file.getName(), sent);
+      }
+      completed = true;
+    } finally {
+      finishTransfer("STOR", transferStart, sent, completed);
+      invalidateCache(file.getName());
+    }
   }
 
-  public void upload(File file) throws IOException {
-    FileInputStream fileIS = new FileInputStream(file);
-    BufferedInputStream inputFileStream = new BufferedInputStream(fileIS);
+  //  Stores length bytes of source from offset into the remote file at the same offset, for segmented uploads
+  //  sharing one FileChannel. A segment with an offset needs REST, it fails rather than falling back to APPE.
+  //  opened runs once the server accepted STOR, i.e. after a segment at offset 0 created or truncated the file.
 
-    send("PASV");
-    String ftpResponse = readResponse();
+  public long upload(FileChannel source, String fileName, long offset, long length, Runnable opened)
+    throws IOException {
+    setTransferMode('S');
+    changeTransferType(TransferType.BINARY);
+    long transferStart = startTransfer("STOR");
+    long sent = 0;
+    boolean completed = false;
+    try {
+      DataLink dataLink = openDataLink();
+      try {
+        FTPReply ftpResponse;
+        if (offset > 0) {
+          send("REST " + offset);
+          ftpResponse = readResponse();
+          if (ftpResponse.getCode() != 350) {
+            throw new IOException(ftpResponse.getText());
+          }
+        }
+        send("STOR " + fileName);
+        ftpResponse = readResponse();
+        if (ftpResponse.getCode() != 150) {
+          throw new IOException(ftpResponse.getText());
+        }
+        if (opened != null) {
+          opened.run();
+        }
+        sent = dataTransfer.send(source, offset, length, dataLink.writable());
+      } finally {
+        dataLink.close();
+      }
 
-    if (!ftpResponse.startsWith("227")) {
-      throw new IOException("Error: " + ftpResponse);
+      FTPReply ftpResponse = readResponse();
+      if (ftpResponse.getCode() != 226) {
+        throw new IOException(ftpResponse.getText());
+      }
+      if (sent < length) {
+        throw new IOException(String.format("Error: sent %d of %d bytes of %s at offset %d",
+          sent, length, fileName, offset));
+      }
+      completed = true;
+    } finally {
+      finishTransfer("STOR", transferStart, sent, completed);
+      invalidateCache(fileName);
     }
+    return sent;
+  }
 
-    Map<String, Object> ipAndPort = extractIpPort(ftpResponse);
-    Socket dataLink = new Socket((String) ipAndPort.get("ip"), (int) ipAndPort.get("port"));
+  //  The next PASV, EPSV or PORT is written as soon as a file's data connection closes, so it overlaps the 226 wait
 
-    send("STOR " + file.getName());
-    ftpResponse = readResponse();
+  public void uploadBatch(List<File> files, Consumer<File> uploaded) throws IOException {
+    if (files.isEmpty()) {
+      return;
+    }
+    setTransferMode('S');
+    changeTransferType(transferTypeFor(files.get(0).getName()));
+    DataLink next = requestDataLink();
+    try {
+      for (int i = 0; i < files.size(); i++) {
+        File file = files.get(i);
+        TransferType type = currentType;
+        long transferStart = startTransfer("STOR");
+        long sent = 0;
+        boolean completed = false;
+        try {
+          DataLink requested = next;
+          next = null;
+          try (DataLink dataLink = connectDataLink(requested);
+               FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            send("STOR " + file.getName());
+            FTPReply ftpResponse = readResponse();
+            if (!ftpResponse.isPreliminary()) {
+              throw new IOException(ftpResponse.getText());
+            }
+            WritableByteChannel dataChannel = dataLink.writable();
+            if (type == TransferType.ASCII) {
+              sent = dataTransfer.sendAscii(fileChannel, 0, fileChannel.size(), dataChannel);
+            } else {
+              sent = dataTransfer.send(fileChannel, 0, fileChannel.size(), dataChannel);
+            }
+          }
+          TransferType nextType = i + 1 < files.size() ? transferTypeFor(files.get(i + 1).getName()) : type;
+          if (nextType != type) {
+            currentType = null;
+            write("TYPE " + nextType.getCode());
+          }
+          if (i + 1 < files.size()) {
+            next = requestDataLink();
+          }
+          FTPReply ftpResponse = readResponse();
+          if (ftpResponse.getCode() != 226) {
+            throw new IOException("Error: " + ftpResponse);
+          }
+          if (nextType != type) {
+            ftpResponse = readResponse();
+            if (ftpResponse.getCode() != 200) {
+              throw new IOException(ftpResponse.getText());
+            }
+            currentType = nextType;
+          }
+          completed = true;
+        } finally {
+          finishTransfer("STOR", transferStart, sent, completed);
+          invalidateCache(file.getName());
+        }
+        uploaded.accept(file);
+      }
+    } finally {
+      if (next != null) {
+        next.close();
+      }
+    }
+  }
+
+  public File download(String fileName) throws IOException {
+    return download(fileName, 0, null);
+  }
 
-    if (!ftpResponse.startsWith("150")) {
-      throw new IOException(ftpResponse);
+  public File download(String fileName, long offset, DataTransfer.Progress progress) throws IOException {
+    return download(fileName, new File(downloadPath + "/" + fileName), offset, progress);
+  }
+
+  public File download(String fileName, File target, long offset, DataTransfer.Progress progress) throws IOException {
+    return download(fileName, target, offset, progress, null);
+  }
+
+  public File download(String fileName, File target, long offset, DataTransfer.Progress progress,
+                       FileDigest digest) throws IOException {
+    return download(fileName, target, offset, -1, progress, digest);
+  }
+
+  //  The digest is fed while bytes stream in, only a resumed prefix already on disk is read back. A known remote
+  //  size (-1 if unknown) lets small files skip MODE Z.
+
+  public File download(String fileName, File target, long offset, long size, DataTransfer.Progress progress,
+                       FileDigest digest) throws IOException {
+    TransferType type = transferTypeFor(fileName);
+    boolean ascii = type == TransferType.ASCII;
+    if (ascii) {
+      offset = 0;
     }
+    changeTransferType(type);
+    boolean compressed = useCompression(fileName, size < 0 ? -1 : Math.max(0, size - offset), type);
+    long transferStart = startTransfer("RETR");
+    long received = 0;
+    boolean completed = false;
+    try {
+      DataLink dataLink = openDataLink();
+      try {
+        FTPReply ftpResponse = retrieveAt(fileName, offset, dataLink);
+        if (ftpResponse.getCode() != 150) {
+          throw new IOException(ftpResponse.getText());
+        }
 
-    BufferedOutputStream dataLinkOutStream = new BufferedOutputStream(dataLink.getOutputStream());
-    byte[] buffer = new byte[4096];
-    int byteRead;
-    while ((byteRead = inputFileStream.read()) != -1) {
-      dataLinkOutStream.write(buffer, 0, byteRead);
+        try (FileChannel fileChannel = FileChannel.open(target.toPath(),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+          fileChannel.truncate(offset);
+          if (digest != null && offset > 0) {
+            digest.update(fileChannel, 0, offset);
+          }
+          DataTransfer.Progress durable = progress == null ? null : new Checkpoints(fileChannel, offset, progress);
+          ReadableByteChannel dataChannel = dataLink.readable();
+          if (ascii) {
+            received = dataTransfer.receiveAscii(dataChannel, fileChannel, 0, durable);
+          } else if (compressed) {
+            received = dataTransfer.receiveInflated(dataChannel, fileChannel, offset, durable, digest);
+          } else {
+            received = dataTransfer.receive(dataChannel, fileChannel, offset, Long.MAX_VALUE, durable, digest);
+          }
+        }
+      } finally {
+        dataLink.close();
+      }
+      FTPReply ftpResponse = readResponse();
+      if (ftpResponse.getCode() != 226) {
+        throw new IOException(ftpResponse.getText());
+      }
+      if (compressed) {
+        recordCompression("RETR", fileName, received);
+      }
+      completed = true;
+    } finally {
+      finishTransfer("RETR", transferStart, received, completed);
     }
+    return target;
+  }
 
-    dataLinkOutStream.flush();
-    dataLinkOutStream.close();
-    inputFileStream.close();
+  public long download(String fileName, FileChannel target, long offset, long length) throws IOException {
+    setTransferMode('S');
+    changeTransferType(TransferType.BINARY);
+    long transferStart = startTransfer("RETR");
+    long received = 0;
+    boolean completed = false;
+    try {
+      DataLink dataLink = openDataLink();
+      try {
+        FTPReply ftpResponse = retrieveAt(fileName, offset, dataLink);
+        if (ftpResponse.getCode() != 150) {
+          throw new IOException(ftpResponse.getText());
+        }
+        received = dataTransfer.receive(dataLink.readable(), target, offset, length);
+      } finally {
+        dataLink.close();
+      }
 
-    ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("226")) {
-      throw new IOException(
-              "Error: " + ftpResponse
-      );
+      FTPReply ftpResponse = readResponse();
+      boolean aborted = ftpResponse.getCode() == 426 || ftpResponse.getCode() == 450 || ftpResponse.getCode() == 451;
+      if (ftpResponse.getCode() != 226 && !(aborted && received == length)) {
+        throw new IOException(ftpResponse.getText());
+      }
+      if (received < length) {
+        throw new IOException(String.format("Error: received %d of %d bytes of %s at offset %d",
+          received, length, fileName, offset));
+      }
+      completed = true;
+    } finally {
+      finishTransfer("RETR", transferStart, received, completed);
     }
+    return received;
   }
 
-  public File download(String fileName) throws IOException {
-    send("PASV");
+  public long size(String fileName) throws IOException {
+    changeTransferType(TransferType.BINARY);
+    send("SIZE " + fileName);
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 213) {
+      throw new IOException(ftpResponse.getText());
+    }
+    try {
+      return Long.parseLong(ftpResponse.getMessage().trim());
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      throw new IOException("Error: " + ftpResponse);
+    }
+  }
 
-    String addressResponse = readResponse();
-    if (!addressResponse.startsWith("227")) {
-      throw new IOException("Error: " + addressResponse);
+  public Map<String, Long> sizes(List<String> fileNames) throws IOException {
+    changeTransferType(TransferType.BINARY);
+    List<String> commands = new ArrayList<>(fileNames.size());
+    for (String fileName : fileNames) {
+      commands.add("SIZE " + fileName);
     }
+    List<FTPReply> replies = pipeline(commands);
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    for (int i = 0; i < fileNames.size(); i++) {
+      FTPReply ftpResponse = replies.get(i);
+      long size = -1;
+      if (ftpResponse.getCode() == 213) {
+        try {
+          size = Long.parseLong(ftpResponse.getMessage().trim());
+        } catch (NumberFormatException | IndexOutOfBoundsException ignored) {
+        }
+      }
+      sizes.put(fileNames.get(i), size);
+    }
+    return sizes;
+  }
 
-    send("RETR " + fileName);
-    String ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("150")) {
-      throw new IOException(ftpResponse);
+  public Map<String, Long> modificationTimes(List<String> fileNames) throws IOException {
+    List<String> commands = new ArrayList<>(fileNames.size());
+    for (String fileName : fileNames) {
+      commands.add("MDTM " + fileName);
     }
+    List<FTPReply> replies = pipeline(commands);
+    Map<String, Long> times = new LinkedHashMap<>();
+    for (int i = 0; i < fileNames.size(); i++) {
+      FTPReply ftpResponse = replies.get(i);
+      long modified = -1;
+      if (ftpResponse.getCode() == 213) {
+        modified = FTPListParser.parseTimeVal(ftpResponse.getMessage().trim());
+      }
+      times.put(fileNames.get(i), modified);
+    }
+    return times;
+  }
 
-    Map<String, Object> ipAndPort = extractIpPort(addressResponse);
+  //  Prefers HASH (RFC draft) over the X-commands, SHA-256 over weaker algorithms; null when the server has none
 
-    Socket dataLink = new Socket((String) ipAndPort.get("ip"), (int) ipAndPort.get("port"));
-    BufferedInputStream dataInputStream = new BufferedInputStream(dataLink.getInputStream());
-    int bytesRead;
+  public HashAlgorithm getHashAlgorithm() throws IOException {
+    if (hashResolved) {
+      return hashAlgorithm;
+    }
+    List<String> hashNames = new ArrayList<>();
+    String selected = null;
+    for (String feature : getFeatures()) {
+      if (feature.startsWith("HASH ")) {
+        for (String name : feature.substring(5).split(";")) {
+          name = name.trim();
+          if (name.endsWith("*")) {
+            name = name.substring(0, name.length() - 1);
+            selected = name;
+          }
+          hashNames.add(name);
+        }
+      }
+    }
+    for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+      if (!hashNames.contains(algorithm.getHashName())) {
+        continue;
+      }
+      if (!algorithm.getHashName().equals(selected)) {
+        send("OPTS HASH " + algorithm.getHashName());
+        if (readResponse().getCode() != 200) {
+          continue;
+        }
+      }
+      hashAlgorithm = algorithm;
+      hashCommand = true;
+      break;
+    }
+    if (hashAlgorithm == null) {
+      for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+        if (hasFeature(algorithm.getCommand())) {
+          hashAlgorithm = algorithm;
+          break;
+        }
+      }
+    }
+    hashResolved = true;
+    return hashAlgorithm;
+  }
 
-    FileOutputStream outputFileStream = new FileOutputStream(downloadPath+"/"+fileName);
-    byte[] buff = new byte[4096];
+  public FileDigest newDigest(String fileName) throws IOException {
+    if (transferTypeFor(fileName) == TransferType.ASCII) {
+      return null;
+    }
+    HashAlgorithm algorithm = getHashAlgorithm();
+    return algorithm == null ? null : new FileDigest(algorithm);
+  }
 
-    while ((bytesRead = dataInputStream.read(buff)) != -1) {
-      outputFileStream.write(buff, 0, bytesRead);
+  public String remoteHash(String fileName) throws IOException {
+    HashAlgorithm algorithm = getHashAlgorithm();
+    if (algorithm == null) {
+      return null;
     }
-    outputFileStream.flush();
-    outputFileStream.close();
-    dataInputStream.close();
-    dataLink.close();
-    ftpResponse = readResponse();
-    return new File(downloadPath+"/"+fileName);
+    send((hashCommand ? "HASH " : algorithm.getCommand() + " ") + fileName);
+    FTPReply ftpResponse = readResponse();
+    if (!ftpResponse.isPositiveCompletion()) {
+      return null;
+    }
+    String[] fields = ftpResponse.getMessage().trim().split(" ");
+    return hashCommand ? (fields.length > 2 ? fields[2] : null) : fields[0];
+  }
+
+  public boolean verify(String fileName, File local, FileDigest digest) throws IOException {
+    return verify(fileName, local, digest, -1);
+  }
+
+  //  Compares against the server's hash when there is one, the remote size otherwise. A size already fetched before
+  //  the transfer is used as is, -1 asks the server. ASCII files are not comparable.
+
+  public boolean verify(String fileName, File local, FileDigest digest, long size) throws IOException {
+    if (transferTypeFor(fileName) == TransferType.ASCII) {
+      return true;
+    }
+    if (digest != null) {
+      String remote = remoteHash(fileName);
+      if (remote != null) {
+        return FileDigest.matches(digest.getAlgorithm(), remote, digest.getValue());
+      }
+    }
+    return (size < 0 ? size(fileName) : size) == local.length();
+  }
+
+  public List<FTPReply> pipeline(List<String> commands) throws IOException {
+    List<FTPReply> replies = new ArrayList<>(commands.size());
+    for (int batchStart = 0; batchStart < commands.size(); batchStart += PIPELINE_DEPTH) {
+      int batchEnd = Math.min(commands.size(), batchStart + PIPELINE_DEPTH);
+      for (int i = batchStart; i < batchEnd; i++) {
+        write(commands.get(i));
+      }
+      ftpOutputBuffer.flush();
+      for (int i = batchStart; i < batchEnd; i++) {
+        replies.add(readResponse());
+      }
+    }
+    return replies;
+  }
+
+  public DataTransfer getDataTransfer() {
+    return dataTransfer;
   }
 
   public String getCurrentWorkingDir() throws IOException {
     send("PWD");
-    String ftpResponse = readResponse();
-    int startIndex = ftpResponse.indexOf("\"");
-    int endIndex = ftpResponse.indexOf("\"", startIndex + 1);
-    return ftpResponse.substring(startIndex + 1, endIndex);
+    FTPReply ftpResponse = readResponse();
+    return quotedPath(ftpResponse);
   }
 
+  //  The CWD reply text is free form, so the new directory is read back with a PWD sent in the same flush
+
   public String setWorkingDir(String newWorkingDir) throws IOException {
-    send("CWD " + newWorkingDir);
-    String ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("250")) {
-      throw new IOException(ftpResponse);
+    List<FTPReply> replies = pipeline(Arrays.asList("CWD " + newWorkingDir, "PWD"));
+    if (replies.get(0).getCode() != 250) {
+      throw new IOException(replies.get(0).getText());
+    }
+    if (replies.get(1).getCode() != 257) {
+      throw new IOException(replies.get(1).getText());
     }
-    int startIndex = ftpResponse.lastIndexOf(' ') + 1;
-    return ftpResponse.substring(startIndex, ftpResponse.length() - 1);
+    workingDir = quotedPath(replies.get(1));
+    return workingDir;
+  }
+
+  public String getWorkingDir() {
+    return workingDir;
+  }
+
+  public String getDownloadPath() {
+    return downloadPath;
+  }
+
+  public void setDownloadPath(String downloadDirPath) {
+    downloadPath = downloadDirPath;
   }
 
   public String makeDirectory(String dirName) throws IOException {
     send("MKD " + dirName);
-    String ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("257")) {
-      throw new IOException(ftpResponse);
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 257) {
+      throw new IOException(ftpResponse.getText());
     }
-    int startIndex = ftpResponse.indexOf("\"");
-    int endIndex = ftpResponse.indexOf("\"", startIndex + 1);
-    return ftpResponse.substring(startIndex + 1, endIndex);
+    invalidateCache(dirName);
+    return quotedPath(ftpResponse);
   }
 
   public String removeDirectory(String dirName) throws IOException {
     send("RMD " + dirName);
-    String ftpResponse = readResponse();
-    if (!ftpResponse.startsWith("250")) {
-      throw new IOException(ftpResponse);
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 250) {
+      throw new IOException(ftpResponse.getText());
     }
-    int startIndex = ftpResponse.indexOf("\"");
-    int endIndex = ftpResponse.indexOf("\"", startIndex + 1);
-    return ftpResponse.substring(startIndex + 1, endIndex);
+    invalidateCache(dirName);
+    return quotedPath(ftpResponse);
+  }
+
+  public void deleteFile(String fileName) throws IOException {
+    send("DELE " + fileName);
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 250) {
+      throw new IOException(ftpResponse.getText());
+    }
+    invalidateCache(fileName);
   }
 
   //  Helper functions for FTP client
 
-  private Map<String, Object> extractIpPort(String address) throws IOException {
-    Map<String, Object> ipAndPort = new HashMap<>();
-    int firstBracerIndex = address.indexOf('(');
-    int lastBracerIndex = address.indexOf(')');
+  private void invalidateCache(String name) {
+    if (directoryCache != null) {
+      directoryCache.invalidate(DirectoryCache.resolve(workingDir == null ? "/" : workingDir, name));
+    }
+  }
+
+  //  Sizes and REST offsets count bytes as stored, so SIZE and segmented transfers always run in binary
+
+  private void changeTransferType(TransferType type) throws IOException {
+    if (currentType == type) {
+      return;
+    }
+    send("TYPE " + type.getCode());
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 200) {
+      throw new IOException(ftpResponse.getText());
+    }
+    currentType = type;
+  }
+
+  //  MODE Z is only negotiated when a policy is set, the server advertises it and the file is worth compressing
+
+  private boolean useCompression(String fileName, long size, TransferType type) throws IOException {
+    boolean compressed = type == TransferType.BINARY && compressionPolicy != null
+      && compressionPolicy.shouldCompress(fileName, size) && hasFeature("MODE Z");
+    setTransferMode(compressed ? 'Z' : 'S');
+    return compressed;
+  }
+
+  private void setTransferMode(char mode) throws IOException {
+    if (transferMode == mode) {
+      return;
+    }
+    send("MODE " + mode);
+    FTPReply ftpResponse = readResponse();
+    if (ftpResponse.getCode() != 200) {
+      throw new IOException(ftpResponse.getText());
+    }
+    transferMode = mode;
+  }
+
+  private void recordCompression(String operation, String fileName, long rawBytes) {
+    long wireBytes = dataTransfer.getLastWireBytes();
+    compressionPolicy.record(fileName, rawBytes, wireBytes);
+    if (metrics != null) {
+      metrics.recordCompression(operation, host, rawBytes, wireBytes);
+    }
+  }
+
+  private static String quotedPath(FTPReply ftpResponse) {
+    String text = ftpResponse.getText();
+    int startIndex = text.indexOf("\"");
+    int endIndex = text.indexOf("\"", startIndex + 1);
+    return text.substring(startIndex + 1, endIndex);
+  }
+
+  //  REST and RETR go out in one flush, a rejected REST fails the transfer since RETR then starts at 0. A RETR
+  //  already under way is cut off by closing the data connection, and its final reply is read so the control
+  //  connection stays in step.
+
+  private FTPReply retrieveAt(String fileName, long offset, DataLink dataLink) throws IOException {
+    if (offset <= 0) {
+      send("RETR " + fileName);
+      return readResponse();
+    }
+    List<FTPReply> replies = pipeline(Arrays.asList("REST " + offset, "RETR " + fileName));
+    if (replies.get(0).getCode() != 350) {
+      if (replies.get(1).isPreliminary()) {
+        dataLink.close();
+        readResponse();
+      }
+      throw new IOException(replies.get(0).getText());
+    }
+    return replies.get(1);
+  }
+
+  private void storeAt(String fileName, long offset) throws IOException {
+    if (offset <= 0) {
+      send("STOR " + fileName);
+      return;
+    }
+    send("REST " + offset);
+    FTPReply ftpResponse = readResponse();
+    send((ftpResponse.getCode() == 350 ? "STOR " : "APPE ") + fileName);
+  }
+
+  private DataLink openDataLink() throws IOException {
+    return connectDataLink(requestDataLink());
+  }
 
-    String dataLink = address.substring(firstBracerIndex + 1, lastBracerIndex);
-    StringTokenizer tokenizer = new StringTokenizer(dataLink, ",");
+  //  Writes PASV, EPSV or PORT/EPRT without reading the reply, so batches can overlap it with the previous 226
 
+  private DataLink requestDataLink() throws IOException {
+    DataConnectionMode mode = resolveDataConnectionMode();
+    if (mode != DataConnectionMode.ACTIVE) {
+      send(mode == DataConnectionMode.EPSV ? "EPSV" : "PASV");
+      return new DataLink(mode, null);
+    }
+    InetAddress localAddress = ftpClientSock.getLocalAddress();
+    ServerSocketChannel listener = listenerPool.acquire(localAddress);
     try {
-      ipAndPort.put("ip",
-              tokenizer.nextToken() + "." + tokenizer.nextToken() + "." + tokenizer.nextToken() + "." + tokenizer.nextToken());
-      ipAndPort.put("port",
-              Integer.parseInt(tokenizer.nextToken()) * 256 + Integer.parseInt(tokenizer.nextToken()));
-    } catch (Exception e) {
-      throw new IOException(
-              "Error: " + address
-      );
+      if (dataOptions.getReceiveBufferSize() > 0) {
+        listener.socket().setReceiveBufferSize(dataOptions.getReceiveBufferSize());
+      }
+      DataEndpoint endpoint = new DataEndpoint(localAddress, listener.socket().getLocalPort());
+      send(endpoint.isIpv6() ? "EPRT " + endpoint.toEprtArgument() : "PORT " + endpoint.toPortArgument());
+    } catch (IOException e) {
+      listenerPool.release(listener, false);
+      throw e;
     }
-    return ipAndPort;
+    return new DataLink(mode, listener);
   }
 
-  private List<String> handleList(String ip, int port) throws IOException {
-    List<String> list = new LinkedList<>();
-    Socket dataChannel = new Socket(ip, port);
-    BufferedReader dataIn = new BufferedReader(new InputStreamReader(dataChannel.getInputStream()));
-    String line;
-    while ((line = dataIn.readLine()) != null) {
-      list.add(line);
-    }
-    dataChannel.close();
-    dataIn.close();
-    return list;
+  //  Passive modes connect as soon as the server names its port. In AUTO mode a server that lists EPSV but
+  //  refuses it is asked for PASV instead, for the rest of the session.
+
+  private DataLink connectDataLink(DataLink dataLink) throws IOException {
+    try {
+      FTPReply ftpResponse = readResponse();
+      if (dataLink.mode == DataConnectionMode.ACTIVE) {
+        if (ftpResponse.getCode() != 200) {
+          throw new IOException("Error: " + ftpResponse);
+        }
+        return dataLink;
+      }
+      if (dataLink.mode == DataConnectionMode.EPSV) {
+        if (ftpResponse.getCode() == 229) {
+          dataLink.channel = dataOptions.open(
+            DataEndpoint.parseEpsv(ftpResponse.getText(), ftpClientSock.getInetAddress()).toSocketAddress());
+          return dataLink;
+        }
+        if (dataConnectionMode != DataConnectionMode.AUTO || ftpResponse.getCode() < 500
+          || ftpResponse.getCode() > 502) {
+          throw new IOException("Error: " + ftpResponse);
+        }
+        resolvedMode = DataConnectionMode.PASV;
+        send("PASV");
+        ftpResponse = readResponse();
+      }
+      if (ftpResponse.getCode() != 227) {
+        throw new IOException("Error: " + ftpResponse);
+      }
+      dataLink.channel = dataOptions.open(DataEndpoint.parsePasv(ftpResponse.getText()).toSocketAddress());
+      return dataLink;
+    } catch (IOException e) {
+      dataLink.close();
+      throw e;
+    }
+  }
+
+  private DataConnectionMode resolveDataConnectionMode() throws IOException {
+    if (resolvedMode == null) {
+      if (dataConnectionMode != DataConnectionMode.AUTO) {
+        resolvedMode = dataConnectionMode;
+      } else if (ftpClientSock.getInetAddress() instanceof Inet6Address || hasFeature("EPSV")) {
+        resolvedMode = DataConnectionMode.EPSV;
+      } else {
+        resolvedMode = DataConnectionMode.PASV;
+      }
+    }
+    return resolvedMode;
+  }
+
+  private void handleList(String operation, String command, DataLink dataLink, Consumer<String> lines)
+    throws IOException {
+    long transferStart = startTransfer(operation);
+    long received = 0;
+    boolean completed = false;
+    try {
+      try (DataLink link = dataLink) {
+        send(command);
+        FTPReply ftpResponse = readResponse();
+        if (!ftpResponse.isPreliminary()) {
+          throw new IOException(ftpResponse.getText());
+        }
+        received = dataTransfer.receiveLines(link.readable(), Charset.defaultCharset(), lines);
+      }
+      FTPReply ftpResponse = readResponse();
+      if (ftpResponse.getCode() != 226) {
+        throw new IOException(ftpResponse.getText());
+      }
+      completed = true;
+    } finally {
+      finishTransfer(operation, transferStart, received, completed);
+    }
   }
 
-  private String readResponse() throws IOException {
+  private FTPReply readResponse() throws IOException {
     if (ftpClientSock == null) {
       throw new IOException("FTP client is not connected");
     }
-    return ftpInputBuffer.readLine();
+    FTPReply ftpResponse = replyDecoder.next();
+    if (ftpResponse == null) {
+      throw new IOException("FTP server closed the control connection");
+    }
+    if (metrics != null) {
+      recordReply(ftpResponse);
+    }
+    return ftpResponse;
   }
 
   private void send(String command) throws IOException {
+    write(command);
+    ftpOutputBuffer.flush();
+  }
+
+  private void write(String command) throws IOException {
     if (ftpClientSock == null) {
       throw new IOException("FTP client is not connected");
     }
+    if (metrics != null) {
+      int verbEnd = command.indexOf(' ');
+      pendingCommands.addLast(new PendingCommand(verbEnd < 0 ? command : command.substring(0, verbEnd)));
+    }
     ftpOutputBuffer.write(command);
     ftpOutputBuffer.newLine();
-    ftpOutputBuffer.flush();
+  }
+
+  //  Command latency is measured up to the first reply, preliminary 1xx replies keep the command pending
+
+  private void recordReply(FTPReply ftpResponse) {
+    PendingCommand pending = pendingCommands.peekFirst();
+    if (pending == null) {
+      return;
+    }
+    int replyCode = ftpResponse.getCode();
+    if (!pending.answered) {
+      metrics.recordCommand(pending.verb, host, System.nanoTime() - pending.sentAt);
+      pending.answered = true;
+    }
+    if (replyCode >= 400) {
+      metrics.recordFailure(pending.verb, host, replyCode);
+    }
+    if (replyCode >= 200) {
+      pendingCommands.pollFirst();
+    }
+  }
+
+  private long startTransfer(String operation) {
+    if (metrics != null) {
+      metrics.transferStarted(operation, host);
+    }
+    return System.nanoTime();
+  }
+
+  private void finishTransfer(String operation, long transferStart, long bytes, boolean completed) {
+    if (metrics == null) {
+      return;
+    }
+    if (completed) {
+      metrics.transferFinished(operation, host, bytes, System.nanoTime() - transferStart);
+    } else {
+      metrics.transferFailed(operation, host, bytes, System.nanoTime() - transferStart);
+    }
   }
 
   private String setDownloadDir() {
@@ -272,4 +1039,111 @@ public class FTPClient {
     }
     return downloadDir.getAbsolutePath();
   }
+
+  //  A data connection being set up. Active mode accepts the server's connection once the transfer command got
+  //  its 1xx reply, from the control connection's peer only. A listener left waiting on a failed accept is closed
+  //  instead of pooled.
+
+  private final class DataLink implements Closeable {
+    private final DataConnectionMode mode;
+    private final ServerSocketChannel listener;
+    private SocketChannel channel;
+    private ReadableByteChannel readable;
+    private WritableByteChannel writable;
+    private boolean accepting;
+    private boolean closed;
+
+    DataLink(DataConnectionMode mode, ServerSocketChannel listener) {
+      this.mode = mode;
+      this.listener = listener;
+    }
+
+    SocketChannel open() throws IOException {
+      if (channel == null) {
+        if (listener == null) {
+          throw new IOException("Data connection is not open");
+        }
+        accepting = true;
+        channel = DataListenerPool.accept(listener, ftpClientSock.getInetAddress(), dataOptions.getConnectTimeout());
+        accepting = false;
+        dataOptions.apply(channel.socket());
+      }
+      return channel;
+    }
+
+    ReadableByteChannel readable() throws IOException {
+      if (readable == null) {
+        readable = dataOptions.readable(open());
+      }
+      return readable;
+    }
+
+    WritableByteChannel writable() throws IOException {
+      if (writable == null) {
+        writable = dataOptions.writable(open());
+      }
+      return writable;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (readable != null) {
+          readable.close();
+        } else if (writable != null) {
+          writable.close();
+        } else if (channel != null) {
+          channel.close();
+        }
+      } finally {
+        if (listener != null) {
+          listenerPool.release(listener, !accepting);
+        }
+      }
+    }
+  }
+
+  //  Passes progress on every CHECKPOINT_BYTES or CHECKPOINT_INTERVAL ms, after syncing the data it covers, so
+  //  checkpoints never run ahead of the file and small chunks do not sync once each
+
+  private static final class Checkpoints implements DataTransfer.Progress {
+    private final FileChannel fileChannel;
+    private final DataTransfer.Progress progress;
+    private long position;
+    private long time = System.nanoTime();
+
+    Checkpoints(FileChannel fileChannel, long position, DataTransfer.Progress progress) {
+      this.fileChannel = fileChannel;
+      this.position = position;
+      this.progress = progress;
+    }
+
+    @Override
+    public void transferred(long position) throws IOException {
+      long now = System.nanoTime();
+      if (position - this.position < CHECKPOINT_BYTES
+        && now - time < TimeUnit.MILLISECONDS.toNanos(CHECKPOINT_INTERVAL)) {
+        return;
+      }
+      fileChannel.force(false);
+      progress.transferred(position);
+      this.position = position;
+      time = now;
+    }
+  }
+
+  private static class PendingCommand {
+    private final String verb;
+    private final long sentAt;
+    private boolean answered;
+
+    PendingCommand(String verb) {
+      this.verb = verb;
+      sentAt = System.nanoTime();
+    }
+  }
 }
@@ -0,0 +1,254 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class FTPClientPool {
+  public static final int DEFAULT_MAX_PER_HOST = 8;
+  public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000;
+  public static final long DEFAULT_KEEP_ALIVE_INTERVAL = 30 * 1000;
+
+  private final Supplier<FTPClient> clientFactory;
+  private final int maxPerHost;
+  private final long idleTimeout;
+  private final long keepAliveInterval;
+  private long borrowTimeout;
+  private TransferMetrics metrics;
+
+  private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+  private final Map<String, LinkedList<IdleSession>> idleSessions = new ConcurrentHashMap<>();
+  private final Map<FTPClient, Lease> leased = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService evictor;
+  private volatile boolean closed;
+
+  public FTPClientPool(Supplier<FTPClient> clientFactory) {
+    this(clientFactory, DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_TIMEOUT, DEFAULT_KEEP_ALIVE_INTERVAL);
+  }
+
+  public FTPClientPool(Supplier<FTPClient> clientFactory, int maxPerHost, long idleTimeout, long keepAliveInterval) {
+    if (maxPerHost < 1) {
+      throw new IllegalArgumentException("Max sessions per host must be positive: " + maxPerHost);
+    }
+    this.clientFactory = clientFactory;
+    this.maxPerHost = maxPerHost;
+    this.idleTimeout = idleTimeout;
+    this.keepAliveInterval = keepAliveInterval;
+    borrowTimeout = 0;
+
+    evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ftp-pool-evictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1000, Math.min(idleTimeout, keepAliveInterval) / 2);
+    evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  public void setBorrowTimeout(long millis) {
+    borrowTimeout = millis;
+  }
+
+  public void setMetrics(TransferMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public int getMaxPerHost() {
+    return maxPerHost;
+  }
+
+  public FTPClient borrow(String host, int port, String user, String password) throws IOException {
+    if (closed) {
+      throw new IOException("FTP client pool is closed");
+    }
+    Semaphore permits = hostPermits.computeIfAbsent(host, key -> new Semaphore(maxPerHost, true));
+    try {
+      if (borrowTimeout > 0) {
+        if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Timed out waiting for FTP session to " + host);
+        }
+      } else {
+        permits.acquire();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for FTP session to " + host);
+    }
+
+    String endpoint = endpointKey(host, port, user);
+    try {
+      FTPClient ftpClient = takeIdle(endpoint);
+      if (ftpClient == null) {
+        ftpClient = clientFactory.get();
+        ftpClient.setMetrics(metrics);
+        ftpClient.connect(host, port, user, password);
+      }
+      leased.put(ftpClient, new Lease(host, endpoint));
+      return ftpClient;
+    } catch (IOException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  public void release(FTPClient ftpClient) {
+    Lease lease = ftpClient == null ? null : leased.remove(ftpClient);
+    if (lease == null) {
+      return;
+    }
+    if (closed || !ftpClient.isOpen()) {
+      closeQuietly(ftpClient);
+    } else {
+      LinkedList<IdleSession> idle = idleSessions.computeIfAbsent(lease.endpoint, key -> new LinkedList<>());
+      synchronized (idle) {
+        idle.addFirst(new IdleSession(ftpClient, System.currentTimeMillis()));
+      }
+    }
+    hostPermits.get(lease.host).release();
+  }
+
+  public void invalidate(FTPClient ftpClient) {
+    Lease lease = ftpClient == null ? null : leased.remove(ftpClient);
+    if (lease == null) {
+      return;
+    }
+    closeQuietly(ftpClient);
+    hostPermits.get(lease.host).release();
+  }
+
+  public int getIdleCount() {
+    int count = 0;
+    for (LinkedList<IdleSession> idle : idleSessions.values()) {
+      synchronized (idle) {
+        count += idle.size();
+      }
+    }
+    return count;
+  }
+
+  public int getActiveCount() {
+    return leased.size();
+  }
+
+  public void close() {
+    closed = true;
+    evictor.shutdownNow();
+    for (LinkedList<IdleSession> idle : idleSessions.values()) {
+      synchronized (idle) {
+        for (IdleSession session : idle) {
+          closeQuietly(session.ftpClient);
+        }
+        idle.clear();
+      }
+    }
+  }
+
+  //  Helper functions for FTP client pool
+
+  private FTPClient takeIdle(String endpoint) {
+    LinkedList<IdleSession> idle = idleSessions.get(endpoint);
+    if (idle == null) {
+      return null;
+    }
+    while (true) {
+      IdleSession session;
+      synchronized (idle) {
+        session = idle.pollFirst();
+      }
+      if (session == null) {
+        return null;
+      }
+      if (isHealthy(session, System.currentTimeMillis())) {
+        return session.ftpClient;
+      }
+      closeQuietly(session.ftpClient);
+    }
+  }
+
+  private boolean isHealthy(IdleSession session, long now) {
+    if (!session.ftpClient.isOpen() || now - session.idleSince >= idleTimeout) {
+      return false;
+    }
+    if (now - session.lastChecked < keepAliveInterval) {
+      return true;
+    }
+    try {
+      session.ftpClient.noop();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    for (LinkedList<IdleSession> idle : idleSessions.values()) {
+      LinkedList<IdleSession> probe = new LinkedList<>();
+      synchronized (idle) {
+        Iterator<IdleSession> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+          IdleSession session = iterator.next();
+          if (now - session.lastChecked >= keepAliveInterval || now - session.idleSince >= idleTimeout) {
+            iterator.remove();
+            probe.add(session);
+          }
+        }
+      }
+      for (IdleSession session : probe) {
+        if (isHealthy(session, now)) {
+          synchronized (idle) {
+            idle.addLast(new IdleSession(session.ftpClient, session.idleSince, now));
+          }
+        } else {
+          closeQuietly(session.ftpClient);
+        }
+      }
+    }
+  }
+
+  private static String endpointKey(String host, int port, String user) {
+    return user + "@" + host + ":" + port;
+  }
+
+  private static void closeQuietly(FTPClient ftpClient) {
+    try {
+      if (ftpClient.isOpen()) {
+        ftpClient.disconnect();
+      }
+    } catch (IOException ignored) {
+    }
+  }
+
+  private static class Lease {
+    private final String host;
+    private final String endpoint;
+
+    Lease(String host, String endpoint) {
+      this.host = host;
+      this.endpoint = endpoint;
+    }
+  }
+
+  private static class IdleSession {
+    private final FTPClient ftpClient;
+    private final long idleSince;
+    private final long lastChecked;
+
+    IdleSession(FTPClient ftpClient, long idleSince) {
+      this(ftpClient, idleSince, idleSince);
+    }
+
+    IdleSession(FTPClient ftpClient, long idleSince, long lastChecked) {
+      this.ftpClient = ftpClient;
+      this.idleSince = idleSince;
+      this.lastChecked = lastChecked;
+    }
+  }
+}
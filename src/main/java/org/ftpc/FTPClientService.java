@@ -2,22 +2,65 @@ package org.ftpc;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
 public class FTPClientService {
+  public static final int DEFAULT_SEGMENT_COUNT = 4;
+  public static final long DEFAULT_MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+  public static final long DEFAULT_SMALL_FILE_THRESHOLD = 256 * 1024;
+  public static final long DEFAULT_JOURNAL_THRESHOLD = 8 * 1024 * 1024;
+  public static final int DEFAULT_VERIFY_RETRIES = 2;
+  private static final int LISTING_PRIORITY = 1;
+
   private String host;
   private String user;
   private String password;
   private String currentWorkingDir;
   private String downloadDir;
   private int port;
+  private TransferJournal journal;
+  private volatile int segmentCount;
+  private long minSegmentSize;
+  private long smallFileThreshold;
+  private long journalThreshold = DEFAULT_JOURNAL_THRESHOLD;
+  private final FTPClientPool clientPool;
+  private final TransferScheduler scheduler;
+  private final TransferMetrics metrics = new TransferMetrics();
+  private DirectoryCache directoryCache = new DirectoryCache();
+  private CompressionPolicy compressionPolicy;
+  private TransferType transferType;
+  private Set<String> asciiExtensions = Collections.emptySet();
+  private boolean verifyDownloads = true;
+  private final RateLimiter rateLimiter = new RateLimiter();
+  private final RateLimiter transferRateLimit = new RateLimiter();
+  private int verifyRetries = DEFAULT_VERIFY_RETRIES;
+  private ConcurrencyController concurrencyController;
+  private final SocketOptions controlOptions = SocketOptions.control();
+  private final SocketOptions dataOptions = SocketOptions.data();
+  private volatile int chunkSize = DataTransfer.DEFAULT_CHUNK_SIZE;
+  private volatile DataConnectionMode dataConnectionMode = DataConnectionMode.AUTO;
 
   public FTPClientService(String host, int port, String user, String password) {
     this.host = host;
@@ -26,7 +69,190 @@ public class FTPClientService {
     this.port = port;
     currentWorkingDir = "/";
     downloadDir = null;
-    System.out.println(this.host +" "+this.user +" "+this.password +" "+this.port );
+    segmentCount = DEFAULT_SEGMENT_COUNT;
+    minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    smallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+    clientPool = new FTPClientPool(() -> {
+      FTPClient ftpClient = downloadDir == null ? new FTPClient() : new FTPClient(downloadDir);
+      ftpClient.setControlOptions(controlOptions);
+      return ftpClient;
+    });
+    scheduler = new TransferScheduler(TransferScheduler.DEFAULT_CONCURRENCY,
+      TransferScheduler.DEFAULT_QUEUE_CAPACITY, clientPool.getMaxPerHost(), TransferScheduler.Ordering.SMALLEST_FIRST);
+    clientPool.setMetrics(metrics);
+  }
+
+  public FTPClientService(String host, int port, String user, String password, FTPClientPool clientPool) {
+    this(host, port, user, password, clientPool, new TransferScheduler(TransferScheduler.DEFAULT_CONCURRENCY,
+      TransferScheduler.DEFAULT_QUEUE_CAPACITY, clientPool.getMaxPerHost(), TransferScheduler.Ordering.SMALLEST_FIRST));
+  }
+
+  public FTPClientService(String host, int port, String user, String password,
+                          FTPClientPool clientPool, TransferScheduler scheduler) {
+    this.host = host;
+    this.user = user;
+    this.password = password;
+    this.port = port;
+    this.clientPool = clientPool;
+    this.scheduler = scheduler;
+    clientPool.setMetrics(metrics);
+    currentWorkingDir = "/";
+    downloadDir = null;
+    segmentCount = DEFAULT_SEGMENT_COUNT;
+    minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    smallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+  }
+
+  public FTPClientPool getClientPool() {
+    return clientPool;
+  }
+
+  public TransferScheduler getScheduler() {
+    return scheduler;
+  }
+
+  //  Virtual threads cost nothing to park, so that mode runs as many transfers as the pool has sessions per host
+
+  public TransferScheduler.ExecutionMode setExecutionMode(TransferScheduler.ExecutionMode mode) {
+    TransferScheduler.ExecutionMode applied = scheduler.setExecutionMode(mode);
+    if (applied == TransferScheduler.ExecutionMode.VIRTUAL) {
+      scheduler.setPerHostLimit(clientPool.getMaxPerHost());
+      scheduler.setConcurrency(Math.max(scheduler.getConcurrency(), clientPool.getMaxPerHost()));
+    }
+    return applied;
+  }
+
+  public TransferMetrics getMetrics() {
+    return metrics;
+  }
+
+  public DirectoryCache getDirectoryCache() {
+    return directoryCache;
+  }
+
+  public void setDirectoryCache(DirectoryCache directoryCache) {
+    this.directoryCache = directoryCache;
+  }
+
+  public CompressionPolicy getCompressionPolicy() {
+    return compressionPolicy;
+  }
+
+  public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+    this.compressionPolicy = compressionPolicy;
+  }
+
+  public TransferType getTransferType() {
+    return transferType;
+  }
+
+  public void setTransferType(TransferType transferType) {
+    this.transferType = transferType;
+  }
+
+  public Set<String> getAsciiExtensions() {
+    return asciiExtensions;
+  }
+
+  public void setAsciiExtensions(Set<String> asciiExtensions) {
+    this.asciiExtensions = asciiExtensions;
+  }
+
+  public boolean isVerifyDownloads() {
+    return verifyDownloads;
+  }
+
+  public void setVerifyDownloads(boolean verifyDownloads) {
+    this.verifyDownloads = verifyDownloads;
+  }
+
+  public int getVerifyRetries() {
+    return verifyRetries;
+  }
+
+  public void setVerifyRetries(int verifyRetries) {
+    if (verifyRetries < 0) {
+      throw new IllegalArgumentException("Verify retries must not be negative: " + verifyRetries);
+    }
+    this.verifyRetries = verifyRetries;
+  }
+
+  //  Both limits can be changed while transfers run, RateLimiter.UNLIMITED (0) lifts them
+
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  public RateLimiter getTransferRateLimit() {
+    return transferRateLimit;
+  }
+
+  //  Both profiles are shared by every session, the control profile only reaches sessions created by this service
+
+  public SocketOptions getControlOptions() {
+    return controlOptions;
+  }
+
+  public SocketOptions getDataOptions() {
+    return dataOptions;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public void setChunkSize(int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  public DataConnectionMode getDataConnectionMode() {
+    return dataConnectionMode;
+  }
+
+  public void setDataConnectionMode(DataConnectionMode dataConnectionMode) {
+    this.dataConnectionMode = dataConnectionMode;
+  }
+
+  public synchronized boolean isAdaptiveConcurrency() {
+    return concurrencyController != null;
+  }
+
+  //  Starts a few sessions and lets throughput and refused connections steer the number of workers and
+  //  download segments. Turning it off keeps the level reached so far.
+
+  public synchronized void setAdaptiveConcurrency(boolean adaptive) {
+    if (adaptive == (concurrencyController != null)) {
+      return;
+    }
+    if (adaptive) {
+      int maxConcurrency = clientPool.getMaxPerHost();
+      concurrencyController = new ConcurrencyController(scheduler, metrics, host,
+        Math.min(ConcurrencyController.DEFAULT_MIN_CONCURRENCY, maxConcurrency), maxConcurrency);
+      concurrencyController.addListener(this::setSegmentCount);
+      concurrencyController.start(ConcurrencyController.DEFAULT_INTERVAL, TimeUnit.MILLISECONDS);
+    } else {
+      concurrencyController.stop();
+      concurrencyController = null;
+    }
+  }
+
+  public void close() {
+    setAdaptiveConcurrency(false);
+    metrics.stopReporting();
+    metrics.unregisterMBean();
+    scheduler.close();
+    clientPool.close();
+    TransferJournal journal = getJournal();
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        System.err.println(e.getMessage());
+      }
+    }
   }
 
   public void setDownloadDir(String dir){
@@ -37,66 +263,184 @@ public class FTPClientService {
     return downloadDir;
   }
 
+  public void setSegmentCount(int segmentCount) {
+    if (segmentCount < 1) {
+      throw new IllegalArgumentException("Segment count must be positive: " + segmentCount);
+    }
+    this.segmentCount = segmentCount;
+  }
+
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  public void setMinSegmentSize(long minSegmentSize) {
+    if (minSegmentSize < 1) {
+      throw new IllegalArgumentException("Minimum segment size must be positive: " + minSegmentSize);
+    }
+    this.minSegmentSize = minSegmentSize;
+  }
+
+  public long getMinSegmentSize() {
+    return minSegmentSize;
+  }
+
+  public void setSmallFileThreshold(long smallFileThreshold) {
+    if (smallFileThreshold < 0) {
+      throw new IllegalArgumentException("Small file threshold must not be negative: " + smallFileThreshold);
+    }
+    this.smallFileThreshold = smallFileThreshold;
+  }
+
+  public long getSmallFileThreshold() {
+    return smallFileThreshold;
+  }
+
+  //  Without a journal transfers are not checkpointed and cannot be resumed
+
+  public synchronized void setJournal(TransferJournal journal) {
+    this.journal = journal;
+  }
+
+  public synchronized TransferJournal getJournal() {
+    return journal;
+  }
+
+  //  Files below the threshold are cheaper to transfer again than to checkpoint, 0 journals every file
+
+  public void setJournalThreshold(long journalThreshold) {
+    if (journalThreshold < 0) {
+      throw new IllegalArgumentException("Journal threshold must not be negative: " + journalThreshold);
+    }
+    this.journalThreshold = journalThreshold;
+  }
+
+  public long getJournalThreshold() {
+    return journalThreshold;
+  }
+
   public void pwd() {
     System.out.println("Working dir: " + currentWorkingDir);
   }
 
+  //  Always asks the server, which may refuse the directory or resolve links in it, every session replays the result
+
   public String cwd(String dir) {
-    FTPClient ftpClient = getFTPClient();
+    FTPClient ftpClient = null;
     try {
+      ftpClient = getFTPClient();
       currentWorkingDir = ftpClient.setWorkingDir(dir);
+      clientPool.release(ftpClient);
     } catch (IOException e) {
+      clientPool.invalidate(ftpClient);
       System.err.println(e.getMessage());
     }
     return currentWorkingDir;
   }
 
   public void listFiles(String dir) {
-    FTPClient ftpClient = getFTPClient();
-    try {
-      List<String> files = ftpClient.getListEntries(dir);
-      for (String file : files) {
-        System.out.println(file);
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
-      System.err.println(e.getMessage());
-    }
+    printListing(dir, DirectoryCache.LIST);
   }
 
   public void listFilesNames(String dir) {
-    FTPClient ftpClient = getFTPClient();
-    try {
-      List<String> files = ftpClient.getListEntriesNLST(dir);
-      for (String file : files) {
-        System.out.println(file);
+    printListing(dir, DirectoryCache.NLST);
+  }
+
+  public List<FTPListEntry> listEntries(String dir) throws IOException {
+    return fetchEntries(DirectoryCache.resolve(currentWorkingDir, dir));
+  }
+
+  public SyncResult sync(String localDir, String remoteDir, TransferJournal.Direction direction, boolean deleteExtras)
+    throws IOException {
+    System.out.println("Synchronizing...");
+    Path localRoot = Paths.get(localDir).toAbsolutePath().normalize();
+    String remoteRoot = DirectoryCache.resolve(currentWorkingDir, remoteDir);
+    if (direction == TransferJournal.Direction.UPLOAD) {
+      if (!Files.isDirectory(localRoot)) {
+        throw new IOException("Local directory does not exist: " + localRoot);
+      }
+      ensureRemoteDirectory(remoteRoot);
+    } else {
+      Files.createDirectories(localRoot);
+    }
+    long syncStart = System.currentTimeMillis();
+
+    CompletableFuture<Map<String, FTPListEntry>> localWalk = CompletableFuture.supplyAsync(() -> {
+      try {
+        return walkLocal(localRoot);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    Map<String, FTPListEntry> remoteTree = walkRemote(remoteRoot);
+    Map<String, FTPListEntry> localTree = await(localWalk);
+    boolean compareTimes = refineRemoteTimes(remoteRoot, remoteTree);
+
+    boolean upload = direction == TransferJournal.Direction.UPLOAD;
+    Map<String, FTPListEntry> source = new TreeMap<>(upload ? localTree : remoteTree);
+    Map<String, FTPListEntry> target = upload ? remoteTree : localTree;
+    SyncResult result = new SyncResult();
+    List<String> missingDirectories = new ArrayList<>();
+    List<String> changedFiles = new ArrayList<>();
+    for (Map.Entry<String, FTPListEntry> entry : source.entrySet()) {
+      FTPListEntry existing = target.get(entry.getKey());
+      if (existing != null && existing.isDirectory() != entry.getValue().isDirectory()) {
+        System.err.println("Cannot sync file over directory: " + entry.getKey());
+        result.entryFailed();
+      } else if (entry.getValue().isDirectory()) {
+        if (existing == null) {
+          missingDirectories.add(entry.getKey());
+        }
+      } else if (isChanged(entry.getValue(), existing, compareTimes,
+        transferTypeFor(entry.getKey()) == TransferType.ASCII)) {
+        changedFiles.add(entry.getKey());
+      } else {
+        result.fileUnchanged();
       }
-    } catch (IOException e) {
-      e.printStackTrace();
-      System.err.println(e.getMessage());
     }
+
+    createDirectories(missingDirectories, localRoot, remoteRoot, upload, result);
+    transferFiles(changedFiles, source, localRoot, remoteRoot, upload, result);
+    if (deleteExtras) {
+      List<String> extras = new ArrayList<>();
+      for (String path : new TreeMap<>(target).descendingKeySet()) {
+        if (!source.containsKey(path)) {
+          extras.add(path);
+        }
+      }
+      deleteEntries(extras, target, localRoot, remoteRoot, upload, result);
+    }
+
+    double duration = (System.currentTimeMillis() - syncStart) / 1000.0;
+    System.out.println(String.format("%s\n-Duration: %.2f s", result, duration));
+    return result;
   }
 
   public void upload(List<String> filesPaths) {
 
     System.out.println("Uploading...");
-    List<Callable<Void>> tasks;
+    List<CompletableFuture<Void>> results = new LinkedList<>();
     AtomicLong totalFilesSize = new AtomicLong();
-    AtomicLong totalDuration = new AtomicLong();
+    long uploadStartTime = System.currentTimeMillis();
+    List<File> smallFiles = new ArrayList<>();
 
-    tasks = filesPaths
-      .stream()
-      .map(filePath -> {
+    try {
+      for (String filePath : filesPaths) {
         Path path = Paths.get(filePath).toAbsolutePath().normalize();
         File file = new File(path.toString());
-        return (Callable<Void>) () -> {
-          FTPClient ftpClient = getFTPClient();
+        if (file.length() < smallFileThreshold) {
+          smallFiles.add(file);
+          continue;
+        }
+        results.add(scheduler.submit(host, file.length(), () -> {
+          FTPClient ftpClient = null;
           try {
+            ftpClient = getFTPClient();
             long uploadStart = System.currentTimeMillis();
-            ftpClient.upload(file);
+            uploadFile(ftpClient, file);
+            clientPool.release(ftpClient);
             long uploadEnd = System.currentTimeMillis();
             double uploadTime = ((uploadEnd - uploadStart) / 1000.0);
-            totalDuration.addAndGet((long) uploadTime);
             totalFilesSize.addAndGet(file.length());
             System.out.println(
               String.format(
@@ -106,22 +450,24 @@ public class FTPClientService {
               )
             );
           } catch (IOException e) {
+            clientPool.invalidate(ftpClient);
             e.printStackTrace();
             System.err.println(e.getMessage());
-          } finally {
-            ftpClient.disconnect();
           }
           return null;
-        };
-
-      }).collect(Collectors.toList());
-
-    ExecutorService threadPool = Executors.newFixedThreadPool(filesPaths.size());
-    long uploadStartTime = System.currentTimeMillis();
-
-    try {
-      threadPool.invokeAll(tasks);
-      threadPool.shutdown();
+        }));
+      }
+      for (List<File> batch : splitBatches(smallFiles, scheduler.getConcurrency())) {
+        long batchSize = 0;
+        for (File file : batch) {
+          batchSize += file.length();
+        }
+        results.add(scheduler.submit(host, batchSize, () -> {
+          uploadBatch(batch, totalFilesSize);
+          return null;
+        }));
+      }
+      awaitAll(results);
     } catch (InterruptedException e) {
       e.printStackTrace();
       System.err.println(e.getMessage());
@@ -133,68 +479,809 @@ public class FTPClientService {
     System.out.println(
       String.format(
         "Total upload size: %s\nTotal upload time: %.2f s",
-        getTotalFileSize(totalFilesSize), totalDuration.doubleValue()
+        getTotalFileSize(totalFilesSize), duration
       )
     );
   }
 
+  //  Sizes are looked up one pipelined round of SIZE commands at a time, so the first files start downloading
+  //  while the sizes of the rest are still being fetched
+
   public void download(List<String> filesPaths) {
     System.out.println("Downloading...");
 
-    List<Callable<Void>> tasks;
+    List<CompletableFuture<Void>> results = new LinkedList<>();
     AtomicLong totalFilesSize = new AtomicLong();
-    AtomicLong totalDuration = new AtomicLong();
-    tasks = filesPaths
-      .stream()
-      .map(filePath -> (Callable<Void>) () -> {
-        FTPClient ftpClient = getFTPClient();
+    long downloadStartTime = System.currentTimeMillis();
+    try {
+      for (int start = 0; start < filesPaths.size(); start += FTPClient.PIPELINE_DEPTH) {
+        List<String> names = filesPaths.subList(start, Math.min(filesPaths.size(), start + FTPClient.PIPELINE_DEPTH));
+        Map<String, Long> remoteSizes = getRemoteSizes(names);
+        for (String filePath : names) {
+          queueDownload(filePath, remoteSizes.getOrDefault(filePath, -1L), results, totalFilesSize);
+        }
+      }
+      awaitAll(results);
+    } catch (InterruptedException e) {
+      System.err.println(e.getMessage());
+    }
+
+    double duration = (System.currentTimeMillis() - downloadStartTime) / 1000.0;
+    System.out.println(String.format(
+      "Total download size: %s\nTotal download time: %.2f s"
+      , getTotalFileSize(totalFilesSize), duration));
+  }
+
+  //  Single transfers for callers that track results themselves, a failure completes the future exceptionally.
+  //  Submitting blocks while the scheduler queue is full.
+
+  public CompletableFuture<Long> submitUpload(String filePath) throws InterruptedException {
+    File file = Paths.get(filePath).toAbsolutePath().normalize().toFile();
+    return scheduler.submit(host, file.length(), () -> {
+      if (!file.isFile()) {
+        throw new IOException("Error: " + file.getPath() + " is not a file");
+      }
+      FTPClient ftpClient = getFTPClient();
+      try {
+        uploadFile(ftpClient, file);
+      } catch (IOException e) {
+        clientPool.invalidate(ftpClient);
+        throw e;
+      }
+      clientPool.release(ftpClient);
+      return file.length();
+    });
+  }
+
+  public CompletableFuture<Long> submitDownload(String fileName) throws InterruptedException {
+    return scheduler.submit(host, 0, () -> {
+      FTPClient ftpClient = getFTPClient();
+      File file;
+      try {
+        file = downloadFile(ftpClient, fileName, -1);
+      } catch (IOException e) {
+        clientPool.invalidate(ftpClient);
+        throw e;
+      }
+      clientPool.release(ftpClient);
+      return file.length();
+    });
+  }
+
+  //  Every segment is waited for before the shared FileChannel closes, a failed download removes the pre-sized file
+  //  so no zero-filled copy is left behind
 
+  public File downloadSegmented(String fileName) {
+    if (transferTypeFor(fileName) == TransferType.ASCII) {
+      System.err.println("Error: segmented transfers are binary only, use download for ASCII file " + fileName);
+      return null;
+    }
+    System.out.println("Downloading in segments...");
+    long fileSize;
+    File file;
+    FTPClient ftpClient = null;
+    try {
+      ftpClient = getFTPClient();
+      fileSize = ftpClient.size(fileName);
+      file = new File(ftpClient.getDownloadPath() + "/" + fileName);
+      clientPool.release(ftpClient);
+    } catch (IOException e) {
+      clientPool.invalidate(ftpClient);
+      System.err.println(e.getMessage());
+      return null;
+    }
+
+    int segments = (int) Math.max(1, Math.min(segmentCount, fileSize / minSegmentSize));
+    long segmentSize = fileSize / segments;
+    long downloadStart = System.currentTimeMillis();
+
+    boolean completed = false;
+    try {
+      Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+      try (RandomAccessFile outputFile = new RandomAccessFile(file, "rw")) {
+        outputFile.setLength(fileSize);
+        FileChannel fileChannel = outputFile.getChannel();
+
+        List<CompletableFuture<Long>> results = new LinkedList<>();
         try {
-          long downloadStart = System.currentTimeMillis();
-          File file = ftpClient.download(filePath);
-          System.out.println(file.getAbsolutePath());
-          System.out.println(file.exists());
-          long downloadEnd = System.currentTimeMillis();
-          double downloadTime = ((downloadEnd - downloadStart) / 1000.0);
-          totalDuration.addAndGet((long) downloadTime);
+          for (int segment = 0; segment < segments; segment++) {
+            long offset = segment * segmentSize;
+            long length = segment == segments - 1 ? fileSize - offset : segmentSize;
+            results.add(scheduler.submit(host, length, () -> {
+              FTPClient segmentClient = null;
+              try {
+                segmentClient = getFTPClient();
+                long received = segmentClient.download(fileName, fileChannel, offset, length);
+                clientPool.release(segmentClient);
+                return received;
+              } catch (IOException e) {
+                clientPool.invalidate(segmentClient);
+                throw e;
+              }
+            }));
+          }
+        } finally {
+          awaitAll(results);
+        }
+        for (CompletableFuture<Long> result : results) {
+          if (result.isCompletedExceptionally()) {
+            return null;
+          }
+        }
+      }
+      completed = true;
+    } catch (IOException | InterruptedException e) {
+      System.err.println(e.getMessage());
+      return null;
+    } finally {
+      if (!completed) {
+        file.delete();
+      }
+    }
+
+    double downloadTime = (System.currentTimeMillis() - downloadStart) / 1000.0;
+    System.out.println(
+      String.format(
+        "-File name: %s\n-File size: %s\n-Segments: %d\n-Duration: %.2f s\n-Downloaded file path: %s\n",
+        file.getName(), getTotalFileSize(new AtomicLong(fileSize)), segments,
+        downloadTime, file.getAbsolutePath()
+      )
+    );
+    return file;
+  }
+
+  //  Each segment streams its own region of the shared FileChannel over a separate session. The first segment
+  //  creates or truncates the remote file, so the others start once the server has accepted its STOR.
+
+  public File uploadSegmented(String filePath) {
+    System.out.println("Uploading in segments...");
+    File file = Paths.get(filePath).toAbsolutePath().normalize().toFile();
+    if (transferTypeFor(file.getName()) == TransferType.ASCII) {
+      System.err.println("Error: segmented transfers are binary only, use upload for ASCII file " + filePath);
+      return null;
+    }
+    long fileSize = file.length();
+    int segments = (int) Math.max(1, Math.min(segmentCount, fileSize / minSegmentSize));
+    long segmentSize = fileSize / segments;
+    long uploadStart = System.currentTimeMillis();
+
+    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      List<CompletableFuture<Long>> results = new LinkedList<>();
+      CompletableFuture<Void> created = new CompletableFuture<>();
+      try {
+        for (int segment = 0; segment < segments; segment++) {
+          long offset = segment * segmentSize;
+          long length = segment == segments - 1 ? fileSize - offset : segmentSize;
+          CompletableFuture<Long> result = scheduler.submit(host, length, () -> {
+            FTPClient segmentClient = null;
+            try {
+              segmentClient = getFTPClient();
+              long sent = segmentClient.upload(fileChannel, file.getName(), offset, length,
+                offset == 0 ? () -> created.complete(null) : null);
+              clientPool.release(segmentClient);
+              return sent;
+            } catch (IOException e) {
+              clientPool.invalidate(segmentClient);
+              throw e;
+            }
+          });
+          results.add(result);
+          if (segment == 0) {
+            result.whenComplete((sent, e) -> {
+              if (e != null) {
+                created.completeExceptionally(e);
+              }
+            });
+            try {
+              created.get();
+            } catch (ExecutionException e) {
+              break;
+            }
+          }
+        }
+      } finally {
+        awaitAll(results);
+      }
+      for (CompletableFuture<Long> result : results) {
+        if (result.isCompletedExceptionally()) {
+          return null;
+        }
+      }
+    } catch (IOException | InterruptedException e) {
+      System.err.println(e.getMessage());
+      return null;
+    }
+
+    double uploadTime = (System.currentTimeMillis() - uploadStart) / 1000.0;
+    System.out.println(
+      String.format(
+        "-File name: %s\n-File size: %s\n-Segments: %d\n-Duration: %.2f s\n-Uploaded file path: %s\n",
+        file.getName(), getTotalFileSize(new AtomicLong(fileSize)), segments,
+        uploadTime, file.getAbsolutePath()
+      )
+    );
+    return file;
+  }
+
+  public void resumePending() {
+    TransferJournal journal = getJournal();
+    if (journal == null) {
+      System.err.println("No transfer journal to resume from");
+      return;
+    }
+    List<TransferJournal.Entry> pending = journal.pending();
+    System.out.println(String.format("Resuming %d transfers...", pending.size()));
+
+    for (TransferJournal.Entry entry : pending) {
+      String remotePath = entry.getRemotePath();
+      String remoteDir = remotePath.substring(0, remotePath.lastIndexOf('/') + 1);
+      String fileName = remotePath.substring(remotePath.lastIndexOf('/') + 1);
+      FTPClient ftpClient = null;
+      try {
+        ftpClient = getFTPClient();
+        ftpClient.setWorkingDir(remoteDir);
+        if (entry.getDirection() == TransferJournal.Direction.UPLOAD) {
+          uploadFile(ftpClient, new File(entry.getLocalPath()));
+        } else {
+          downloadFile(ftpClient, fileName, new File(entry.getLocalPath()), -1);
+        }
+        clientPool.release(ftpClient);
+        System.out.println("Resumed: " + remotePath);
+      } catch (IOException e) {
+        clientPool.invalidate(ftpClient);
+        System.err.println(e.getMessage());
+      }
+    }
+  }
+
+  private void queueDownload(String filePath, long size, List<CompletableFuture<Void>> results,
+                            AtomicLong totalFilesSize) throws InterruptedException {
+    results.add(scheduler.submit(host, Math.max(0, size), () -> {
+      FTPClient ftpClient = null;
+
+      try {
+        ftpClient = getFTPClient();
+        long downloadStart = System.currentTimeMillis();
+        File file = downloadFile(ftpClient, filePath, size);
+        clientPool.release(ftpClient);
+        long downloadEnd = System.currentTimeMillis();
+        double downloadTime = ((downloadEnd - downloadStart) / 1000.0);
+        totalFilesSize.addAndGet(file.length());
+
+        System.out.println(
+          String.format(
+            "-File name: %s\n-File size: %s\n-Duration: %.2f s\n-Downloaded file path: %s\n",
+            file.getName(), getTotalFileSize(new AtomicLong(file.length())),
+            downloadTime, file.getAbsolutePath()
+          )
+        );
+      } catch (IOException e) {
+        clientPool.invalidate(ftpClient);
+        e.printStackTrace();
+        System.err.println(e.getMessage());
+      }
+
+      return null;
+    }));
+  }
+
+  private void uploadFile(FTPClient ftpClient, File file) throws IOException {
+    TransferJournal journal = getJournal();
+    String remotePath = remotePath(ftpClient, file.getName());
+    long offset = 0;
+    TransferJournal.Entry entry = journal == null ? null : journal.get(TransferJournal.Direction.UPLOAD, remotePath);
+    if (entry == null && (journal == null || file.length() < journalThreshold)) {
+      ftpClient.upload(file, 0);
+      return;
+    }
+    if (entry != null && entry.getSize() == file.length() && entry.getModified() == file.lastModified()) {
+      try {
+        offset = ftpClient.size(file.getName());
+      } catch (IOException e) {
+        offset = 0;
+      }
+      if (offset > file.length()) {
+        offset = 0;
+      }
+    }
+
+    journal.checkpoint(TransferJournal.Direction.UPLOAD, remotePath, file.getAbsolutePath(),
+      offset, file.length(), file.lastModified());
+    ftpClient.upload(file, offset);
+    journal.complete(TransferJournal.Direction.UPLOAD, remotePath);
+  }
+
+  //  Small files skip the journal, a failed file is reported and the rest continue on a fresh session
+
+  private void uploadBatch(List<File> batch, AtomicLong totalFilesSize) {
+    long batchStart = System.currentTimeMillis();
+    LinkedList<File> remaining = new LinkedList<>(batch);
+    while (!remaining.isEmpty()) {
+      FTPClient ftpClient = null;
+      try {
+        ftpClient = getFTPClient();
+        ftpClient.uploadBatch(new ArrayList<>(remaining), file -> {
+          remaining.removeFirst();
           totalFilesSize.addAndGet(file.length());
+        });
+        clientPool.release(ftpClient);
+      } catch (IOException e) {
+        clientPool.invalidate(ftpClient);
+        File failed = remaining.pollFirst();
+        System.err.println((failed == null ? "" : failed.getName() + ": ") + e.getMessage());
+      }
+    }
+    System.out.println(String.format("-Batch: %d files\n-Duration: %.2f s\n",
+      batch.size(), (System.currentTimeMillis() - batchStart) / 1000.0));
+  }
+
+  //  Largest files first, each into the batch with the fewest bytes so far, so batches finish at about the same time
+
+  static List<List<File>> splitBatches(List<File> files, int count) {
+    int batches = Math.min(files.size(), count);
+    long[] lengths = new long[files.size()];
+    Integer[] order = new Integer[files.size()];
+    for (int i = 0; i < files.size(); i++) {
+      lengths[i] = files.get(i).length();
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(lengths[b], lengths[a]));
+    List<List<File>> result = new ArrayList<>();
+    long[] batchSizes = new long[batches];
+    for (int i = 0; i < batches; i++) {
+      result.add(new ArrayList<>());
+    }
+    for (int index : order) {
+      int smallest = 0;
+      for (int i = 1; i < batches; i++) {
+        if (batchSizes[i] < batchSizes[smallest]) {
+          smallest = i;
+        }
+      }
+      result.get(smallest).add(files.get(index));
+      batchSizes[smallest] += lengths[index];
+    }
+    return result;
+  }
+
+  //  Remote subdirectories are mirrored under the download dir
+
+  private File downloadFile(FTPClient ftpClient, String fileName, long size) throws IOException {
+    File target = new File(ftpClient.getDownloadPath() + "/" + fileName);
+    Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+    return downloadFile(ftpClient, fileName, target, size);
+  }
+
+  //  Size is the remote size when a SIZE reply or listing already gave it, -1 otherwise
+
+  private File downloadFile(FTPClient ftpClient, String fileName, File target, long size) throws IOException {
+    TransferJournal journal = getJournal();
+    String remotePath = remotePath(ftpClient, fileName);
+    String localPath = target.getAbsolutePath();
+    long offset = 0;
+    TransferJournal.Entry entry = journal == null ? null : journal.get(TransferJournal.Direction.DOWNLOAD, remotePath);
+    if (entry != null && entry.getLocalPath().equals(localPath) && target.length() >= entry.getOffset()) {
+      offset = entry.getOffset();
+    }
+    boolean journaled = entry != null || (journal != null && (size < 0 || size >= journalThreshold));
+
+    for (int attempt = 0; ; attempt++) {
+      FileDigest digest = verifyDownloads ? ftpClient.newDigest(fileName) : null;
+      DataTransfer.Progress progress = null;
+      if (journaled) {
+        journal.checkpoint(TransferJournal.Direction.DOWNLOAD, remotePath, localPath, offset, -1, 0);
+        progress = position ->
+          journal.checkpoint(TransferJournal.Direction.DOWNLOAD, remotePath, localPath, position, -1, 0);
+      }
+      File file = ftpClient.download(fileName, target, offset, size, progress, digest);
+      if (!verifyDownloads || ftpClient.verify(fileName, file, digest, size)) {
+        if (journaled) {
+          journal.complete(TransferJournal.Direction.DOWNLOAD, remotePath);
+        }
+        return file;
+      }
+      offset = 0;
+      if (journaled) {
+        journal.checkpoint(TransferJournal.Direction.DOWNLOAD, remotePath, localPath, offset, -1, 0);
+      }
+      if (attempt >= verifyRetries) {
+        throw new IOException(String.format("Error: %s failed verification after %d attempts", fileName, attempt + 1));
+      }
+      System.err.println("Verification failed, downloading again: " + fileName);
+    }
+  }
 
-          System.out.println(
-            String.format(
-              "-File name: %s\n-File size: %s\n-Duration: %.2f s\n-Downloaded file path: %s\n",
-              file.getName(), getTotalFileSize(new AtomicLong(file.length())),
-              downloadTime, file.getAbsolutePath()
-            )
-          );
+  private String remotePath(FTPClient ftpClient, String fileName) {
+    if (fileName.startsWith("/")) {
+      return fileName;
+    }
+    String dir = ftpClient.getWorkingDir() == null ? currentWorkingDir : ftpClient.getWorkingDir();
+    return dir.endsWith("/") ? dir + fileName : dir + "/" + fileName;
+  }
+
+  private Map<String, Long> getRemoteSizes(List<String> fileNames) {
+    FTPClient ftpClient = null;
+    try {
+      ftpClient = getFTPClient();
+      Map<String, Long> sizes = ftpClient.sizes(fileNames);
+      clientPool.release(ftpClient);
+      return sizes;
+    } catch (IOException e) {
+      clientPool.invalidate(ftpClient);
+      return Collections.emptyMap();
+    }
+  }
+
+  //  Sync walks list many directories at once, so they go through the scheduler ahead of queued transfers
+
+  private CompletableFuture<List<FTPListEntry>> listEntriesAsync(String path) throws IOException {
+    List<FTPListEntry> cached = directoryCache.get(path, DirectoryCache.ENTRIES);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    try {
+      return scheduler.submit(host, 0, LISTING_PRIORITY, () -> fetchEntries(path));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  //  Interactive listings run on the caller's thread, outside the scheduler's transfer slots, so a busy batch
+  //  only delays them when it holds every pooled session
+
+  private List<FTPListEntry> fetchEntries(String path) throws IOException {
+    List<FTPListEntry> cached = directoryCache.get(path, DirectoryCache.ENTRIES);
+    if (cached != null) {
+      return cached;
+    }
+    List<FTPListEntry> received = new ArrayList<>();
+    FTPClient ftpClient = null;
+    try {
+      ftpClient = getFTPClient();
+      ftpClient.listEntries(path, received::add);
+      clientPool.release(ftpClient);
+    } catch (IOException e) {
+      clientPool.invalidate(ftpClient);
+      throw e;
+    }
+    directoryCache.put(path, DirectoryCache.ENTRIES, received);
+    return received;
+  }
+
+  //  Helper functions for tree sync, relative paths use '/' on both sides
+
+  private Map<String, FTPListEntry> walkRemote(String remoteRoot) throws IOException {
+    Map<String, FTPListEntry> tree = new HashMap<>();
+    List<String> level = Collections.singletonList("");
+    while (!level.isEmpty()) {
+      List<CompletableFuture<List<FTPListEntry>>> listings = new ArrayList<>();
+      for (String dir : level) {
+        listings.add(listEntriesAsync(childPath(remoteRoot, dir)));
+      }
+      List<String> nextLevel = new ArrayList<>();
+      for (int i = 0; i < level.size(); i++) {
+        for (FTPListEntry entry : await(listings.get(i))) {
+          if (entry.getName().equals(".") || entry.getName().equals("..")) {
+            continue;
+          }
+          String relative = level.get(i).isEmpty() ? entry.getName() : level.get(i) + "/" + entry.getName();
+          if (entry.isDirectory()) {
+            nextLevel.add(relative);
+            tree.put(relative, entry);
+          } else if (entry.isFile()) {
+            tree.put(relative, entry);
+          }
+        }
+      }
+      level = nextLevel;
+    }
+    return tree;
+  }
+
+  private static Map<String, FTPListEntry> walkLocal(Path localRoot) throws IOException {
+    Map<String, FTPListEntry> tree = new HashMap<>();
+    Files.walkFileTree(localRoot, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+        if (!dir.equals(localRoot)) {
+          tree.put(relativePath(localRoot, dir), new FTPListEntry(dir.getFileName().toString(),
+            FTPListEntry.Type.DIRECTORY, 0, attributes.lastModifiedTime().toMillis(), null));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        if (attributes.isRegularFile()) {
+          tree.put(relativePath(localRoot, file), new FTPListEntry(file.getFileName().toString(),
+            FTPListEntry.Type.FILE, attributes.size(), attributes.lastModifiedTime().toMillis(), null));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return tree;
+  }
+
+  //  LIST shows server local time rounded to minutes or days, so only MLSD and MDTM times are compared
+
+  private boolean refineRemoteTimes(String remoteRoot, Map<String, FTPListEntry> remoteTree) throws IOException {
+    FTPClient ftpClient = null;
+    try {
+      ftpClient = getFTPClient();
+      boolean preciseTimes = ftpClient.hasFeature("MLST");
+      if (!preciseTimes && ftpClient.hasFeature("MDTM")) {
+        List<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, FTPListEntry> entry : remoteTree.entrySet()) {
+          if (entry.getValue().isFile()) {
+            candidates.add(entry.getKey());
+          }
+        }
+        List<String> remotePaths = new ArrayList<>();
+        for (String relative : candidates) {
+          remotePaths.add(childPath(remoteRoot, relative));
+        }
+        Map<String, Long> times = ftpClient.modificationTimes(remotePaths);
+        for (int i = 0; i < candidates.size(); i++) {
+          FTPListEntry entry = remoteTree.get(candidates.get(i));
+          remoteTree.put(candidates.get(i), new FTPListEntry(entry.getName(), entry.getType(), entry.getSize(),
+            times.get(remotePaths.get(i)), entry.getPermissions()));
+        }
+        preciseTimes = true;
+      }
+      clientPool.release(ftpClient);
+      return preciseTimes;
+    } catch (IOException e) {
+      clientPool.invalidate(ftpClient);
+      throw e;
+    }
+  }
+
+  //  ASCII sizes differ across line ending translation, so those files are compared by time only
+
+  private static boolean isChanged(FTPListEntry source, FTPListEntry target, boolean compareTimes, boolean ascii) {
+    if (target == null || (!ascii && source.getSize() != target.getSize())) {
+      return true;
+    }
+    return compareTimes && source.getModified() > 0 && target.getModified() > 0
+      && source.getModified() > target.getModified() + 1000;
+  }
+
+  //  Same rules as FTPClient.transferTypeFor, for decisions made before a session is borrowed
+
+  private TransferType transferTypeFor(String fileName) {
+    if (transferType != null) {
+      return transferType;
+    }
+    int dot = fileName.lastIndexOf('.');
+    String extension = dot < 0 || dot < fileName.lastIndexOf('/') ? "" : fileName.substring(dot + 1);
+    for (String asciiExtension : asciiExtensions) {
+      if (asciiExtension.equalsIgnoreCase(extension)) {
+        return TransferType.ASCII;
+      }
+    }
+    return TransferType.BINARY;
+  }
+
+  //  Creates each missing component of the remote root in order. A component counts as present only when its
+  //  parent listing shows a directory, any other MKD failure fails the sync.
+
+  private void ensureRemoteDirectory(String remoteRoot) throws IOException {
+    String parent = "/";
+    boolean created = false;
+    for (String name : remoteRoot.split("/")) {
+      if (name.isEmpty()) {
+        continue;
+      }
+      String path = childPath(parent, name);
+      if (created || !(directoryCache.isKnownDirectory(path) || listsDirectory(fetchEntries(parent), name))) {
+        FTPClient ftpClient = getFTPClient();
+        try {
+          ftpClient.makeDirectory(path);
         } catch (IOException e) {
-          e.printStackTrace();
-          System.err.println(e.getMessage());
+          clientPool.invalidate(ftpClient);
+          throw e;
         }
+        clientPool.release(ftpClient);
+        created = true;
+      }
+      parent = path;
+    }
+  }
+
+  private static boolean listsDirectory(List<FTPListEntry> entries, String name) {
+    for (FTPListEntry entry : entries) {
+      if (entry.isDirectory() && entry.getName().equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-        return null;
-      }).collect(Collectors.toList());
+  //  A failed entry may have left the shared session out of step, so it is dropped and the next entry borrows another
 
-    ExecutorService threadPool = Executors.newFixedThreadPool(filesPaths.size());
+  private void createDirectories(List<String> directories, Path localRoot, String remoteRoot, boolean upload,
+                                 SyncResult result) throws IOException {
+    if (directories.isEmpty()) {
+      return;
+    }
+    FTPClient ftpClient = null;
+    for (String directory : directories) {
+      try {
+        if (upload) {
+          if (ftpClient == null) {
+            ftpClient = getFTPClient();
+          }
+          ftpClient.makeDirectory(childPath(remoteRoot, directory));
+        } else {
+          Files.createDirectories(localRoot.resolve(directory));
+        }
+        result.directoryCreated();
+      } catch (IOException e) {
+        clientPool.invalidate(ftpClient);
+        ftpClient = null;
+        System.err.println(e.getMessage());
+        result.entryFailed();
+      }
+    }
+    clientPool.release(ftpClient);
+  }
+
+  private void transferFiles(List<String> files, Map<String, FTPListEntry> source, Path localRoot, String remoteRoot,
+                             boolean upload, SyncResult result) throws IOException {
+    List<CompletableFuture<Void>> results = new LinkedList<>();
     try {
-      threadPool.invokeAll(tasks);
-      threadPool.shutdown();
+      for (String relative : files) {
+        String remotePath = childPath(remoteRoot, relative);
+        String remoteDir = remotePath.substring(0, remotePath.lastIndexOf('/') + 1);
+        File localFile = localRoot.resolve(relative).toFile();
+        FTPListEntry entry = source.get(relative);
+        results.add(scheduler.submit(host, entry.getSize(), () -> {
+          FTPClient ftpClient = null;
+          try {
+            ftpClient = getFTPClient();
+            ftpClient.setWorkingDir(remoteDir);
+            if (upload) {
+              uploadFile(ftpClient, localFile);
+            } else {
+              downloadFile(ftpClient, entry.getName(), localFile, entry.getSize());
+              if (entry.getModified() > 0) {
+                localFile.setLastModified(entry.getModified());
+              }
+            }
+            clientPool.release(ftpClient);
+            result.fileTransferred(localFile.length());
+            System.out.println((upload ? "Uploaded: " : "Downloaded: ") + remotePath);
+          } catch (IOException e) {
+            clientPool.invalidate(ftpClient);
+            System.err.println(e.getMessage());
+            result.entryFailed();
+          }
+          return null;
+        }));
+      }
+      awaitAll(results);
     } catch (InterruptedException e) {
-      System.err.println(e.getMessage());
+      Thread.currentThread().interrupt();
+      throw new IOException(e.getMessage());
     }
+  }
 
-    System.out.println(String.format(
-      "Total download size: %s\nTotal download time: %.2f s"
-      , getTotalFileSize(totalFilesSize), totalDuration.doubleValue()));
+  private void deleteEntries(List<String> extras, Map<String, FTPListEntry> target, Path localRoot, String remoteRoot,
+                             boolean upload, SyncResult result) throws IOException {
+    if (extras.isEmpty()) {
+      return;
+    }
+    FTPClient ftpClient = null;
+    for (String relative : extras) {
+      try {
+        if (!upload) {
+          Files.delete(localRoot.resolve(relative));
+        } else {
+          if (ftpClient == null) {
+            ftpClient = getFTPClient();
+          }
+          if (target.get(relative).isDirectory()) {
+            ftpClient.removeDirectory(childPath(remoteRoot, relative));
+          } else {
+            ftpClient.deleteFile(childPath(remoteRoot, relative));
+          }
+        }
+        result.entryDeleted();
+        System.out.println("Deleted: " + relative);
+      } catch (IOException e) {
+        clientPool.invalidate(ftpClient);
+        ftpClient = null;
+        System.err.println(e.getMessage());
+        result.entryFailed();
+      }
+    }
+    clientPool.release(ftpClient);
   }
 
-  private FTPClient getFTPClient() {
-    FTPClient ftpc = downloadDir == null ? new FTPClient() : new FTPClient(downloadDir);
+  private static String childPath(String root, String relative) {
+    if (relative.isEmpty()) {
+      return root;
+    }
+    return root.endsWith("/") ? root + relative : root + "/" + relative;
+  }
+
+  private static String relativePath(Path root, Path path) {
+    return root.relativize(path).toString().replace(File.separatorChar, '/');
+  }
+
+  private void printListing(String dir, String kind) {
+    String path = DirectoryCache.resolve(currentWorkingDir, dir);
     try {
-      ftpc.connect(host, port, user, password);
-      ftpc.setWorkingDir(currentWorkingDir);
+      List<String> files = directoryCache.get(path, kind);
+      if (files == null) {
+        FTPClient ftpClient = null;
+        try {
+          ftpClient = getFTPClient();
+          files = kind.equals(DirectoryCache.NLST) ?
+            ftpClient.getListEntriesNLST(path) : ftpClient.getListEntries(path);
+          clientPool.release(ftpClient);
+        } catch (IOException e) {
+          clientPool.invalidate(ftpClient);
+          throw e;
+        }
+        directoryCache.put(path, kind, files);
+      }
+      for (String file : files) {
+        System.out.println(file);
+      }
     } catch (IOException e) {
       System.err.println(e.getMessage());
     }
+  }
+
+  private static <T> T await(CompletableFuture<T> result) throws IOException {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  private static void awaitAll(List<? extends CompletableFuture<?>> results) throws InterruptedException {
+    for (CompletableFuture<?> result : results) {
+      try {
+        result.get();
+      } catch (ExecutionException e) {
+        System.err.println(e.getCause().getMessage());
+      }
+    }
+  }
+
+  private FTPClient getFTPClient() throws IOException {
+    FTPClient ftpc = clientPool.borrow(host, port, user, password);
+    try {
+      if (downloadDir != null) {
+        ftpc.setDownloadPath(downloadDir);
+      }
+      ftpc.setDirectoryCache(directoryCache);
+      ftpc.setCompressionPolicy(compressionPolicy);
+      ftpc.setTransferType(transferType);
+      ftpc.setAsciiExtensions(asciiExtensions);
+      ftpc.getDataTransfer().setRateLimiter(rateLimiter);
+      ftpc.getDataTransfer().setTransferRateLimiter(transferRateLimit.newStream());
+      ftpc.getDataTransfer().setChunkSize(chunkSize);
+      ftpc.setDataOptions(dataOptions);
+      ftpc.setDataConnectionMode(dataConnectionMode);
+      if (!currentWorkingDir.equals(ftpc.getWorkingDir())) {
+        ftpc.setWorkingDir(currentWorkingDir);
+      }
+    } catch (IOException e) {
+      clientPool.invalidate(ftpc);
+      throw e;
+    }
     return ftpc;
   }
 
@@ -0,0 +1,52 @@
+package org.ftpc;
+
+public class FTPListEntry {
+  public enum Type {FILE, DIRECTORY, LINK, OTHER}
+
+  private final String name;
+  private final Type type;
+  private final long size;
+  private final long modified;
+  private final String permissions;
+
+  public FTPListEntry(String name, Type type, long size, long modified, String permissions) {
+    this.name = name;
+    this.type = type;
+    this.size = size;
+    this.modified = modified;
+    this.permissions = permissions;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public boolean isDirectory() {
+    return type == Type.DIRECTORY;
+  }
+
+  public boolean isFile() {
+    return type == Type.FILE;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getModified() {
+    return modified;
+  }
+
+  public String getPermissions() {
+    return permissions;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s %d %d %s", type, permissions, size, modified, name);
+  }
+}
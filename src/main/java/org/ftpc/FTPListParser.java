@@ -0,0 +1,276 @@
+package org.ftpc;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+public class FTPListParser {
+  private static final String[] MONTHS =
+    {"jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"};
+  private static final int MAX_TOKENS = 12;
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+  //  Parsers return null for lines that are not entries ("total 12", "." and ".." facts)
+
+  public static FTPListEntry parseMlsd(String line) {
+    int nameStart = line.indexOf(' ');
+    if (nameStart < 0) {
+      return null;
+    }
+    FTPListEntry.Type type = FTPListEntry.Type.OTHER;
+    long size = -1;
+    long modified = -1;
+    String permissions = null;
+
+    int factStart = 0;
+    while (factStart < nameStart) {
+      int factEnd = line.indexOf(';', factStart);
+      if (factEnd < 0 || factEnd > nameStart) {
+        factEnd = nameStart;
+      }
+      int equals = line.indexOf('=', factStart);
+      if (equals > factStart && equals < factEnd) {
+        String fact = line.substring(factStart, equals);
+        String value = line.substring(equals + 1, factEnd);
+        if (fact.equalsIgnoreCase("type")) {
+          if (value.equalsIgnoreCase("cdir") || value.equalsIgnoreCase("pdir")) {
+            return null;
+          }
+          type = mlsdType(value);
+        } else if (fact.equalsIgnoreCase("size") || fact.equalsIgnoreCase("sizd")) {
+          size = parseLong(value);
+        } else if (fact.equalsIgnoreCase("modify")) {
+          modified = parseTimeVal(value);
+        } else if (fact.equalsIgnoreCase("unix.mode")) {
+          permissions = value;
+        } else if (fact.equalsIgnoreCase("perm") && permissions == null) {
+          permissions = value;
+        }
+      }
+      factStart = factEnd + 1;
+    }
+    return new FTPListEntry(line.substring(nameStart + 1), type, size, modified, permissions);
+  }
+
+  public static FTPListEntry parseList(String line) {
+    if (line.length() < 10) {
+      return null;
+    }
+    char first = line.charAt(0);
+    if (Character.isDigit(first)) {
+      return parseDos(line);
+    }
+    if ("-dlbcps".indexOf(first) >= 0) {
+      return parseUnix(line);
+    }
+    return null;
+  }
+
+  //  MDTM and MLSD modify facts are YYYYMMDDHHMMSS[.sss] in UTC
+
+  public static long parseTimeVal(String value) {
+    if (value.length() < 14) {
+      return -1;
+    }
+    for (int i = 0; i < 14; i++) {
+      if (!Character.isDigit(value.charAt(i))) {
+        return -1;
+      }
+    }
+    try {
+      LocalDateTime time = LocalDateTime.of(digits(value, 0, 4), digits(value, 4, 2), digits(value, 6, 2),
+        digits(value, 8, 2), digits(value, 10, 2), digits(value, 12, 2));
+      long millis = time.toInstant(ZoneOffset.UTC).toEpochMilli();
+      if (value.length() > 15 && value.charAt(14) == '.') {
+        int end = Math.min(value.length(), 18);
+        String fraction = (value.substring(15, end) + "00").substring(0, 3);
+        millis += parseLong(fraction);
+      }
+      return millis;
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  //  Helper functions for listing parser
+
+  private static FTPListEntry parseUnix(String line) {
+    int[] starts = new int[MAX_TOKENS];
+    int[] ends = new int[MAX_TOKENS];
+    int tokens = tokenize(line, starts, ends);
+
+    int month = -1;
+    int monthToken = -1;
+    for (int token = 3; token + 2 < tokens && monthToken < 0; token++) {
+      month = monthIndex(line, starts[token], ends[token]);
+      if (month >= 0 && isNumber(line, starts[token - 1], ends[token - 1])
+        && isNumber(line, starts[token + 1], ends[token + 1])) {
+        monthToken = token;
+      }
+    }
+    if (monthToken < 0 || ends[monthToken + 2] + 1 >= line.length()) {
+      return null;
+    }
+
+    FTPListEntry.Type type;
+    switch (line.charAt(0)) {
+      case '-':
+        type = FTPListEntry.Type.FILE;
+        break;
+      case 'd':
+        type = FTPListEntry.Type.DIRECTORY;
+        break;
+      case 'l':
+        type = FTPListEntry.Type.LINK;
+        break;
+      default:
+        type = FTPListEntry.Type.OTHER;
+    }
+
+    String name = line.substring(ends[monthToken + 2] + 1);
+    if (type == FTPListEntry.Type.LINK) {
+      int arrow = name.indexOf(" -> ");
+      if (arrow > 0) {
+        name = name.substring(0, arrow);
+      }
+    }
+    long size = parseLong(line.substring(starts[monthToken - 1], ends[monthToken - 1]));
+    int day = (int) parseLong(line.substring(starts[monthToken + 1], ends[monthToken + 1]));
+    long modified = unixTime(line.substring(starts[monthToken + 2], ends[monthToken + 2]), month + 1, day);
+    return new FTPListEntry(name, type, size, modified, line.substring(0, ends[0]));
+  }
+
+  private static FTPListEntry parseDos(String line) {
+    int[] starts = new int[MAX_TOKENS];
+    int[] ends = new int[MAX_TOKENS];
+    int tokens = tokenize(line, starts, ends);
+    if (tokens < 4) {
+      return null;
+    }
+
+    String date = line.substring(starts[0], ends[0]);
+    String time = line.substring(starts[1], ends[1]);
+    String sizeOrDir = line.substring(starts[2], ends[2]);
+    boolean directory = sizeOrDir.equalsIgnoreCase("<DIR>");
+    long size = directory ? -1 : parseLong(sizeOrDir);
+    if (!directory && size < 0) {
+      return null;
+    }
+
+    long modified = -1;
+    String[] dateParts = date.split("-");
+    int colon = time.indexOf(':');
+    if (dateParts.length == 3 && colon > 0 && time.length() >= colon + 3) {
+      try {
+        int year = Integer.parseInt(dateParts[2]);
+        if (year < 100) {
+          year += year < 70 ? 2000 : 1900;
+        }
+        int hour = Integer.parseInt(time.substring(0, colon));
+        int minute = Integer.parseInt(time.substring(colon + 1, colon + 3));
+        String suffix = time.substring(colon + 3);
+        if (suffix.equalsIgnoreCase("PM") && hour < 12) {
+          hour += 12;
+        } else if (suffix.equalsIgnoreCase("AM") && hour == 12) {
+          hour = 0;
+        }
+        modified = LocalDateTime.of(year, Integer.parseInt(dateParts[0]), Integer.parseInt(dateParts[1]),
+          hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+      } catch (RuntimeException ignored) {
+      }
+    }
+    return new FTPListEntry(line.substring(starts[3]), directory ? FTPListEntry.Type.DIRECTORY : FTPListEntry.Type.FILE,
+      size, modified, null);
+  }
+
+  //  Unix listings show HH:mm for the last six months and a year for older entries
+
+  private static long unixTime(String yearOrTime, int month, int day) {
+    try {
+      int colon = yearOrTime.indexOf(':');
+      if (colon < 0) {
+        return LocalDateTime.of(Integer.parseInt(yearOrTime), month, day, 0, 0)
+          .toInstant(ZoneOffset.UTC).toEpochMilli();
+      }
+      int hour = Integer.parseInt(yearOrTime.substring(0, colon));
+      int minute = Integer.parseInt(yearOrTime.substring(colon + 1));
+      long now = System.currentTimeMillis();
+      int year = LocalDateTime.now(ZoneOffset.UTC).getYear();
+      long modified = LocalDateTime.of(year, month, day, hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+      if (modified > now + DAY_MILLIS) {
+        modified = LocalDateTime.of(year - 1, month, day, hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+      }
+      return modified;
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  private static int tokenize(String line, int[] starts, int[] ends) {
+    int tokens = 0;
+    int position = 0;
+    int length = line.length();
+    while (tokens < starts.length) {
+      while (position < length && line.charAt(position) == ' ') {
+        position++;
+      }
+      if (position == length) {
+        break;
+      }
+      starts[tokens] = position;
+      while (position < length && line.charAt(position) != ' ') {
+        position++;
+      }
+      ends[tokens++] = position;
+    }
+    return tokens;
+  }
+
+  private static int monthIndex(String line, int start, int end) {
+    if (end - start != 3) {
+      return -1;
+    }
+    for (int month = 0; month < MONTHS.length; month++) {
+      if (line.regionMatches(true, start, MONTHS[month], 0, 3)) {
+        return month;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isNumber(String line, int start, int end) {
+    if (start == end) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (!Character.isDigit(line.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static FTPListEntry.Type mlsdType(String value) {
+    if (value.equalsIgnoreCase("file")) {
+      return FTPListEntry.Type.FILE;
+    }
+    if (value.equalsIgnoreCase("dir")) {
+      return FTPListEntry.Type.DIRECTORY;
+    }
+    if (value.toLowerCase().contains("link")) {
+      return FTPListEntry.Type.LINK;
+    }
+    return FTPListEntry.Type.OTHER;
+  }
+
+  private static int digits(String value, int start, int count) {
+    return Integer.parseInt(value.substring(start, start + count));
+  }
+
+  private static long parseLong(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.ftpc;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+public class FTPReply {
+  private final int code;
+  private final byte[] content;
+  private final Charset charset;
+  private String text;
+
+  FTPReply(int code, byte[] content, Charset charset) {
+    this.code = code;
+    this.content = content;
+    this.charset = charset;
+  }
+
+  public int getCode() {
+    return code;
+  }
+
+  public boolean isPreliminary() {
+    return code >= 100 && code < 200;
+  }
+
+  public boolean isPositiveCompletion() {
+    return code >= 200 && code < 300;
+  }
+
+  public boolean isPositiveIntermediate() {
+    return code >= 300 && code < 400;
+  }
+
+  public boolean isNegative() {
+    return code >= 400;
+  }
+
+  public boolean isMultiLine() {
+    return content.length > 3 && content[3] == '-';
+  }
+
+  public String getText() {
+    if (text == null) {
+      text = new String(content, charset);
+    }
+    return text;
+  }
+
+  public String getMessage() {
+    String fullText = getText();
+    return fullText.length() > 4 ? fullText.substring(4) : "";
+  }
+
+  public List<String> getLines() {
+    return Arrays.asList(getText().split("\n"));
+  }
+
+  @Override
+  public String toString() {
+    return getText();
+  }
+}
@@ -0,0 +1,105 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+public class FileDigest {
+  private static final int PRIME_BUFFER_SIZE = 64 * 1024;
+
+  private final HashAlgorithm algorithm;
+  private final MessageDigest digest;
+  private final CRC32 crc;
+
+  public FileDigest(HashAlgorithm algorithm) {
+    this.algorithm = algorithm;
+    if (algorithm == HashAlgorithm.CRC32) {
+      digest = null;
+      crc = new CRC32();
+    } else {
+      try {
+        digest = MessageDigest.getInstance(algorithm.getHashName());
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+      crc = null;
+    }
+  }
+
+  public HashAlgorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  //  Updates from the buffer's position to its limit without consuming it
+
+  public void update(ByteBuffer buffer) {
+    ByteBuffer view = buffer.duplicate();
+    if (crc != null) {
+      crc.update(view);
+    } else {
+      digest.update(view);
+    }
+  }
+
+  public void update(byte[] bytes, int offset, int length) {
+    if (crc != null) {
+      crc.update(bytes, offset, length);
+    } else {
+      digest.update(bytes, offset, length);
+    }
+  }
+
+  //  Resumed downloads only read back the prefix that was already on disk
+
+  public void update(FileChannel channel, long position, long count) throws IOException {
+    DirectBufferPool bufferPool = DirectBufferPool.shared();
+    ByteBuffer buffer = bufferPool.acquire(PRIME_BUFFER_SIZE);
+    try {
+      long read = 0;
+      while (read < count) {
+        ((Buffer) buffer).clear();
+        if (count - read < buffer.capacity()) {
+          ((Buffer) buffer).limit((int) (count - read));
+        }
+        int bytes = channel.read(buffer, position + read);
+        if (bytes < 0) {
+          throw new IOException(String.format("Error: file ended at %d of %d bytes", read, count));
+        }
+        ((Buffer) buffer).flip();
+        update(buffer);
+        read += bytes;
+      }
+    } finally {
+      bufferPool.release(buffer);
+    }
+  }
+
+
+  public String getValue() {
+    if (crc != null) {
+      return String.format("%08x", crc.getValue());
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte value : digest.digest()) {
+      hex.append(String.format("%02x", value));
+    }
+    return hex.toString();
+  }
+
+  //  Servers differ in case and in leading zeros of CRC values
+
+  public static boolean matches(HashAlgorithm algorithm, String expected, String actual) {
+    if (algorithm == HashAlgorithm.CRC32) {
+      try {
+        return Long.parseLong(expected, 16) == Long.parseLong(actual, 16);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+    return expected.equalsIgnoreCase(actual);
+  }
+}
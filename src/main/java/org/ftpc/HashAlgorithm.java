@@ -0,0 +1,26 @@
+package org.ftpc;
+
+public enum HashAlgorithm {
+  SHA_256("SHA-256", "XSHA256"),
+  SHA_1("SHA-1", "XSHA1"),
+  MD5("MD5", "XMD5"),
+  CRC32("CRC32", "XCRC");
+
+  private final String hashName;
+  private final String command;
+
+  HashAlgorithm(String hashName, String command) {
+    this.hashName = hashName;
+    this.command = command;
+  }
+
+  //  Name used by HASH and OPTS HASH, which is also the JCA digest name except for CRC32
+
+  public String getHashName() {
+    return hashName;
+  }
+
+  public String getCommand() {
+    return command;
+  }
+}
@@ -0,0 +1,67 @@
+package org.ftpc;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+  private static final int BUCKETS = 40;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    long micros = Math.max(1, nanos / 1000);
+    int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    buckets[bucket].increment();
+    count.increment();
+    totalMicros.add(micros);
+    maxMicros.accumulate(micros);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public double getMeanMillis() {
+    long samples = count.sum();
+    return samples == 0 ? 0 : totalMicros.sum() / 1000.0 / samples;
+  }
+
+  public double getMaxMillis() {
+    return maxMicros.get() / 1000.0;
+  }
+
+  //  Upper bound of the power of two bucket holding the percentile
+  public double getPercentileMillis(double percentile) {
+    long samples = count.sum();
+    if (samples == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(samples * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets[i].sum();
+      if (seen >= rank) {
+        return Math.min((2L << i) / 1000.0, getMaxMillis());
+      }
+    }
+    return getMaxMillis();
+  }
+
+  public void reset() {
+    for (LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    count.reset();
+    totalMicros.reset();
+    maxMicros.reset();
+  }
+}
@@ -0,0 +1,40 @@
+package org.ftpc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+public class LogMetricsReporter implements MetricsReporter {
+  private static final Logger LOG = LoggerFactory.getLogger(LogMetricsReporter.class);
+
+  @Override
+  public void report(TransferMetrics metrics) {
+    Map<String, Long> bytes = metrics.getBytesTransferred();
+    Map<String, Double> throughput = metrics.getThroughputBytesPerSecond();
+    Map<String, Integer> inFlight = metrics.getTransfersInFlight();
+    for (Map.Entry<String, Long> entry : bytes.entrySet()) {
+      LOG.info("transfer {} bytes={} throughput={} B/s inFlight={}", entry.getKey(), entry.getValue(),
+        String.format("%.0f", throughput.getOrDefault(entry.getKey(), 0.0)), inFlight.getOrDefault(entry.getKey(), 0));
+    }
+
+    Map<String, Long> commands = metrics.getCommandCount();
+    Map<String, Double> mean = metrics.getCommandLatencyMeanMillis();
+    Map<String, Double> p99 = metrics.getCommandLatencyP99Millis();
+    for (Map.Entry<String, Long> entry : commands.entrySet()) {
+      LOG.info("command {} count={} mean={} ms p99={} ms", entry.getKey(), entry.getValue(),
+        String.format("%.2f", mean.get(entry.getKey())), String.format("%.2f", p99.get(entry.getKey())));
+    }
+
+    for (Map.Entry<String, Double> entry : metrics.getCompressionRatio().entrySet()) {
+      LOG.info("compression {} ratio={}", entry.getKey(), String.format("%.2f", entry.getValue()));
+    }
+
+    LOG.info("buffers hitRate={} outstanding={}", String.format("%.2f", metrics.getBufferPoolHitRate()),
+      metrics.getBuffersOutstanding());
+
+    for (Map.Entry<String, Long> entry : metrics.getFailuresByReplyCode().entrySet()) {
+      LOG.warn("failure {} count={}", entry.getKey(), entry.getValue());
+    }
+  }
+}
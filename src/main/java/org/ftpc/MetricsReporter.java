@@ -0,0 +1,5 @@
+package org.ftpc;
+
+public interface MetricsReporter {
+  void report(TransferMetrics metrics);
+}
@@ -0,0 +1,80 @@
+package org.ftpc;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiter {
+  public static final long UNLIMITED = 0;
+  public static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final RateLimiter rateSource;
+  private volatile long bytesPerSecond;
+  private long nextFree;
+
+  public RateLimiter() {
+    this(UNLIMITED);
+  }
+
+  public RateLimiter(long bytesPerSecond) {
+    this(null);
+    setRate(bytesPerSecond);
+  }
+
+  private RateLimiter(RateLimiter rateSource) {
+    this.rateSource = rateSource;
+    nextFree = System.nanoTime();
+  }
+
+  //  A limiter with its own budget that follows this limiter's rate, used to cap each transfer separately
+
+  public RateLimiter newStream() {
+    return new RateLimiter(this);
+  }
+
+  public long getRate() {
+    return rateSource == null ? bytesPerSecond : rateSource.getRate();
+  }
+
+  //  Takes effect for the next chunk of every stream, including transfers already running
+
+  public void setRate(long bytesPerSecond) {
+    if (rateSource != null) {
+      throw new IllegalStateException("Stream limiters follow the rate of the limiter they were created from");
+    }
+    if (bytesPerSecond < 0) {
+      throw new IllegalArgumentException("Rate must not be negative: " + bytesPerSecond);
+    }
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  public boolean isLimited() {
+    return getRate() > 0;
+  }
+
+  //  Streams pay for chunks they already moved. Reservations are handed out in call order, so concurrent
+  //  streams moving equal chunks get equal shares, and up to BURST_NANOS of idle time can be spent at once.
+
+  public void acquire(long bytes) throws InterruptedIOException {
+    long rate = getRate();
+    if (rate <= 0) {
+      return;
+    }
+    long wait;
+    synchronized (this) {
+      long now = System.nanoTime();
+      if (nextFree - (now - BURST_NANOS) < 0) {
+        nextFree = now - BURST_NANOS;
+      }
+      nextFree += (long) (bytes * 1e9 / rate);
+      wait = nextFree - now;
+    }
+    if (wait > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while throttled");
+      }
+    }
+  }
+}
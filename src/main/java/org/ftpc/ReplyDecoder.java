@@ -0,0 +1,168 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class ReplyDecoder {
+  private static final int BUFFER_SIZE = 4096;
+
+  private final InputStream input;
+  private final Charset charset;
+  private byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private byte[] reply = new byte[256];
+  private int replyLength;
+
+  public ReplyDecoder(InputStream input, Charset charset) {
+    this.input = input;
+    this.charset = charset;
+  }
+
+  //  Decoder for non-blocking channels: feed() whatever was read, poll() hands out complete replies
+
+  public ReplyDecoder(Charset charset) {
+    this(null, charset);
+  }
+
+  public void feed(ByteBuffer input) {
+    if (position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      limit -= position;
+      position = 0;
+    }
+    if (limit + input.remaining() > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, limit + input.remaining()));
+    }
+    int length = input.remaining();
+    input.get(buffer, limit, length);
+    limit += length;
+  }
+
+  //  Returns null until the buffered bytes hold a whole reply, so next() below never has to read
+
+  public FTPReply poll() throws IOException {
+    int lineStart = position;
+    int code = -1;
+    while (true) {
+      int end = lineStart;
+      while (end < limit && buffer[end] != '\n') {
+        end++;
+      }
+      if (end == limit) {
+        return null;
+      }
+      int lineLength = end > lineStart && buffer[end - 1] == '\r' ? end - 1 - lineStart : end - lineStart;
+      int lineCode = parseCode(buffer, lineStart, lineLength);
+      if (code < 0) {
+        code = lineCode;
+        if (code < 0 || lineLength == 3 || buffer[lineStart + 3] == ' ') {
+          break;
+        }
+      } else if (lineCode == code && (lineLength == 3 || buffer[lineStart + 3] == ' ')) {
+        break;
+      }
+      lineStart = end + 1;
+    }
+    return next();
+  }
+
+  //  Returns null on a clean end of stream, continuation lines are kept and joined with '\n'
+
+  public FTPReply next() throws IOException {
+    replyLength = 0;
+    if (!readLine()) {
+      return null;
+    }
+    int code = parseCode(reply, 0, replyLength);
+    if (code < 0) {
+      throw new IOException("Malformed FTP reply: " + new String(reply, 0, replyLength, charset));
+    }
+    if (replyLength > 3 && reply[3] == '-') {
+      while (true) {
+        append((byte) '\n');
+        int lineStart = replyLength;
+        if (!readLine()) {
+          throw new IOException("Connection closed in multi-line reply: " + new String(reply, 0, replyLength, charset));
+        }
+        int lineLength = replyLength - lineStart;
+        if (parseCode(reply, lineStart, lineLength) == code && (lineLength == 3 || reply[lineStart + 3] == ' ')) {
+          break;
+        }
+      }
+    }
+    return new FTPReply(code, Arrays.copyOf(reply, replyLength), charset);
+  }
+
+  //  Helper functions for reply decoder
+
+  private boolean readLine() throws IOException {
+    int lineStart = replyLength;
+    while (true) {
+      if (position == limit && !fill()) {
+        return replyLength > lineStart;
+      }
+      int end = position;
+      while (end < limit && buffer[end] != '\n') {
+        end++;
+      }
+      append(buffer, position, end - position);
+      if (end < limit) {
+        position = end + 1;
+        if (replyLength > lineStart && reply[replyLength - 1] == '\r') {
+          replyLength--;
+        }
+        return true;
+      }
+      position = limit;
+    }
+  }
+
+  private boolean fill() throws IOException {
+    if (input == null) {
+      return false;
+    }
+    int read = input.read(buffer, 0, buffer.length);
+    if (read <= 0) {
+      return false;
+    }
+    position = 0;
+    limit = read;
+    return true;
+  }
+
+  private static int parseCode(byte[] line, int start, int length) {
+    if (length < 3 || (length > 3 && line[start + 3] != ' ' && line[start + 3] != '-')) {
+      return -1;
+    }
+    int code = 0;
+    for (int i = start; i < start + 3; i++) {
+      int digit = line[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      code = code * 10 + digit;
+    }
+    return code;
+  }
+
+  private void append(byte value) {
+    ensureCapacity(1);
+    reply[replyLength++] = value;
+  }
+
+  private void append(byte[] source, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(source, offset, reply, replyLength, length);
+    replyLength += length;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (replyLength + extra > reply.length) {
+      reply = Arrays.copyOf(reply, Math.max(reply.length * 2, replyLength + extra));
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package org.ftpc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+//  Options for one kind of connection, FTPClient keeps a control and a data profile. Changes apply to sockets
+//  opened afterwards. Timeouts are in milliseconds with 0 waiting forever, buffer sizes of 0 keep the system default.
+
+public class SocketOptions {
+  public static final int DEFAULT_CONNECT_TIMEOUT = 30 * 1000;
+  public static final int DEFAULT_READ_TIMEOUT = 5 * 60 * 1000;
+  public static final int DEFAULT_WRITE_TIMEOUT = 5 * 60 * 1000;
+
+  private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+  private int readTimeout = DEFAULT_READ_TIMEOUT;
+  private int writeTimeout = DEFAULT_WRITE_TIMEOUT;
+  private int sendBufferSize;
+  private int receiveBufferSize;
+  private boolean tcpNoDelay;
+  private boolean keepAlive;
+
+  //  Commands are small request and reply exchanges that Nagle would hold back, keepalive stops NATs and
+  //  firewalls from dropping the control connection while it idles through a long transfer
+
+  public static SocketOptions control() {
+    SocketOptions options = new SocketOptions();
+    options.tcpNoDelay = true;
+    options.keepAlive = true;
+    return options;
+  }
+
+  //  Default buffers leave receive window auto-tuning on, on long fat links set them to bandwidth x RTT instead
+
+  public static SocketOptions data() {
+    return new SocketOptions();
+  }
+
+  public SocketOptions copy() {
+    SocketOptions options = new SocketOptions();
+    options.connectTimeout = connectTimeout;
+    options.readTimeout = readTimeout;
+    options.writeTimeout = writeTimeout;
+    options.sendBufferSize = sendBufferSize;
+    options.receiveBufferSize = receiveBufferSize;
+    options.tcpNoDelay = tcpNoDelay;
+    options.keepAlive = keepAlive;
+    return options;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = checkNotNegative("Connect timeout", connectTimeout);
+  }
+
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = checkNotNegative("Read timeout", readTimeout);
+  }
+
+  public int getWriteTimeout() {
+    return writeTimeout;
+  }
+
+  public void setWriteTimeout(int writeTimeout) {
+    this.writeTimeout = checkNotNegative("Write timeout", writeTimeout);
+  }
+
+  public int getSendBufferSize() {
+    return sendBufferSize;
+  }
+
+  public void setSendBufferSize(int sendBufferSize) {
+    this.sendBufferSize = checkNotNegative("Send buffer size", sendBufferSize);
+  }
+
+  public int getReceiveBufferSize() {
+    return receiveBufferSize;
+  }
+
+  public void setReceiveBufferSize(int receiveBufferSize) {
+    this.receiveBufferSize = checkNotNegative("Receive buffer size", receiveBufferSize);
+  }
+
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  //  Comma separated key=value pairs, e.g. "rcvbuf=4194304,sndbuf=4194304,readtimeout=60".
+  //  Timeouts are given in seconds here.
+
+  public SocketOptions configure(String spec) {
+    for (String setting : spec.split(",")) {
+      setting = setting.trim();
+      if (setting.isEmpty()) {
+        continue;
+      }
+      int equals = setting.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Invalid socket option: " + setting);
+      }
+      String key = setting.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+      String value = setting.substring(equals + 1).trim();
+      switch (key) {
+        case "connecttimeout":
+          setConnectTimeout(Math.multiplyExact(Integer.parseInt(value), 1000));
+          break;
+        case "readtimeout":
+          setReadTimeout(Math.multiplyExact(Integer.parseInt(value), 1000));
+          break;
+        case "writetimeout":
+          setWriteTimeout(Math.multiplyExact(Integer.parseInt(value), 1000));
+          break;
+        case "sndbuf":
+          setSendBufferSize(Integer.parseInt(value));
+          break;
+        case "rcvbuf":
+          setReceiveBufferSize(Integer.parseInt(value));
+          break;
+        case "nodelay":
+          setTcpNoDelay(parseBoolean(value));
+          break;
+        case "keepalive":
+          setKeepAlive(parseBoolean(value));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown socket option: " + key);
+      }
+    }
+    return this;
+  }
+
+  //  Buffer sizes have to be set before connecting, they decide the TCP window scale
+
+  public void apply(Socket socket) throws SocketException {
+    socket.setTcpNoDelay(tcpNoDelay);
+    socket.setKeepAlive(keepAlive);
+    socket.setSoTimeout(readTimeout);
+    if (sendBufferSize > 0) {
+      socket.setSendBufferSize(sendBufferSize);
+    }
+    if (receiveBufferSize > 0) {
+      socket.setReceiveBufferSize(receiveBufferSize);
+    }
+  }
+
+  public Socket connect(InetSocketAddress address) throws IOException {
+    Socket socket = new Socket();
+    try {
+      apply(socket);
+      socket.connect(address, connectTimeout);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    return socket;
+  }
+
+  public SocketChannel open(InetSocketAddress address) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    try {
+      apply(channel.socket());
+      channel.socket().connect(address, connectTimeout);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  //  Blocking channel reads ignore SO_TIMEOUT. With a read timeout the returned channel reads in non-blocking
+  //  mode and waits on a selector between reads, closing it closes the socket channel.
+
+  public ReadableByteChannel readable(SocketChannel channel) throws IOException {
+    if (readTimeout == 0) {
+      return channel;
+    }
+    return timed(channel, SelectionKey.OP_READ, readTimeout);
+  }
+
+  //  Blocking writes ignore SO_TIMEOUT too and a stalled peer holds them until TCP gives up, so with a write
+  //  timeout the returned channel writes in non-blocking mode the same way
+
+  public WritableByteChannel writable(SocketChannel channel) throws IOException {
+    if (writeTimeout == 0) {
+      return channel;
+    }
+    return timed(channel, SelectionKey.OP_WRITE, writeTimeout);
+  }
+
+  //  Helper functions for socket options
+
+  private static int checkNotNegative(String name, int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException(name + " must not be negative: " + value);
+    }
+    return value;
+  }
+
+  private static TimedChannel timed(SocketChannel channel, int operation, int timeout) throws IOException {
+    try {
+      return new TimedChannel(channel, operation, timeout);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static boolean parseBoolean(String value) {
+    if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+      throw new IllegalArgumentException("Expected true or false: " + value);
+    }
+    return Boolean.parseBoolean(value);
+  }
+
+  //  Waits for the one operation it was opened for, reads or writes. Package-private so DataTransfer can still
+  //  send file regions with transferTo straight to the socket.
+
+  static final class TimedChannel implements ByteChannel {
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final String operation;
+    private final int timeout;
+
+    TimedChannel(SocketChannel channel, int operation, int timeout) throws IOException {
+      this.channel = channel;
+      this.operation = operation == SelectionKey.OP_READ ? "read" : "write";
+      this.timeout = timeout;
+      selector = Selector.open();
+      try {
+        channel.configureBlocking(false);
+        channel.register(selector, operation);
+      } catch (IOException e) {
+        selector.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int read = channel.read(dst);
+      long deadline = 0;
+      while (read == 0 && dst.hasRemaining()) {
+        deadline = await(deadline);
+        read = channel.read(dst);
+      }
+      return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int written = channel.write(src);
+      long deadline = 0;
+      while (written == 0 && src.hasRemaining()) {
+        deadline = await(deadline);
+        written = channel.write(src);
+      }
+      return written;
+    }
+
+    long transferFrom(FileChannel source, long position, long count) throws IOException {
+      long sent = source.transferTo(position, count, channel);
+      long deadline = 0;
+      while (sent == 0 && count > 0 && position < source.size()) {
+        deadline = await(deadline);
+        sent = source.transferTo(position, count, channel);
+      }
+      return sent;
+    }
+
+    private long await(long deadline) throws IOException {
+      long now = System.nanoTime();
+      if (deadline == 0) {
+        deadline = now + TimeUnit.MILLISECONDS.toNanos(timeout);
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        close();
+        throw new ClosedByInterruptException();
+      }
+      if (now - deadline >= 0) {
+        throw new SocketTimeoutException("Data connection " + operation + " timed out after " + timeout + " ms");
+      }
+      selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now)));
+      selector.selectedKeys().clear();
+      return deadline;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        selector.close();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+}
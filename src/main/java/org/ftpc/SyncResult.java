@@ -0,0 +1,64 @@
+package org.ftpc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SyncResult {
+  private final AtomicInteger transferred = new AtomicInteger();
+  private final AtomicLong transferredBytes = new AtomicLong();
+  private final AtomicInteger unchanged = new AtomicInteger();
+  private final AtomicInteger createdDirectories = new AtomicInteger();
+  private final AtomicInteger deleted = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+
+  void fileTransferred(long bytes) {
+    transferred.incrementAndGet();
+    transferredBytes.addAndGet(bytes);
+  }
+
+  void fileUnchanged() {
+    unchanged.incrementAndGet();
+  }
+
+  void directoryCreated() {
+    createdDirectories.incrementAndGet();
+  }
+
+  void entryDeleted() {
+    deleted.incrementAndGet();
+  }
+
+  void entryFailed() {
+    failed.incrementAndGet();
+  }
+
+  public int getTransferred() {
+    return transferred.get();
+  }
+
+  public long getTransferredBytes() {
+    return transferredBytes.get();
+  }
+
+  public int getUnchanged() {
+    return unchanged.get();
+  }
+
+  public int getCreatedDirectories() {
+    return createdDirectories.get();
+  }
+
+  public int getDeleted() {
+    return deleted.get();
+  }
+
+  public int getFailed() {
+    return failed.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("-Transferred: %d (%d B)\n-Unchanged: %d\n-Created directories: %d\n-Deleted: %d\n-Failed: %d",
+      getTransferred(), getTransferredBytes(), getUnchanged(), getCreatedDirectories(), getDeleted(), getFailed());
+  }
+}
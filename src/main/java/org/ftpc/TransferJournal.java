@@ -0,0 +1,217 @@
+package org.ftpc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//  Checkpoints are appended as records, a record with only direction and path marks the transfer complete. The
+//  file is rewritten with just the pending entries once it holds many more records than entries.
+
+public class TransferJournal {
+  public enum Direction {UPLOAD, DOWNLOAD}
+
+  public static final int COMPACT_MIN_RECORDS = 1024;
+
+  private final Path journalFile;
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+  private BufferedWriter writer;
+  private int records;
+
+  public TransferJournal(Path journalFile) throws IOException {
+    this.journalFile = journalFile;
+    if (Files.exists(journalFile)) {
+      load();
+    }
+  }
+
+  //  Where the CLI keeps the journal for one server, library users choose their own file
+
+  public static Path defaultPath(String host, int port) {
+    return Paths.get(System.getProperty("user.home"), ".ftpc", String.format("%s_%d.journal", host, port));
+  }
+
+  public Path getJournalFile() {
+    return journalFile;
+  }
+
+  public synchronized Entry get(Direction direction, String remotePath) {
+    return entries.get(key(direction, remotePath));
+  }
+
+  public synchronized List<Entry> pending() {
+    return new ArrayList<>(entries.values());
+  }
+
+  public synchronized void checkpoint(Direction direction, String remotePath, String localPath,
+                                      long offset, long size, long modified) throws IOException {
+    Entry entry = entries.get(key(direction, remotePath));
+    if (entry != null && entry.offset == offset && entry.size == size && entry.modified == modified) {
+      return;
+    }
+    entry = new Entry(direction, remotePath, localPath, offset, size, modified);
+    entries.put(key(direction, remotePath), entry);
+    append(format(entry));
+  }
+
+  public synchronized void complete(Direction direction, String remotePath) throws IOException {
+    if (entries.remove(key(direction, remotePath)) != null) {
+      append(direction + "\t" + remotePath);
+    }
+  }
+
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+
+  //  Helper functions for transfer journal
+
+  private static String key(Direction direction, String remotePath) {
+    return key(direction.name(), remotePath);
+  }
+
+  private static String key(String direction, String remotePath) {
+    return direction + " " + remotePath;
+  }
+
+  private static String format(Entry entry) {
+    return String.format("%s\t%s\t%s\t%d\t%d\t%d",
+      entry.direction, entry.remotePath, entry.localPath, entry.offset, entry.size, entry.modified);
+  }
+
+  private void load() throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        records++;
+        String[] fields = line.split("\t");
+        if (fields.length == 2) {
+          entries.remove(key(fields[0], fields[1]));
+          continue;
+        }
+        if (fields.length != 6) {
+          continue;
+        }
+        try {
+          Entry entry = new Entry(Direction.valueOf(fields[0]), fields[1], fields[2],
+            Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+          entries.put(key(entry.direction, entry.remotePath), entry);
+        } catch (IllegalArgumentException ignored) {
+        }
+      }
+    }
+  }
+
+  //  Records reach the OS on every call but are not synced. A record torn by a crash is ended before appending, so
+  //  it costs at most the resume point of that one transfer.
+
+  private void append(String record) throws IOException {
+    if (writer == null) {
+      createParent();
+      boolean torn = endsTorn();
+      writer = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      if (torn) {
+        writer.newLine();
+      }
+    }
+    writer.write(record);
+    writer.newLine();
+    writer.flush();
+    records++;
+    if (records > Math.max(COMPACT_MIN_RECORDS, 2 * entries.size())) {
+      compact();
+    }
+  }
+
+  private void compact() throws IOException {
+    close();
+    createParent();
+    Path tmpFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+      for (Entry entry : entries.values()) {
+        writer.write(format(entry));
+        writer.newLine();
+      }
+    }
+    Files.move(tmpFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    records = entries.size();
+  }
+
+  private boolean endsTorn() throws IOException {
+    if (!Files.exists(journalFile)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+      if (channel.size() == 0) {
+        return false;
+      }
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.read(last, channel.size() - 1);
+      return last.get(0) != '\n';
+    }
+  }
+
+  private void createParent() throws IOException {
+    Path parent = journalFile.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+  }
+
+  public static class Entry {
+    private final Direction direction;
+    private final String remotePath;
+    private final String localPath;
+    private final long offset;
+    private final long size;
+    private final long modified;
+
+    Entry(Direction direction, String remotePath, String localPath, long offset, long size, long modified) {
+      this.direction = direction;
+      this.remotePath = remotePath;
+      this.localPath = localPath;
+      this.offset = offset;
+      this.size = size;
+      this.modified = modified;
+    }
+
+    public Direction getDirection() {
+      return direction;
+    }
+
+    public String getRemotePath() {
+      return remotePath;
+    }
+
+    public String getLocalPath() {
+      return localPath;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getModified() {
+      return modified;
+    }
+  }
+}
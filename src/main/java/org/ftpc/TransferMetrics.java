@@ -0,0 +1,244 @@
+package org.ftpc;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+public class TransferMetrics implements TransferMetricsMXBean {
+  public static final String CONNECT = "CONNECT";
+
+  private final Map<String, TransferStats> transfers = new ConcurrentHashMap<>();
+  private final Map<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+  private final Map<String, CompressionStats> compression = new ConcurrentHashMap<>();
+  private final LongAdder bytesMoved = new LongAdder();
+  private DirectBufferPool bufferPool = DirectBufferPool.shared();
+  private ObjectName objectName;
+  private ScheduledExecutorService reporting;
+
+  public void transferStarted(String operation, String host) {
+    stats(operation, host).inFlight.incrementAndGet();
+  }
+
+  public void transferFinished(String operation, String host, long bytes, long nanos) {
+    TransferStats stats = stats(operation, host);
+    stats.inFlight.decrementAndGet();
+    stats.bytes.add(bytes);
+    stats.nanos.add(nanos);
+    stats.completed.increment();
+  }
+
+  public void transferFailed(String operation, String host, long bytes, long nanos) {
+    TransferStats stats = stats(operation, host);
+    stats.inFlight.decrementAndGet();
+    stats.bytes.add(bytes);
+    stats.nanos.add(nanos);
+  }
+
+  //  Counted per chunk while transfers run, so samples see progress of files that are not finished yet
+
+  public void recordBytesMoved(long bytes) {
+    bytesMoved.add(bytes);
+  }
+
+  public void recordCommand(String command, String host, long nanos) {
+    commands.computeIfAbsent(key(command, host), key -> new LatencyHistogram()).record(nanos);
+  }
+
+  public void recordConnect(String host, long nanos) {
+    recordCommand(CONNECT, host, nanos);
+  }
+
+  public void recordFailure(String command, String host, int replyCode) {
+    failures.computeIfAbsent(key(command, host) + " " + replyCode, key -> new LongAdder()).increment();
+  }
+
+  public void recordCompression(String operation, String host, long rawBytes, long wireBytes) {
+    CompressionStats stats = compression.computeIfAbsent(key(operation, host), key -> new CompressionStats());
+    stats.raw.add(rawBytes);
+    stats.wire.add(wireBytes);
+  }
+
+  public LatencyHistogram getCommandLatency(String command, String host) {
+    return commands.get(key(command, host));
+  }
+
+  public long getFailures(String host, int replyCode) {
+    long total = 0;
+    String suffix = "@" + host + " " + replyCode;
+    for (Map.Entry<String, LongAdder> entry : failures.entrySet()) {
+      if (entry.getKey().endsWith(suffix)) {
+        total += entry.getValue().sum();
+      }
+    }
+    return total;
+  }
+
+  public long getTotalBytes() {
+    long total = 0;
+    for (TransferStats stats : transfers.values()) {
+      total += stats.bytes.sum();
+    }
+    return total;
+  }
+
+  public long getBytesMoved() {
+    return bytesMoved.sum();
+  }
+
+  @Override
+  public Map<String, Long> getBytesTransferred() {
+    return collect(transfers, stats -> stats.bytes.sum());
+  }
+
+  @Override
+  public Map<String, Double> getThroughputBytesPerSecond() {
+    return collect(transfers, stats -> {
+      long nanos = stats.nanos.sum();
+      return nanos == 0 ? 0.0 : stats.bytes.sum() * 1e9 / nanos;
+    });
+  }
+
+  @Override
+  public Map<String, Long> getTransfersCompleted() {
+    return collect(transfers, stats -> stats.completed.sum());
+  }
+
+  @Override
+  public Map<String, Integer> getTransfersInFlight() {
+    return collect(transfers, stats -> stats.inFlight.get());
+  }
+
+  @Override
+  public Map<String, Long> getFailuresByReplyCode() {
+    return collect(failures, LongAdder::sum);
+  }
+
+  @Override
+  public Map<String, Long> getCommandCount() {
+    return collect(commands, LatencyHistogram::getCount);
+  }
+
+  @Override
+  public Map<String, Double> getCommandLatencyMeanMillis() {
+    return collect(commands, LatencyHistogram::getMeanMillis);
+  }
+
+  @Override
+  public Map<String, Double> getCommandLatencyP99Millis() {
+    return collect(commands, histogram -> histogram.getPercentileMillis(99));
+  }
+
+  @Override
+  public Map<String, Double> getCompressionRatio() {
+    return collect(compression, stats -> {
+      long wire = stats.wire.sum();
+      return wire == 0 ? 0.0 : (double) stats.raw.sum() / wire;
+    });
+  }
+
+  @Override
+  public double getBufferPoolHitRate() {
+    return bufferPool.getHitRate();
+  }
+
+  @Override
+  public int getBuffersOutstanding() {
+    return bufferPool.getOutstanding();
+  }
+
+  public DirectBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  public void setBufferPool(DirectBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  @Override
+  public void reset() {
+    transfers.values().forEach(stats -> {
+      stats.bytes.reset();
+      stats.nanos.reset();
+      stats.completed.reset();
+    });
+    commands.values().forEach(LatencyHistogram::reset);
+    failures.clear();
+    compression.clear();
+  }
+
+  public synchronized void registerMBean(String name) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName newName = new ObjectName(name);
+    server.registerMBean(this, newName);
+    objectName = newName;
+  }
+
+  public synchronized void unregisterMBean() {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException ignored) {
+    }
+    objectName = null;
+  }
+
+  public synchronized void startReporting(MetricsReporter reporter, long period, TimeUnit unit) {
+    stopReporting();
+    reporting = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ftp-metrics-reporter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    reporting.scheduleAtFixedRate(() -> reporter.report(this), period, period, unit);
+  }
+
+  public synchronized void stopReporting() {
+    if (reporting != null) {
+      reporting.shutdownNow();
+      reporting = null;
+    }
+  }
+
+  //  Helper functions for transfer metrics
+
+  private TransferStats stats(String operation, String host) {
+    return transfers.computeIfAbsent(key(operation, host), key -> new TransferStats());
+  }
+
+  private static String key(String name, String host) {
+    return name + "@" + host;
+  }
+
+  private static <V, R> Map<String, R> collect(Map<String, V> source, Function<V, R> value) {
+    Map<String, R> result = new TreeMap<>();
+    for (Map.Entry<String, V> entry : source.entrySet()) {
+      result.put(entry.getKey(), value.apply(entry.getValue()));
+    }
+    return result;
+  }
+
+  private static class TransferStats {
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+  }
+
+  private static class CompressionStats {
+    private final LongAdder raw = new LongAdder();
+    private final LongAdder wire = new LongAdder();
+  }
+}
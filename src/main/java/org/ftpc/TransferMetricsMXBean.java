@@ -0,0 +1,29 @@
+package org.ftpc;
+
+import java.util.Map;
+
+public interface TransferMetricsMXBean {
+  Map<String, Long> getBytesTransferred();
+
+  Map<String, Double> getThroughputBytesPerSecond();
+
+  Map<String, Long> getTransfersCompleted();
+
+  Map<String, Integer> getTransfersInFlight();
+
+  Map<String, Long> getFailuresByReplyCode();
+
+  Map<String, Long> getCommandCount();
+
+  Map<String, Double> getCommandLatencyMeanMillis();
+
+  Map<String, Double> getCommandLatencyP99Millis();
+
+  Map<String, Double> getCompressionRatio();
+
+  double getBufferPoolHitRate();
+
+  int getBuffersOutstanding();
+
+  void reset();
+}
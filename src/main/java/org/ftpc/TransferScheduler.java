@@ -0,0 +1,279 @@
+package org.ftpc;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class TransferScheduler {
+  public enum Ordering {FIFO, SMALLEST_FIRST}
+
+  public enum ExecutionMode {PLATFORM, VIRTUAL}
+
+  public static final int DEFAULT_CONCURRENCY = 4;
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final TreeSet<Job<?>> pending;
+  private final Map<String, Integer> runningPerHost = new HashMap<>();
+  private ExecutorService workers;
+  private ExecutionMode executionMode;
+  private final int queueCapacity;
+  private long sequence;
+  private int running;
+  private int concurrency;
+  private int perHostLimit;
+  private boolean closed;
+
+  public TransferScheduler() {
+    this(DEFAULT_CONCURRENCY, DEFAULT_QUEUE_CAPACITY, DEFAULT_CONCURRENCY, Ordering.SMALLEST_FIRST);
+  }
+
+  public TransferScheduler(int concurrency, int queueCapacity, int perHostLimit, Ordering ordering) {
+    if (concurrency < 1 || queueCapacity < 1 || perHostLimit < 1) {
+      throw new IllegalArgumentException("Scheduler limits must be positive");
+    }
+    this.concurrency = concurrency;
+    this.queueCapacity = queueCapacity;
+    this.perHostLimit = perHostLimit;
+    pending = new TreeSet<>(comparator(ordering));
+    executionMode = ExecutionMode.PLATFORM;
+    workers = platformWorkers();
+  }
+
+  public static boolean isVirtualThreadSupported() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  public ExecutionMode getExecutionMode() {
+    lock.lock();
+    try {
+      return executionMode;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public ExecutionMode setExecutionMode(ExecutionMode mode) {
+    ExecutorService previous;
+    lock.lock();
+    try {
+      if (mode == executionMode) {
+        return executionMode;
+      }
+      ExecutorService next = mode == ExecutionMode.VIRTUAL ? virtualWorkers() : platformWorkers();
+      if (next == null) {
+        System.err.println("Virtual threads are not supported by this JVM, using platform threads.");
+        return executionMode;
+      }
+      previous = workers;
+      workers = next;
+      executionMode = mode;
+    } finally {
+      lock.unlock();
+    }
+    previous.shutdown();
+    return mode;
+  }
+
+  public <T> CompletableFuture<T> submit(String host, long size, Callable<T> task) throws InterruptedException {
+    return submit(host, size, 0, task);
+  }
+
+  public <T> CompletableFuture<T> submit(String host, long size, int priority, Callable<T> task)
+    throws InterruptedException {
+    Job<T> job;
+    lock.lockInterruptibly();
+    try {
+      while (pending.size() >= queueCapacity && !closed) {
+        notFull.await();
+      }
+      if (closed) {
+        throw new IllegalStateException("Transfer scheduler is closed");
+      }
+      job = new Job<>(host, size, priority, sequence++, task);
+      pending.add(job);
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+    return job.result;
+  }
+
+  public int getConcurrency() {
+    lock.lock();
+    try {
+      return concurrency;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void setConcurrency(int concurrency) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+    }
+    lock.lock();
+    try {
+      this.concurrency = concurrency;
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void setPerHostLimit(int perHostLimit) {
+    if (perHostLimit < 1) {
+      throw new IllegalArgumentException("Per host limit must be positive: " + perHostLimit);
+    }
+    lock.lock();
+    try {
+      this.perHostLimit = perHostLimit;
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getRunning() {
+    lock.lock();
+    try {
+      return running;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getQueued() {
+    lock.lock();
+    try {
+      return pending.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void close() {
+    ExecutorService current;
+    lock.lock();
+    try {
+      closed = true;
+      current = workers;
+      for (Job<?> job : pending) {
+        job.result.cancel(false);
+      }
+      pending.clear();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    current.shutdown();
+  }
+
+  //  Helper functions for transfer scheduler
+
+  private void dispatch() {
+    Iterator<Job<?>> iterator = pending.iterator();
+    while (running < concurrency && iterator.hasNext()) {
+      Job<?> job = iterator.next();
+      int hostRunning = runningPerHost.getOrDefault(job.host, 0);
+      if (hostRunning >= perHostLimit) {
+        continue;
+      }
+      iterator.remove();
+      running++;
+      runningPerHost.put(job.host, hostRunning + 1);
+      workers.execute(job);
+      notFull.signal();
+    }
+  }
+
+  private void finished(Job<?> job) {
+    lock.lock();
+    try {
+      running--;
+      int hostRunning = runningPerHost.get(job.host) - 1;
+      if (hostRunning == 0) {
+        runningPerHost.remove(job.host);
+      } else {
+        runningPerHost.put(job.host, hostRunning);
+      }
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static ExecutorService platformWorkers() {
+    AtomicInteger threadNumber = new AtomicInteger();
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+      runnable -> {
+        Thread thread = new Thread(runnable, "ftp-transfer-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+  }
+
+  private static ExecutorService virtualWorkers() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  private static Comparator<Job<?>> comparator(Ordering ordering) {
+    Comparator<Job<?>> byPriority = Comparator.comparingInt(job -> -job.priority);
+    if (ordering == Ordering.SMALLEST_FIRST) {
+      byPriority = byPriority.thenComparingLong(job -> job.size);
+    }
+    return byPriority.thenComparingLong(job -> job.sequence);
+  }
+
+  private class Job<T> implements Runnable {
+    private final String host;
+    private final long size;
+    private final int priority;
+    private final long sequence;
+    private final Callable<T> task;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    Job(String host, long size, int priority, long sequence, Callable<T> task) {
+      this.host = host;
+      this.size = size;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!result.isDone()) {
+          result.complete(task.call());
+        }
+      } catch (Throwable e) {
+        result.completeExceptionally(e);
+      } finally {
+        finished(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package org.ftpc;
+
+public enum TransferType {
+  ASCII("A"),
+  BINARY("I");
+
+  private final String code;
+
+  TransferType(String code) {
+    this.code = code;
+  }
+
+  public String getCode() {
+    return code;
+  }
+}
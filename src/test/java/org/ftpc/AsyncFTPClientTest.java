@@ -0,0 +1,140 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.*;
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.filesystem.FileEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.ftpc.TestFtpServer.HOST;
+import static org.ftpc.TestFtpServer.PASSWORD;
+import static org.ftpc.TestFtpServer.USER;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class AsyncFTPClientTest {
+  private final String CONTENT = "Asynchronous transfer content";
+  private FakeFtpServer fakeFtpServer;
+  private EventLoopGroup eventLoops;
+  private File workDir;
+
+  @BeforeAll
+  void setUp() throws IOException {
+    fakeFtpServer = TestFtpServer.create();
+    fakeFtpServer.getFileSystem().add(new FileEntry("/remote.txt", CONTENT));
+    fakeFtpServer.start();
+    eventLoops = new EventLoopGroup(2);
+    workDir = Files.createTempDirectory("ftpc-async").toFile();
+  }
+
+  @AfterAll
+  void tearDown() {
+    eventLoops.close();
+    fakeFtpServer.stop();
+  }
+
+  @Test
+  void transfers() throws Exception {
+    AsyncFTPClient client = connect().get(10, TimeUnit.SECONDS);
+    File local = new File(workDir, "upload.bin");
+    byte[] content = new byte[300 * 1024];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i % 251);
+    }
+    Files.write(local.toPath(), content);
+
+    CompletableFuture<Long> upload = client.uploadAsync(local);
+    CompletableFuture<List<String>> listing = client.listAsync("/");
+    File downloaded = new File(workDir, "remote.txt");
+    CompletableFuture<Long> download = client.downloadAsync("remote.txt", downloaded);
+
+    Assertions.assertEquals(content.length, (long) upload.get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(2, listing.get(10, TimeUnit.SECONDS).size());
+    Assertions.assertEquals(CONTENT.length(), (long) download.get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals(CONTENT, new String(Files.readAllBytes(downloaded.toPath())));
+    Assertions.assertEquals(content.length, ((FileEntry) fakeFtpServer.getFileSystem().getEntry("/upload.bin")).getSize());
+    client.close();
+  }
+
+  @Test
+  void failedTransferKeepsSession() throws Exception {
+    AsyncFTPClient client = connect().get(10, TimeUnit.SECONDS);
+    CompletableFuture<Long> missing = client.downloadAsync("missing.txt", new File(workDir, "missing.txt"));
+    CompletableFuture<Long> present = client.downloadAsync("remote.txt", new File(workDir, "present.txt"));
+
+    ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> missing.get(10, TimeUnit.SECONDS));
+    Assertions.assertTrue(e.getCause().getMessage().startsWith("550"), e.getCause().getMessage());
+    Assertions.assertEquals(CONTENT.length(), (long) present.get(10, TimeUnit.SECONDS));
+    Assertions.assertTrue(client.isOpen());
+    client.close();
+  }
+
+  @Test
+  void failedDownloadKeepsLocalFile() throws Exception {
+    AsyncFTPClient client = connect().get(10, TimeUnit.SECONDS);
+    File local = new File(workDir, "kept.txt");
+    Files.write(local.toPath(), "local content".getBytes());
+
+    CompletableFuture<Long> missing = client.downloadAsync("missing.txt", local);
+
+    Assertions.assertThrows(ExecutionException.class, () -> missing.get(10, TimeUnit.SECONDS));
+    Assertions.assertEquals("local content", new String(Files.readAllBytes(local.toPath())));
+    Assertions.assertFalse(new File(workDir, "kept.txt.part").exists());
+    client.close();
+  }
+
+  @Test
+  void stalledServerTimesOut() throws Exception {
+    SocketOptions control = SocketOptions.control();
+    control.setReadTimeout(200);
+    try (ServerSocket server = new ServerSocket(0)) {
+      CompletableFuture<AsyncFTPClient> client = AsyncFTPClient.connect(eventLoops, HOST, server.getLocalPort(), USER,
+        PASSWORD, control, SocketOptions.data());
+      try (Socket ignored = server.accept()) {
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+          () -> client.get(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof SocketTimeoutException, String.valueOf(e.getCause()));
+      }
+    }
+  }
+
+  @Test
+  void manySessionsOnFewThreads() throws Exception {
+    List<CompletableFuture<Long>> downloads = new ArrayList<>();
+    List<AsyncFTPClient> clients = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      File target = new File(workDir, "copy" + i + ".txt");
+      downloads.add(connect().thenCompose(client -> {
+        synchronized (clients) {
+          clients.add(client);
+        }
+        return client.downloadAsync("remote.txt", target);
+      }));
+    }
+    CompletableFuture.allOf(downloads.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+    for (int i = 0; i < 40; i++) {
+      Assertions.assertEquals(CONTENT, new String(Files.readAllBytes(new File(workDir, "copy" + i + ".txt").toPath())));
+    }
+    clients.forEach(AsyncFTPClient::close);
+  }
+
+  @Test
+  void rejectedLogin() {
+    CompletableFuture<AsyncFTPClient> client = AsyncFTPClient.connect(eventLoops, HOST,
+      fakeFtpServer.getServerControlPort(), USER, "wrong");
+    Assertions.assertThrows(ExecutionException.class, () -> client.get(10, TimeUnit.SECONDS));
+  }
+
+  private CompletableFuture<AsyncFTPClient> connect() {
+    return AsyncFTPClient.connect(eventLoops, HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+  }
+}
@@ -0,0 +1,110 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.*;
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.filesystem.FileEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.ftpc.TestFtpServer.HOST;
+import static org.ftpc.TestFtpServer.PASSWORD;
+import static org.ftpc.TestFtpServer.USER;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BatchRunnerTest {
+  private final String CONTENT = "Batch content";
+  private FakeFtpServer fakeFtpServer;
+  private File workDir;
+
+  @BeforeAll
+  void setUp() throws IOException {
+    fakeFtpServer = TestFtpServer.create();
+    for (int i = 0; i < 20; i++) {
+      fakeFtpServer.getFileSystem().add(new FileEntry("/remote" + i + ".txt", CONTENT + i));
+    }
+    fakeFtpServer.getFileSystem().add(new FileEntry("/reports/2020.csv", CONTENT));
+    fakeFtpServer.setCommandHandler("RETR", new RestartCommandHandlers.Retr());
+    fakeFtpServer.setCommandHandler("SIZE", new RestartCommandHandlers.Size());
+    fakeFtpServer.setCommandHandler("STOR", new RestartCommandHandlers.Stor());
+    fakeFtpServer.start();
+    workDir = Files.createTempDirectory("ftpc-batch").toFile();
+  }
+
+  @AfterAll
+  void tearDown() {
+    fakeFtpServer.stop();
+  }
+
+  @Test
+  void parsesManifestLines() {
+    Map<String, String> plain = BatchRunner.parse("UPLOAD  some dir/file name.txt");
+    Assertions.assertEquals("upload", plain.get("op"));
+    Assertions.assertEquals("some dir/file name.txt", plain.get("path"));
+
+    Map<String, String> json = BatchRunner.parse("{\"op\": \"download\", \"path\": \"a \\\"b\\\"\\u0041.txt\", \"size\": 12}");
+    Assertions.assertEquals("download", json.get("op"));
+    Assertions.assertEquals("a \"b\"A.txt", json.get("path"));
+    Assertions.assertEquals("12", json.get("size"));
+
+    Assertions.assertNull(BatchRunner.parse("{\"op\": \"download\""));
+    Assertions.assertNull(BatchRunner.parse("{\"op\" \"download\"}"));
+  }
+
+  @Test
+  void runsManifest() throws IOException {
+    File local = new File(workDir, "local.txt");
+    Files.write(local.toPath(), "uploaded".getBytes());
+    StringBuilder manifest = new StringBuilder("# nightly transfers\n\n");
+    for (int i = 0; i < 20; i++) {
+      manifest.append(i % 2 == 0 ? "download remote" + i + ".txt\n"
+        : "{\"op\":\"download\",\"path\":\"remote" + i + ".txt\"}\n");
+    }
+    manifest.append("upload ").append(local.getAbsolutePath()).append('\n');
+    manifest.append("download missing.txt\n");
+    manifest.append("rename a b\n");
+
+    FTPClientService ftpClientService = new FTPClientService(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+    BatchResult result;
+    try {
+      ftpClientService.setDownloadDir(workDir.getAbsolutePath());
+      ftpClientService.setJournal(new TransferJournal(Paths.get(workDir.getAbsolutePath(), "transfers.journal")));
+      result = new BatchRunner(ftpClientService).run(new StringReader(manifest.toString()));
+    } finally {
+      ftpClientService.close();
+    }
+
+    Assertions.assertEquals(22, result.getSubmitted());
+    Assertions.assertEquals(21, result.getSucceeded());
+    Assertions.assertEquals(1, result.getFailed());
+    Assertions.assertEquals(1, result.getInvalid());
+    Assertions.assertFalse(result.isSuccessful());
+    Assertions.assertEquals(CONTENT + 7, new String(Files.readAllBytes(new File(workDir, "remote7.txt").toPath())));
+    Assertions.assertNotNull(fakeFtpServer.getFileSystem().getEntry("/local.txt"));
+
+    String json = result.toJson();
+    Assertions.assertTrue(json.startsWith("{\"submitted\":22,\"succeeded\":21,\"failed\":1,\"invalid\":1,"), json);
+    Assertions.assertTrue(json.contains("{\"line\":24,\"op\":\"download\",\"path\":\"missing.txt\""), json);
+    Assertions.assertTrue(json.contains("{\"line\":25,\"error\":\"Invalid manifest line: rename a b\"}"), json);
+  }
+
+  @Test
+  void downloadsNestedPath() throws IOException {
+    File downloadDir = Files.createTempDirectory(workDir.toPath(), "nested").toFile();
+    FTPClientService ftpClientService = new FTPClientService(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+    BatchResult result;
+    try {
+      ftpClientService.setDownloadDir(downloadDir.getAbsolutePath());
+      result = new BatchRunner(ftpClientService).run(new StringReader("{\"op\":\"download\",\"path\":\"reports/2020.csv\"}\n"));
+    } finally {
+      ftpClientService.close();
+    }
+
+    Assertions.assertTrue(result.isSuccessful(), result.toJson());
+    Assertions.assertEquals(CONTENT, new String(Files.readAllBytes(new File(downloadDir, "reports/2020.csv").toPath())));
+  }
+}
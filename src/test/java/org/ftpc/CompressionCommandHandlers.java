@@ -0,0 +1,121 @@
+package org.ftpc;
+
+import org.mockftpserver.core.command.Command;
+import org.mockftpserver.core.command.ReplyCodes;
+import org.mockftpserver.core.session.Session;
+import org.mockftpserver.fake.command.AbstractFakeCommandHandler;
+import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.fake.filesystem.FileSystemEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+//  Command handlers for FakeFtpServer, which only knows stream mode. Wire byte counts are kept for assertions.
+class CompressionCommandHandlers {
+  static final String MODE_ATTRIBUTE = "transferMode";
+  static final AtomicLong wireBytes = new AtomicLong();
+
+  static class Feat extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      session.sendReply(211, "Features:\n MODE Z\n SIZE\nEnd");
+    }
+  }
+
+  static class Mode extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String mode = command.getRequiredParameter(0).toUpperCase();
+      if (!mode.equals("S") && !mode.equals("Z")) {
+        session.sendReply(504, "Unsupported transfer mode " + mode);
+        return;
+      }
+      session.setAttribute(MODE_ATTRIBUTE, mode);
+      session.sendReply(200, "Mode set to " + mode);
+    }
+  }
+
+  static class Retr extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      FileSystemEntry entry = getFileSystem().getEntry(path);
+      verifyFileSystemCondition(entry != null, path, "filesystem.doesNotExist");
+      verifyFileSystemCondition(!entry.isDirectory(), path, "filesystem.isNotAFile");
+
+      byte[] data = RestartCommandHandlers.readContent((FileEntry) entry);
+      if (isCompressed(session)) {
+        data = deflate(data);
+      }
+      wireBytes.addAndGet(data.length);
+
+      sendReply(session, ReplyCodes.TRANSFER_DATA_INITIAL_OK);
+      session.openDataConnection();
+      session.sendData(data, data.length);
+      session.closeDataConnection();
+      sendReply(session, ReplyCodes.TRANSFER_DATA_FINAL_OK);
+    }
+  }
+
+  static class Stor extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+
+      sendReply(session, ReplyCodes.TRANSFER_DATA_INITIAL_OK);
+      session.openDataConnection();
+      byte[] data = session.readData();
+      session.closeDataConnection();
+      wireBytes.addAndGet(data.length);
+
+      FileEntry entry = new FileEntry(path);
+      entry.setContents(isCompressed(session) ? inflate(data) : data);
+      getFileSystem().add(entry);
+      sendReply(session, ReplyCodes.TRANSFER_DATA_FINAL_OK);
+    }
+  }
+
+  private static boolean isCompressed(Session session) {
+    return "Z".equals(session.getAttribute(MODE_ATTRIBUTE));
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    while (!deflater.finished()) {
+      out.write(buffer, 0, deflater.deflate(buffer));
+    }
+    deflater.end();
+    return out.toByteArray();
+  }
+
+  private static byte[] inflate(byte[] data) {
+    Inflater inflater = new Inflater();
+    inflater.setInput(data);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    try {
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0 && inflater.needsInput()) {
+          throw new IllegalStateException("Truncated deflate stream");
+        }
+        out.write(buffer, 0, inflated);
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      inflater.end();
+    }
+    return out.toByteArray();
+  }
+}
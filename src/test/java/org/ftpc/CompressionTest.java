@@ -0,0 +1,115 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.*;
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.filesystem.FileEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.ftpc.TestFtpServer.HOST;
+import static org.ftpc.TestFtpServer.PASSWORD;
+import static org.ftpc.TestFtpServer.USER;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CompressionTest {
+  private final String NOTE = "id,value\n1,2\n";
+  private FakeFtpServer fakeFtpServer;
+  private File workDir;
+  private String csv;
+
+  @BeforeAll
+  void setUp() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int row = 0; row < 5000; row++) {
+      content.append(String.format("%d,sensor-%02d,%d.%02d,OK%n", row, row % 16, row % 40, row % 100));
+    }
+    csv = content.toString();
+
+    fakeFtpServer = TestFtpServer.create();
+    fakeFtpServer.getFileSystem().add(new FileEntry("/readings.csv", csv));
+    fakeFtpServer.getFileSystem().add(new FileEntry("/note.csv", NOTE));
+    fakeFtpServer.setCommandHandler("FEAT", new CompressionCommandHandlers.Feat());
+    fakeFtpServer.setCommandHandler("MODE", new CompressionCommandHandlers.Mode());
+    fakeFtpServer.setCommandHandler("RETR", new CompressionCommandHandlers.Retr());
+    fakeFtpServer.setCommandHandler("STOR", new CompressionCommandHandlers.Stor());
+    fakeFtpServer.start();
+    workDir = Files.createTempDirectory("ftpc-compression").toFile();
+  }
+
+  @AfterAll
+  void tearDown() {
+    fakeFtpServer.stop();
+  }
+
+  @Test
+  void compressedUploadAndDownload() throws IOException {
+    File local = new File(workDir, "upload.csv");
+    Files.write(local.toPath(), csv.getBytes());
+    FTPClient ftpClient = new FTPClient(workDir.getAbsolutePath());
+    ftpClient.setCompressionPolicy(new CompressionPolicy());
+    ftpClient.setMetrics(new TransferMetrics());
+    ftpClient.connect(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+
+    long wireBefore = CompressionCommandHandlers.wireBytes.get();
+    ftpClient.upload(local);
+    FileEntry stored = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/upload.csv");
+    Assertions.assertEquals(csv, new String(RestartCommandHandlers.readContent(stored)));
+    Assertions.assertTrue(CompressionCommandHandlers.wireBytes.get() - wireBefore < csv.length() / 3);
+
+    File downloaded = ftpClient.download("readings.csv");
+    Assertions.assertEquals(csv, new String(Files.readAllBytes(downloaded.toPath())));
+    Assertions.assertTrue(ftpClient.getCompressionPolicy().getRatio("csv") > 3);
+    Assertions.assertTrue(ftpClient.getMetrics().getCompressionRatio().get("RETR@" + HOST) > 3);
+    ftpClient.disconnect();
+  }
+
+  @Test
+  void smallAndPrecompressedFilesStayUncompressed() throws IOException {
+    byte[] archive = new byte[128 * 1024];
+    new Random(7).nextBytes(archive);
+    File zip = new File(workDir, "bundle.zip");
+    Files.write(zip.toPath(), archive);
+    File note = new File(workDir, "note.txt");
+    Files.write(note.toPath(), "short note".getBytes());
+
+    FTPClient ftpClient = new FTPClient(workDir.getAbsolutePath());
+    ftpClient.setCompressionPolicy(new CompressionPolicy());
+    ftpClient.connect(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+    long wireBefore = CompressionCommandHandlers.wireBytes.get();
+    ftpClient.upload(zip);
+    ftpClient.upload(note);
+    Assertions.assertEquals(archive.length + note.length(), CompressionCommandHandlers.wireBytes.get() - wireBefore);
+    Assertions.assertArrayEquals(archive,
+      RestartCommandHandlers.readContent((FileEntry) fakeFtpServer.getFileSystem().getEntry("/bundle.zip")));
+    ftpClient.disconnect();
+  }
+
+  @Test
+  void smallDownloadOfKnownSizeStaysUncompressed() throws IOException {
+    FTPClient ftpClient = new FTPClient(workDir.getAbsolutePath());
+    ftpClient.setCompressionPolicy(new CompressionPolicy());
+    ftpClient.connect(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+    long wireBefore = CompressionCommandHandlers.wireBytes.get();
+    File downloaded = ftpClient.download("note.csv", new File(workDir, "note.csv"), 0, NOTE.length(), null, null);
+    Assertions.assertEquals(NOTE, new String(Files.readAllBytes(downloaded.toPath())));
+    Assertions.assertEquals(NOTE.length(), CompressionCommandHandlers.wireBytes.get() - wireBefore);
+    ftpClient.disconnect();
+  }
+
+  @Test
+  void policyStopsWhenRatioIsPoor() {
+    CompressionPolicy policy = new CompressionPolicy(Collections.singleton("BIN"), 0, 1.5, 1);
+    Assertions.assertTrue(policy.shouldCompress("dump.bin", -1));
+    Assertions.assertFalse(policy.shouldCompress("notes.txt", 1 << 20));
+    Assertions.assertFalse(policy.shouldCompress("photo.JPG", 1 << 20));
+
+    policy.record("dump.bin", CompressionPolicy.SAMPLE_BYTES / 2, CompressionPolicy.SAMPLE_BYTES / 2);
+    Assertions.assertTrue(policy.shouldCompress("dump.bin", 1 << 20));
+    policy.record("dump.bin", CompressionPolicy.SAMPLE_BYTES, CompressionPolicy.SAMPLE_BYTES);
+    Assertions.assertFalse(policy.shouldCompress("dump.bin", 1 << 20));
+  }
+}
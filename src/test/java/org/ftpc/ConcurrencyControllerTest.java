@@ -0,0 +1,123 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ConcurrencyControllerTest {
+  private TransferScheduler scheduler;
+  private TransferMetrics metrics;
+  private ConcurrencyController controller;
+
+  @BeforeEach
+  void setUp() {
+    scheduler = new TransferScheduler();
+    metrics = new TransferMetrics();
+    controller = new ConcurrencyController(scheduler, metrics, "host", 2, 8);
+  }
+
+  @AfterEach
+  void tearDown() {
+    controller.stop();
+    scheduler.close();
+  }
+
+  @Test
+  void growsWhileThroughputRises() {
+    AtomicInteger segments = new AtomicInteger();
+    controller.addListener(segments::set);
+
+    Assertions.assertEquals(3, controller.adjust(10, 0, true));
+    Assertions.assertEquals(4, controller.adjust(14, 0, true));
+    Assertions.assertEquals(5, controller.adjust(17, 0, true));
+    Assertions.assertEquals(5, scheduler.getConcurrency());
+    Assertions.assertEquals(5, segments.get());
+
+    Assertions.assertEquals(5, controller.adjust(1, 0, false));
+  }
+
+  @Test
+  void undoesStepThatLowersThroughput() {
+    controller.adjust(10, 0, true);
+    controller.adjust(14, 0, true);
+    Assertions.assertEquals(3, controller.adjust(12, 0, true));
+    for (int i = 0; i < ConcurrencyController.HOLD_INTERVALS; i++) {
+      Assertions.assertEquals(3, controller.adjust(20, 0, true));
+    }
+    Assertions.assertEquals(4, controller.adjust(14, 0, true));
+  }
+
+  @Test
+  void backsOffOnRefusedConnections() {
+    for (int i = 0; i < 4; i++) {
+      controller.adjust(10 + i, 0, true);
+    }
+    Assertions.assertEquals(6, controller.getConcurrency());
+
+    Assertions.assertEquals(3, controller.adjust(10, 1, true));
+    Assertions.assertEquals(5, controller.getMaxConcurrency());
+    for (int i = 0; i < ConcurrencyController.HOLD_INTERVALS; i++) {
+      controller.adjust(10, 0, true);
+    }
+    for (int i = 0; i < 10; i++) {
+      controller.adjust(10 + i, 0, true);
+    }
+    Assertions.assertEquals(5, controller.getConcurrency());
+  }
+
+  @Test
+  void capRecoversAfterCleanIntervals() {
+    for (int i = 0; i < 4; i++) {
+      controller.adjust(10 + i, 0, true);
+    }
+    controller.adjust(10, 1, true);
+    Assertions.assertEquals(5, controller.getMaxConcurrency());
+
+    for (int i = 1; i < ConcurrencyController.RECOVERY_INTERVALS; i++) {
+      controller.adjust(10 + i, 0, true);
+    }
+    Assertions.assertEquals(5, controller.getMaxConcurrency());
+    controller.adjust(50, 0, true);
+    Assertions.assertEquals(6, controller.getMaxConcurrency());
+
+    for (int i = 0; i < 4 * ConcurrencyController.RECOVERY_INTERVALS; i++) {
+      controller.adjust(100 + i, 0, true);
+    }
+    Assertions.assertEquals(8, controller.getMaxConcurrency());
+    Assertions.assertEquals(8, controller.getConcurrency());
+  }
+
+  @Test
+  void samplesTransferMetrics() throws IOException {
+    File file = File.createTempFile("ftpc-adaptive", ".bin");
+    Files.write(file.toPath(), new byte[128 * 1024]);
+    DataTransfer dataTransfer = new DataTransfer();
+    dataTransfer.setMetrics(metrics);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      dataTransfer.send(channel, 0, channel.size(), Channels.newChannel(new ByteArrayOutputStream()));
+    }
+    Assertions.assertEquals(file.length(), metrics.getBytesMoved());
+    Assertions.assertTrue(file.delete());
+
+    controller.start(1, TimeUnit.HOURS);
+    Assertions.assertEquals(2, scheduler.getConcurrency());
+    controller.adjust(10, 0, true);
+    controller.adjust(10, 0, true);
+    controller.adjust(10, 0, true);
+    metrics.recordFailure(TransferMetrics.CONNECT, "host", 421);
+    controller.sample();
+    Assertions.assertEquals(2, controller.getConcurrency());
+    Assertions.assertEquals(4, controller.getMaxConcurrency());
+  }
+}
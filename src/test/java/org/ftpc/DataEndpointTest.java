@@ -0,0 +1,47 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+class DataEndpointTest {
+
+  @Test
+  void parsesPasvReplies() throws IOException {
+    DataEndpoint endpoint = DataEndpoint.parsePasv("227 Entering Passive Mode (192,168,1,20,195,80).");
+    Assertions.assertEquals("192.168.1.20", endpoint.getAddress().getHostAddress());
+    Assertions.assertEquals(195 * 256 + 80, endpoint.getPort());
+    Assertions.assertEquals(endpoint, DataEndpoint.parsePasv("227 Entering Passive Mode 192,168,1,20,195,80"));
+
+    Assertions.assertThrows(IOException.class, () -> DataEndpoint.parsePasv("227 Entering Passive Mode (1,2,3,4,5)"));
+    Assertions.assertThrows(IOException.class, () -> DataEndpoint.parsePasv("227 (256,0,0,1,4,1)"));
+    Assertions.assertThrows(IOException.class, () -> DataEndpoint.parsePasv("227 Entering Passive Mode"));
+  }
+
+  @Test
+  void parsesEpsvReplies() throws IOException {
+    InetAddress control = InetAddress.getByName("2001:db8::7");
+    DataEndpoint endpoint = DataEndpoint.parseEpsv("229 Entering Extended Passive Mode (|||6446|)", control);
+    Assertions.assertEquals(control, endpoint.getAddress());
+    Assertions.assertEquals(6446, endpoint.getPort());
+    Assertions.assertTrue(endpoint.isIpv6());
+    Assertions.assertEquals(6446, DataEndpoint.parseEpsv("229 ok (!!!6446!)", control).getPort());
+
+    Assertions.assertThrows(IOException.class, () -> DataEndpoint.parseEpsv("229 (|||6446)", control));
+    Assertions.assertThrows(IOException.class, () -> DataEndpoint.parseEpsv("229 (||6446|)", control));
+    Assertions.assertThrows(IOException.class, () -> DataEndpoint.parseEpsv("229 (|||99999|)", control));
+  }
+
+  @Test
+  void formatsActiveArguments() throws IOException {
+    DataEndpoint ipv4 = new DataEndpoint(InetAddress.getByName("192.0.2.7"), 50000);
+    Assertions.assertEquals("192,0,2,7,195,80", ipv4.toPortArgument());
+    Assertions.assertEquals("|1|192.0.2.7|50000|", ipv4.toEprtArgument());
+
+    DataEndpoint ipv6 = new DataEndpoint(InetAddress.getByName("2001:db8::7"), 50000);
+    Assertions.assertEquals("|2|2001:db8:0:0:0:0:0:7|50000|", ipv6.toEprtArgument());
+    Assertions.assertThrows(IllegalStateException.class, ipv6::toPortArgument);
+  }
+}
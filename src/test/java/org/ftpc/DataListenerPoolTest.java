@@ -0,0 +1,58 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+class DataListenerPoolTest {
+  private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+  @Test
+  void acceptsOnlyTheServer() throws IOException {
+    DataListenerPool pool = new DataListenerPool(0, 0, 4);
+    ServerSocketChannel listener = pool.acquire(LOOPBACK);
+    InetSocketAddress address = new InetSocketAddress(LOOPBACK, listener.socket().getLocalPort());
+    try (Socket intruder = new Socket(); Socket server = new Socket()) {
+      intruder.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.2"), 0));
+      intruder.connect(address);
+      server.connect(address);
+      try (SocketChannel accepted = DataListenerPool.accept(listener, LOOPBACK, 5000)) {
+        Assertions.assertEquals(server.getLocalPort(), accepted.socket().getPort());
+      }
+      intruder.setSoTimeout(5000);
+      Assertions.assertEquals(-1, intruder.getInputStream().read());
+      Assertions.assertThrows(SocketTimeoutException.class, () -> DataListenerPool.accept(listener, LOOPBACK, 50));
+    } finally {
+      pool.release(listener, true);
+      pool.close();
+    }
+  }
+
+  @Test
+  void dropsConnectionsQueuedWhileIdle() throws IOException {
+    DataListenerPool pool = new DataListenerPool(0, 0, 4);
+    ServerSocketChannel listener = pool.acquire(LOOPBACK);
+    int port = listener.socket().getLocalPort();
+    pool.release(listener, true);
+    Assertions.assertEquals(1, pool.getIdle());
+
+    try (Socket intruder = new Socket(LOOPBACK, port)) {
+      ServerSocketChannel reused = pool.acquire(LOOPBACK);
+      Assertions.assertNotSame(listener, reused);
+      Assertions.assertFalse(listener.isOpen());
+      Assertions.assertEquals(0, pool.getIdle());
+      intruder.setSoTimeout(5000);
+      Assertions.assertEquals(-1, intruder.getInputStream().read());
+      pool.release(reused, true);
+    } finally {
+      pool.close();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+class DirectBufferPoolTest {
+
+  @Test
+  void sizeClasses() {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 8);
+    ByteBuffer small = pool.acquire(100);
+    ByteBuffer medium = pool.acquire(5000);
+    ByteBuffer standard = pool.acquire();
+    ByteBuffer large = pool.acquire(200 * 1024);
+    ByteBuffer huge = pool.acquire(1024 * 1024);
+
+    Assertions.assertEquals(4 * 1024, small.capacity());
+    Assertions.assertEquals(16 * 1024, medium.capacity());
+    Assertions.assertEquals(64 * 1024, standard.capacity());
+    Assertions.assertEquals(256 * 1024, large.capacity());
+    Assertions.assertEquals(1024 * 1024, huge.capacity());
+    Assertions.assertTrue(small.isDirect());
+    Assertions.assertEquals(5, pool.getOutstanding());
+
+    pool.release(small);
+    pool.release(medium);
+    pool.release(standard);
+    pool.release(large);
+    pool.release(huge);
+    Assertions.assertEquals(0, pool.getOutstanding());
+    Assertions.assertEquals(0.0, pool.getHitRate());
+  }
+
+  @Test
+  void reusesReleasedBuffers() throws Exception {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 8);
+    ByteBuffer first = pool.acquire();
+    first.putInt(42);
+    pool.release(first);
+    ByteBuffer second = pool.acquire();
+    Assertions.assertSame(first, second);
+    Assertions.assertEquals(0, second.position());
+    Assertions.assertEquals(0.5, pool.getHitRate());
+
+    ByteBuffer[] overflow = new ByteBuffer[DirectBufferPool.THREAD_CACHE_SIZE + 1];
+    for (int i = 0; i < overflow.length; i++) {
+      overflow[i] = pool.acquire();
+    }
+    pool.release(second);
+    for (ByteBuffer buffer : overflow) {
+      pool.release(buffer);
+    }
+    ByteBuffer shared = CompletableFuture.supplyAsync(pool::acquire).get();
+    Assertions.assertTrue(shared == second || Arrays.asList(overflow).contains(shared));
+  }
+
+  @Test
+  void virtualThreadsShareReleasedBuffers() throws Exception {
+    Assumptions.assumeTrue(TransferScheduler.isVirtualThreadSupported());
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 8);
+    ByteBuffer[] acquired = new ByteBuffer[1];
+    Method startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+    ((Thread) startVirtualThread.invoke(null, (Runnable) () -> pool.release(pool.acquire()))).join();
+    ((Thread) startVirtualThread.invoke(null, (Runnable) () -> acquired[0] = pool.acquire())).join();
+    Assertions.assertEquals(0.5, pool.getHitRate());
+    pool.release(acquired[0]);
+  }
+
+  @Test
+  void detectsLeaks() {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 8);
+    pool.setLeakDetection(true);
+    ByteBuffer leaked = pool.acquire();
+    ByteBuffer returned = pool.acquire(1000);
+    pool.release(returned);
+
+    Assertions.assertEquals(1, pool.getLeaks().size());
+    Assertions.assertTrue(pool.getLeaks().get(0).getMessage().contains("65536"));
+    Assertions.assertThrows(IllegalStateException.class, () -> pool.release(returned));
+    pool.release(leaked);
+    Assertions.assertTrue(pool.getLeaks().isEmpty());
+  }
+}
@@ -0,0 +1,69 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+class DirectoryCacheTest {
+
+  @Test
+  void resolve() {
+    Assertions.assertEquals("/a/b", DirectoryCache.resolve("/a", "b"));
+    Assertions.assertEquals("/a", DirectoryCache.resolve("/a/b/", ".."));
+    Assertions.assertEquals("/c", DirectoryCache.resolve("/a/b", "/c/./"));
+    Assertions.assertEquals("/", DirectoryCache.resolve("/", "../.."));
+  }
+
+  @Test
+  void leastRecentlyUsedEviction() {
+    DirectoryCache cache = new DirectoryCache(2, 60000);
+    cache.put("/a", DirectoryCache.NLST, Collections.singletonList("x"));
+    cache.put("/b", DirectoryCache.NLST, Collections.singletonList("y"));
+    Assertions.assertNotNull(cache.get("/a", DirectoryCache.NLST));
+
+    cache.put("/c", DirectoryCache.NLST, Collections.singletonList("z"));
+    Assertions.assertNull(cache.get("/b", DirectoryCache.NLST));
+    Assertions.assertNotNull(cache.get("/a", DirectoryCache.NLST));
+    Assertions.assertEquals(2, cache.size());
+  }
+
+  @Test
+  void expiry() throws InterruptedException {
+    DirectoryCache cache = new DirectoryCache(8, 50);
+    cache.put("/a", DirectoryCache.LIST, Collections.singletonList("x"));
+    cache.put("/", DirectoryCache.ENTRIES,
+      Collections.singletonList(new FTPListEntry("a", FTPListEntry.Type.DIRECTORY, 0, -1, null)));
+    Assertions.assertTrue(cache.isKnownDirectory("/a"));
+    Thread.sleep(100);
+    Assertions.assertNull(cache.get("/a", DirectoryCache.LIST));
+    Assertions.assertFalse(cache.isKnownDirectory("/a"));
+
+    DirectoryCache disabled = new DirectoryCache(8, 0);
+    disabled.put("/a", DirectoryCache.LIST, Collections.singletonList("x"));
+    Assertions.assertNull(disabled.get("/a", DirectoryCache.LIST));
+  }
+
+  @Test
+  void invalidation() {
+    DirectoryCache cache = new DirectoryCache();
+    cache.put("/", DirectoryCache.ENTRIES, Arrays.asList(
+      new FTPListEntry("docs", FTPListEntry.Type.DIRECTORY, 0, -1, null),
+      new FTPListEntry("notes.txt", FTPListEntry.Type.FILE, 3, -1, null)));
+    cache.put("/docs", DirectoryCache.NLST, Collections.singletonList("a.txt"));
+    cache.put("/docs/old", DirectoryCache.NLST, Collections.singletonList("b.txt"));
+    cache.put("/docsets", DirectoryCache.NLST, Collections.singletonList("c.txt"));
+    Assertions.assertTrue(cache.isKnownDirectory("/docs"));
+    Assertions.assertFalse(cache.isKnownDirectory("/notes.txt"));
+    cache.put("/notes.txt", DirectoryCache.LIST, Collections.singletonList("-rw-r--r-- 1 ftp ftp 3 Jan 1 notes.txt"));
+    Assertions.assertFalse(cache.isKnownDirectory("/notes.txt"));
+    Assertions.assertFalse(cache.isKnownDirectory("/docsets"));
+
+    cache.invalidate("/docs");
+    Assertions.assertNull(cache.get("/", DirectoryCache.ENTRIES));
+    Assertions.assertNull(cache.get("/docs", DirectoryCache.NLST));
+    Assertions.assertNull(cache.get("/docs/old", DirectoryCache.NLST));
+    Assertions.assertNotNull(cache.get("/docsets", DirectoryCache.NLST));
+  }
+}
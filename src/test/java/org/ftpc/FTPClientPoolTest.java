@@ -0,0 +1,98 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.*;
+import org.mockftpserver.fake.FakeFtpServer;
+
+import java.io.IOException;
+
+import static org.ftpc.TestFtpServer.HOST;
+import static org.ftpc.TestFtpServer.PASSWORD;
+import static org.ftpc.TestFtpServer.USER;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class FTPClientPoolTest {
+  private FakeFtpServer fakeFtpServer;
+  private FTPClientPool clientPool;
+  private int PORT;
+
+  @BeforeAll
+  public void setUp() {
+    fakeFtpServer = TestFtpServer.create();
+    fakeFtpServer.start();
+    PORT = fakeFtpServer.getServerControlPort();
+  }
+
+  @AfterAll
+  public void tearDown() {
+    fakeFtpServer.stop();
+  }
+
+  @BeforeEach
+  public void newPool() {
+    clientPool = new FTPClientPool(() -> new FTPClient("."), 2, 60000, 30000);
+  }
+
+  @AfterEach
+  public void closePool() {
+    clientPool.close();
+  }
+
+  @Test
+  public void reuseReleasedSession() throws IOException {
+    FTPClient first = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    clientPool.release(first);
+    Assertions.assertEquals(1, clientPool.getIdleCount());
+
+    FTPClient second = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    Assertions.assertSame(first, second);
+    Assertions.assertEquals(0, clientPool.getIdleCount());
+    clientPool.release(second);
+  }
+
+  @Test
+  public void invalidatedSessionIsClosed() throws IOException {
+    FTPClient first = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    clientPool.invalidate(first);
+    Assertions.assertFalse(first.isOpen());
+    Assertions.assertEquals(0, clientPool.getIdleCount());
+
+    FTPClient second = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    Assertions.assertNotSame(first, second);
+    clientPool.release(second);
+  }
+
+  @Test
+  public void brokenIdleSessionIsReplaced() throws IOException {
+    FTPClient first = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    clientPool.release(first);
+    first.disconnect();
+
+    FTPClient second = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    Assertions.assertNotSame(first, second);
+    Assertions.assertTrue(second.isOpen());
+    clientPool.release(second);
+  }
+
+  @Test
+  public void maxPerHost() throws IOException {
+    clientPool.setBorrowTimeout(200);
+    FTPClient first = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    FTPClient second = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+
+    Exception exception = Assertions.assertThrows(IOException.class, () -> clientPool.borrow(HOST, PORT, USER, PASSWORD));
+    Assertions.assertEquals("Timed out waiting for FTP session to " + HOST, exception.getMessage());
+
+    clientPool.release(first);
+    FTPClient third = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    Assertions.assertSame(first, third);
+    clientPool.release(second);
+    clientPool.release(third);
+  }
+
+  @Test
+  public void keepAliveNoop() throws IOException {
+    FTPClient ftpClient = clientPool.borrow(HOST, PORT, USER, PASSWORD);
+    ftpClient.noop();
+    clientPool.release(ftpClient);
+  }
+}
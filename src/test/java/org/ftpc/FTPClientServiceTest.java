@@ -1,6 +1,9 @@
 package org.ftpc;
 
 import org.junit.jupiter.api.*;
+import org.mockftpserver.core.command.Command;
+import org.mockftpserver.core.command.CommandHandler;
+import org.mockftpserver.core.session.Session;
 import org.mockftpserver.fake.FakeFtpServer;
 import org.mockftpserver.fake.UserAccount;
 import org.mockftpserver.fake.filesystem.DirectoryEntry;
@@ -9,9 +12,18 @@ import org.mockftpserver.fake.filesystem.FileSystem;
 import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 class FTPClientServiceTest {
@@ -44,7 +56,17 @@ class FTPClientServiceTest {
     fileSystem.add(new FileEntry(HOME_DIR + SUB_DIR + String.format(FILE_TEMPLATE, 1), CONTENT));
     fileSystem.add(new FileEntry(HOME_DIR + SUB_DIR + String.format(FILE_TEMPLATE, 2), CONTENT));
 
+    StringBuilder largeContent = new StringBuilder();
+    for (int line = 0; line < 1000; line++) {
+      largeContent.append(String.format("line %04d of the segmented file%n", line));
+    }
+    fileSystem.add(new FileEntry(HOME_DIR + "large.txt", largeContent.toString()));
+
     fakeFtpServer.setFileSystem(fileSystem);
+    fakeFtpServer.setCommandHandler("REST", new RestartCommandHandlers.Rest());
+    fakeFtpServer.setCommandHandler("RETR", new RestartCommandHandlers.Retr());
+    fakeFtpServer.setCommandHandler("SIZE", new RestartCommandHandlers.Size());
+    fakeFtpServer.setCommandHandler("STOR", new RestartCommandHandlers.Stor());
     fakeFtpServer.setServerControlPort(0);
     fakeFtpServer.start();
 
@@ -64,10 +86,16 @@ class FTPClientServiceTest {
     String HOST = "localhost";
     ftpClientService = new FTPClientService(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
     ftpClientService.setDownloadDir(DOWNLOAD_DIR);
+    try {
+      ftpClientService.setJournal(new TransferJournal(Paths.get(DOWNLOAD_DIR, "transfers.journal")));
+    } catch (IOException e) {
+      Assertions.fail(e);
+    }
   }
 
   @AfterAll
   void tearDown() {
+    ftpClientService.close();
     fakeFtpServer.stop();
   }
 
@@ -91,6 +119,188 @@ class FTPClientServiceTest {
     }
   }
 
+  @Test
+  void cachedListing() throws IOException {
+    DirectoryCache cache = ftpClientService.getDirectoryCache();
+    List<FTPListEntry> root = ftpClientService.listEntries("/");
+    Assertions.assertTrue(root.stream().anyMatch(entry -> entry.isDirectory() && entry.getName().equals("test")));
+
+    try {
+      Assertions.assertEquals("/test", ftpClientService.cwd("test"));
+      Assertions.assertEquals(2, ftpClientService.listEntries(".").size());
+      long hits = cache.getHitCount();
+      Assertions.assertEquals(2, ftpClientService.listEntries("/test/").size());
+      Assertions.assertEquals(hits + 1, cache.getHitCount());
+
+      File file = new File(getClass().getClassLoader().getResource("upload/test_file.txt").getFile());
+      ftpClientService.upload(Arrays.asList(file.getAbsolutePath()));
+      List<FTPListEntry> entries = ftpClientService.listEntries(".");
+      Assertions.assertTrue(entries.stream().anyMatch(entry -> entry.getName().equals("test_file.txt")
+        && entry.getSize() == file.length()));
+    } finally {
+      ftpClientService.cwd("/");
+    }
+  }
+
+  @Test
+  void listingSkipsBusyTransferSlots() throws Exception {
+    TransferScheduler scheduler = ftpClientService.getScheduler();
+    int concurrency = scheduler.getConcurrency();
+    CountDownLatch busy = new CountDownLatch(1);
+    scheduler.setConcurrency(1);
+    try {
+      CompletableFuture<Boolean> transfer = scheduler.submit("localhost", 0, () -> busy.await(10, TimeUnit.SECONDS));
+      ftpClientService.getDirectoryCache().invalidate("/test");
+      List<FTPListEntry> entries = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5),
+        () -> ftpClientService.listEntries("/test"));
+      Assertions.assertEquals(2, entries.size());
+      Assertions.assertFalse(transfer.isDone());
+    } finally {
+      busy.countDown();
+      scheduler.setConcurrency(concurrency);
+    }
+  }
+
+  @Test
+  void virtualModeRunsOneTransferPerSession() throws Exception {
+    Assumptions.assumeTrue(TransferScheduler.isVirtualThreadSupported());
+    FTPClientService service = new FTPClientService("localhost", fakeFtpServer.getServerControlPort(), "admin", "test");
+    try {
+      Assertions.assertEquals(TransferScheduler.ExecutionMode.VIRTUAL,
+        service.setExecutionMode(TransferScheduler.ExecutionMode.VIRTUAL));
+      int sessions = service.getClientPool().getMaxPerHost();
+      Assertions.assertTrue(sessions > TransferScheduler.DEFAULT_CONCURRENCY);
+      CountDownLatch running = new CountDownLatch(sessions);
+      List<CompletableFuture<Boolean>> transfers = new LinkedList<>();
+      for (int i = 0; i < sessions; i++) {
+        transfers.add(service.getScheduler().submit("localhost", 0, () -> {
+          running.countDown();
+          return running.await(5, TimeUnit.SECONDS);
+        }));
+      }
+      for (CompletableFuture<Boolean> transfer : transfers) {
+        Assertions.assertTrue(transfer.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      service.close();
+    }
+  }
+
+  @Test
+  void cwdIsCheckedByServer() throws IOException {
+    ftpClientService.listFiles("large.txt");
+    Assertions.assertEquals("/", ftpClientService.cwd("large.txt"));
+    Assertions.assertEquals("/", ftpClientService.cwd("missing_dir"));
+    Assertions.assertFalse(ftpClientService.listEntries(".").isEmpty());
+  }
+
+  @Test
+  void splitsBatchesBySize() throws IOException {
+    File dir = Files.createTempDirectory("ftpc-batches").toFile();
+    List<File> files = new LinkedList<>();
+    int[] sizes = {10, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 6, 4};
+    for (int i = 0; i < sizes.length; i++) {
+      File file = new File(dir, "file" + i);
+      Files.write(file.toPath(), new byte[sizes[i]]);
+      files.add(file);
+    }
+
+    List<List<File>> batches = FTPClientService.splitBatches(files, 3);
+    Assertions.assertEquals(3, batches.size());
+    int count = 0;
+    for (List<File> batch : batches) {
+      long batchSize = 0;
+      for (File file : batch) {
+        batchSize += file.length();
+      }
+      Assertions.assertEquals(10, batchSize);
+      count += batch.size();
+    }
+    Assertions.assertEquals(files.size(), count);
+    Assertions.assertTrue(FTPClientService.splitBatches(new LinkedList<>(), 3).isEmpty());
+  }
+
+  @Test
+  void syncDown() throws IOException {
+    File localDir = Files.createTempDirectory("ftpc-sync-down").toFile();
+
+    SyncResult result = ftpClientService.sync(localDir.getAbsolutePath(), "/test", TransferJournal.Direction.DOWNLOAD,
+      false);
+    Assertions.assertEquals(2, result.getTransferred());
+    Assertions.assertEquals(0, result.getFailed());
+    Assertions.assertEquals("Hello world!", new String(Files.readAllBytes(new File(localDir, "tmp1.txt").toPath())));
+
+    File extra = new File(localDir, "extra.txt");
+    Files.write(extra.toPath(), "extra".getBytes());
+    result = ftpClientService.sync(localDir.getAbsolutePath(), "/test", TransferJournal.Direction.DOWNLOAD, true);
+    Assertions.assertEquals(0, result.getTransferred());
+    Assertions.assertEquals(2, result.getUnchanged());
+    Assertions.assertEquals(1, result.getDeleted());
+    Assertions.assertFalse(extra.exists());
+  }
+
+  @Test
+  void asciiFiles() throws IOException {
+    File localDir = Files.createTempDirectory("ftpc-sync-ascii").toFile();
+    Files.write(new File(localDir, "notes.txt").toPath(), "first\nsecond\n".getBytes());
+    fakeFtpServer.getFileSystem().add(new FileEntry("/ascii/notes.txt", "first\r\nsecond\r\n"));
+
+    ftpClientService.setAsciiExtensions(Collections.singleton("TXT"));
+    try {
+      SyncResult result = ftpClientService.sync(localDir.getAbsolutePath(), "/ascii",
+        TransferJournal.Direction.DOWNLOAD, false);
+      Assertions.assertEquals(0, result.getTransferred());
+      Assertions.assertEquals(1, result.getUnchanged());
+      Assertions.assertNull(ftpClientService.downloadSegmented("large.txt"));
+      Assertions.assertNull(ftpClientService.uploadSegmented(new File(localDir, "notes.txt").getAbsolutePath()));
+    } finally {
+      ftpClientService.setAsciiExtensions(Collections.emptySet());
+    }
+  }
+
+  @Test
+  void syncUp() throws IOException {
+    File localDir = Files.createTempDirectory("ftpc-sync-up").toFile();
+    Files.write(new File(localDir, "a.txt").toPath(), "first".getBytes());
+    Assertions.assertTrue(new File(localDir, "sub/deeper").mkdirs());
+    Files.write(new File(localDir, "sub/deeper/b.txt").toPath(), "second file".getBytes());
+    fakeFtpServer.getFileSystem().add(new DirectoryEntry("/mirror"));
+    fakeFtpServer.getFileSystem().add(new DirectoryEntry("/mirror/stale"));
+    fakeFtpServer.getFileSystem().add(new FileEntry("/mirror/stale/old.txt", "old"));
+
+    SyncResult result = ftpClientService.sync(localDir.getAbsolutePath(), "/mirror", TransferJournal.Direction.UPLOAD,
+      true);
+    Assertions.assertEquals(2, result.getTransferred());
+    Assertions.assertEquals(2, result.getCreatedDirectories());
+    Assertions.assertEquals(2, result.getDeleted());
+    Assertions.assertEquals(0, result.getFailed());
+    FileEntry uploaded = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/mirror/sub/deeper/b.txt");
+    Assertions.assertArrayEquals("second file".getBytes(), RestartCommandHandlers.readContent(uploaded));
+    Assertions.assertFalse(fakeFtpServer.getFileSystem().exists("/mirror/stale"));
+
+    result = ftpClientService.sync(localDir.getAbsolutePath(), "/mirror", TransferJournal.Direction.UPLOAD, true);
+    Assertions.assertEquals(0, result.getTransferred());
+    Assertions.assertEquals(2, result.getUnchanged());
+    Assertions.assertEquals("/", ftpClientService.cwd("."));
+  }
+
+  @Test
+  void syncUpCreatesNestedRoot() throws IOException {
+    File localDir = Files.createTempDirectory("ftpc-sync-nested").toFile();
+    Files.write(new File(localDir, "c.txt").toPath(), "nested".getBytes());
+    fakeFtpServer.getFileSystem().add(new FileEntry("/blocked", "file"));
+
+    SyncResult result = ftpClientService.sync(localDir.getAbsolutePath(), "/deep/er/root",
+      TransferJournal.Direction.UPLOAD, false);
+    Assertions.assertEquals(1, result.getTransferred());
+    Assertions.assertEquals(0, result.getFailed());
+    Assertions.assertTrue(fakeFtpServer.getFileSystem().exists("/deep/er/root/c.txt"));
+
+    Assertions.assertThrows(IOException.class, () -> ftpClientService.sync(localDir.getAbsolutePath(),
+      "/blocked/root", TransferJournal.Direction.UPLOAD, false));
+    Assertions.assertFalse(fakeFtpServer.getFileSystem().exists("/blocked/root/c.txt"));
+  }
+
   @Test
   void download() {
     List<String> testFiles = new LinkedList<>();
@@ -104,4 +314,112 @@ class FTPClientServiceTest {
       Assertions.assertEquals(file1.getName(), fileName);
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  void downloadSegmented() throws IOException {
+    ftpClientService.setSegmentCount(3);
+    ftpClientService.setMinSegmentSize(1024);
+    File file = ftpClientService.downloadSegmented("large.txt");
+
+    FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/large.txt");
+    Assertions.assertNotNull(file);
+    Assertions.assertArrayEquals(RestartCommandHandlers.readContent(entry), Files.readAllBytes(file.toPath()));
+  }
+
+  @Test
+  void downloadSegmentedIntoNewDirectory() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 4096; i++) {
+      content.append((char) ('a' + i % 26));
+    }
+    fakeFtpServer.getFileSystem().add(new FileEntry("/parts/segments.bin", content.toString()));
+    ftpClientService.setSegmentCount(3);
+    ftpClientService.setMinSegmentSize(1024);
+    File target = new File(DOWNLOAD_DIR, "parts/segments.bin");
+    target.delete();
+    target.getParentFile().delete();
+
+    File file = ftpClientService.downloadSegmented("parts/segments.bin");
+    Assertions.assertNotNull(file);
+    Assertions.assertEquals(content.toString(), new String(Files.readAllBytes(file.toPath())));
+
+    CommandHandler retr = fakeFtpServer.getCommandHandler("RETR");
+    fakeFtpServer.setCommandHandler("RETR", new RestartCommandHandlers.Retr() {
+      @Override
+      protected void handle(Command command, Session session) {
+        if (session.getAttribute(RestartCommandHandlers.REST_ATTRIBUTE) != null) {
+          session.removeAttribute(RestartCommandHandlers.REST_ATTRIBUTE);
+          session.sendReply(451, "Segment refused.");
+          return;
+        }
+        super.handle(command, session);
+      }
+    });
+    try {
+      Assertions.assertNull(ftpClientService.downloadSegmented("parts/segments.bin"));
+      Assertions.assertFalse(target.exists());
+    } finally {
+      fakeFtpServer.setCommandHandler("RETR", retr);
+    }
+  }
+
+  @Test
+  void uploadSegmented() throws IOException {
+    File file = new File(Files.createTempDirectory("ftpc-supload").toFile(), "segmented.bin");
+    byte[] content = new byte[200 * 1024];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i * 31 + i / 1024);
+    }
+    Files.write(file.toPath(), content);
+    fakeFtpServer.getFileSystem().add(new FileEntry("/" + file.getName(), "stale content longer than nothing"));
+
+    fakeFtpServer.setCommandHandler("STOR", new RestartCommandHandlers.InPlaceStor());
+    try {
+      ftpClientService.setSegmentCount(4);
+      ftpClientService.setMinSegmentSize(16 * 1024);
+      Assertions.assertNotNull(ftpClientService.uploadSegmented(file.getAbsolutePath()));
+    } finally {
+      fakeFtpServer.setCommandHandler("STOR", new RestartCommandHandlers.Stor());
+    }
+
+    FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/" + file.getName());
+    Assertions.assertArrayEquals(content, RestartCommandHandlers.readContent(entry));
+  }
+
+  @Test
+  void resumeDownload() throws IOException {
+    final String FILE_NAME = "large.txt";
+    FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/" + FILE_NAME);
+    byte[] content = RestartCommandHandlers.readContent(entry);
+    File partial = new File(DOWNLOAD_DIR, FILE_NAME);
+    Files.write(partial.toPath(), Arrays.copyOf(content, 1000));
+
+    TransferJournal journal = ftpClientService.getJournal();
+    journal.checkpoint(TransferJournal.Direction.DOWNLOAD, "/" + FILE_NAME, partial.getAbsolutePath(), 1000, -1, 0);
+
+    List<String> testFiles = new LinkedList<>();
+    testFiles.add(FILE_NAME);
+    ftpClientService.download(testFiles);
+
+    Assertions.assertArrayEquals(content, Files.readAllBytes(partial.toPath()));
+    Assertions.assertNull(journal.get(TransferJournal.Direction.DOWNLOAD, "/" + FILE_NAME));
+  }
+
+  @Test
+  void resumeUpload() throws IOException {
+    File file = new File(getClass().getClassLoader().getResource("upload/test_file2.txt").getFile());
+    byte[] content = Files.readAllBytes(file.toPath());
+    fakeFtpServer.getFileSystem().delete("/" + file.getName());
+    fakeFtpServer.getFileSystem().add(new FileEntry("/" + file.getName(), "Same content"));
+
+    TransferJournal journal = ftpClientService.getJournal();
+    journal.checkpoint(TransferJournal.Direction.UPLOAD, "/" + file.getName(), file.getAbsolutePath(),
+      0, file.length(), file.lastModified());
+
+    ftpClientService.resumePending();
+
+    FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/" + file.getName());
+    Assertions.assertArrayEquals(content, RestartCommandHandlers.readContent(entry));
+    Assertions.assertTrue(journal.pending().isEmpty());
+  }
+}
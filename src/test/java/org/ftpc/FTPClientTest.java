@@ -1,6 +1,8 @@
 package org.ftpc;
 
 import org.junit.jupiter.api.*;
+import org.mockftpserver.core.command.CommandHandler;
+import org.mockftpserver.core.command.StaticReplyCommandHandler;
 import org.mockftpserver.fake.FakeFtpServer;
 import org.mockftpserver.fake.UserAccount;
 import org.mockftpserver.fake.filesystem.DirectoryEntry;
@@ -8,9 +10,15 @@ import org.mockftpserver.fake.filesystem.FileEntry;
 import org.mockftpserver.fake.filesystem.FileSystem;
 import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
@@ -18,6 +26,7 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 public class FTPClientTest {
   private FakeFtpServer fakeFtpServer;
   private FTPClient ftpClient;
+  private int buffersOutstanding;
   private int PORT;
   private final String USER = "admin";
   private final String PASSWORD = "test";
@@ -66,6 +75,8 @@ public class FTPClientTest {
     fileSystem.add(new DirectoryEntry(HOME_DIR + SUB_DIR_FOR_REMOVAL));
 
     fakeFtpServer.setFileSystem(fileSystem);
+    fakeFtpServer.setCommandHandler("FEAT", new ListingCommandHandlers.Feat());
+    fakeFtpServer.setCommandHandler("MLSD", new ListingCommandHandlers.Mlsd());
     fakeFtpServer.setServerControlPort(0);
     fakeFtpServer.start();
 
@@ -80,6 +91,13 @@ public class FTPClientTest {
   public void newFTPClient() {
     ftpClient = new FTPClient(DOWNLOAD_DIR);
     PORT = fakeFtpServer.getServerControlPort();
+    buffersOutstanding = DirectBufferPool.shared().getOutstanding();
+  }
+
+  @AfterEach
+  public void checkBuffers() {
+    Assertions.assertEquals(buffersOutstanding, DirectBufferPool.shared().getOutstanding(),
+      () -> "Leaked buffers: " + DirectBufferPool.shared().getLeaks());
   }
 
   @Test
@@ -153,6 +171,82 @@ public class FTPClientTest {
     );
   }
 
+  @Test
+  public void uploadContent() throws IOException {
+    final String TEST_FILE = "upload/test_file1.txt";
+
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+    ftpClient.getDataTransfer().setZeroCopy(false);
+    File file = new File(getClass().getClassLoader().getResource(TEST_FILE).getFile());
+    ftpClient.upload(file);
+
+    FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/" + file.getName());
+    Assertions.assertArrayEquals(Files.readAllBytes(file.toPath()), readEntry(entry));
+  }
+
+  @Test
+  public void uploadMapped() throws IOException {
+    final String TEST_FILE = "upload/test_file2.txt";
+
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+    ftpClient.getDataTransfer().setZeroCopy(false);
+    ftpClient.getDataTransfer().setChunkSize(4);
+    File file = new File(getClass().getClassLoader().getResource(TEST_FILE).getFile());
+    ftpClient.upload(file);
+
+    FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/" + file.getName());
+    Assertions.assertArrayEquals(Files.readAllBytes(file.toPath()), readEntry(entry));
+  }
+
+  @Test
+  public void uploadBatch() throws IOException {
+    File batchDir = Files.createTempDirectory("ftpc-batch").toFile();
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      File file = new File(batchDir, String.format("batch%d.txt", i));
+      Files.write(file.toPath(), String.format("small file %d", i).getBytes());
+      files.add(file);
+    }
+
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+    List<File> uploaded = new ArrayList<>();
+    ftpClient.uploadBatch(files, uploaded::add);
+
+    Assertions.assertEquals(files, uploaded);
+    for (File file : files) {
+      FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/" + file.getName());
+      Assertions.assertArrayEquals(Files.readAllBytes(file.toPath()), readEntry(entry));
+    }
+    Assertions.assertEquals(HOME_DIR, ftpClient.getCurrentWorkingDir());
+  }
+
+  @Test
+  public void transferTypes() throws IOException {
+    fakeFtpServer.getFileSystem().add(new FileEntry("/lines.log", "one\ntwo\r\nthree\n"));
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+
+    File binary = ftpClient.download("lines.log");
+    Assertions.assertEquals("one\ntwo\r\nthree\n", new String(Files.readAllBytes(binary.toPath())));
+
+    ftpClient.setAsciiExtensions(Collections.singleton("LOG"));
+    Assertions.assertEquals(TransferType.ASCII, ftpClient.transferTypeFor("lines.log"));
+    File ascii = ftpClient.download("lines.log");
+    String separator = System.lineSeparator();
+    Assertions.assertEquals("one" + separator + "two" + separator + "three" + separator,
+      new String(Files.readAllBytes(ascii.toPath())));
+
+    File upload = new File(Files.createTempDirectory("ftpc-ascii").toFile(), "notes.log");
+    Files.write(upload.toPath(), "a\nb\r\nc".getBytes());
+    ftpClient.upload(upload);
+    FileEntry stored = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/notes.log");
+    Assertions.assertEquals("a\r\nb\r\nc", new String(readEntry(stored)));
+
+    ftpClient.setTransferType(TransferType.BINARY);
+    ftpClient.upload(upload);
+    stored = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/notes.log");
+    Assertions.assertEquals("a\nb\r\nc", new String(readEntry(stored)));
+  }
+
   @Test
   public void download() throws IOException {
 
@@ -169,6 +263,168 @@ public class FTPClientTest {
       exception.getMessage());
   }
 
+  @Test
+  public void downloadContent() throws IOException {
+    final String TEST_FILE = "tmp4.txt";
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+
+    File zeroCopy = ftpClient.download(TEST_FILE);
+    Assertions.assertEquals("Hello world!", new String(Files.readAllBytes(zeroCopy.toPath())));
+
+    ftpClient.getDataTransfer().setZeroCopy(false);
+    File buffered = ftpClient.download(TEST_FILE);
+    Assertions.assertEquals("Hello world!", new String(Files.readAllBytes(buffered.toPath())));
+  }
+
+  @Test
+  public void rejectedRestart() throws IOException {
+    CommandHandler rest = fakeFtpServer.getCommandHandler("REST");
+    fakeFtpServer.setCommandHandler("REST", new StaticReplyCommandHandler(502, "Command not implemented."));
+    try {
+      ftpClient.connect(HOST, PORT, USER, PASSWORD);
+      File target = new File(DOWNLOAD_DIR, "restart.txt");
+      Exception exception = Assertions.assertThrows(IOException.class,
+        () -> ftpClient.download("tmp4.txt", target, 6, null));
+      Assertions.assertEquals("502 Command not implemented.", exception.getMessage());
+
+      ftpClient.noop();
+      File file = ftpClient.download("tmp4.txt");
+      Assertions.assertEquals("Hello world!", new String(Files.readAllBytes(file.toPath())));
+    } finally {
+      fakeFtpServer.setCommandHandler("REST", rest);
+    }
+  }
+
+  @Test
+  public void metrics() throws IOException {
+    TransferMetrics metrics = new TransferMetrics();
+    ftpClient.setMetrics(metrics);
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+    ftpClient.download("tmp3.txt");
+    Assertions.assertThrows(IOException.class, () -> ftpClient.setWorkingDir("missing_dir"));
+
+    Assertions.assertEquals(1, metrics.getCommandLatency(TransferMetrics.CONNECT, HOST).getCount());
+    Assertions.assertEquals(1, metrics.getCommandLatency("PASV", HOST).getCount());
+    Assertions.assertEquals(1, metrics.getCommandLatency("RETR", HOST).getCount());
+    Assertions.assertEquals(12L, metrics.getBytesTransferred().get("RETR@" + HOST));
+    Assertions.assertEquals(0, metrics.getTransfersInFlight().get("RETR@" + HOST));
+    Assertions.assertEquals(1, metrics.getFailures(HOST, 550));
+  }
+
+  @Test
+  public void activeMode() throws IOException {
+    DataListenerPool listenerPool = new DataListenerPool(0, 0, 4);
+    ftpClient.setListenerPool(listenerPool);
+    ftpClient.setDataConnectionMode(DataConnectionMode.ACTIVE);
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+    try {
+      File file = ftpClient.download("tmp2.txt");
+      Assertions.assertEquals("Hello world!", new String(Files.readAllBytes(file.toPath())));
+      Assertions.assertEquals(2, ftpClient.getListEntriesNLST(SUB_DIR).size());
+      Assertions.assertThrows(IOException.class, () -> ftpClient.download("randomFileName.txt"));
+
+      File batchDir = Files.createTempDirectory("ftpc-active").toFile();
+      List<File> files = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        File batchFile = new File(batchDir, String.format("active%d.txt", i));
+        Files.write(batchFile.toPath(), String.format("active file %d", i).getBytes());
+        files.add(batchFile);
+      }
+      ftpClient.uploadBatch(files, uploaded -> { });
+      for (File batchFile : files) {
+        FileEntry entry = (FileEntry) fakeFtpServer.getFileSystem().getEntry("/" + batchFile.getName());
+        Assertions.assertArrayEquals(Files.readAllBytes(batchFile.toPath()), readEntry(entry));
+      }
+      Assertions.assertEquals(1, listenerPool.getIdle());
+    } finally {
+      listenerPool.close();
+    }
+  }
+
+  @Test
+  public void extendedPassiveMode() throws IOException {
+    TransferMetrics metrics = new TransferMetrics();
+    ftpClient.setMetrics(metrics);
+    ftpClient.setDataConnectionMode(DataConnectionMode.EPSV);
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+
+    File file = ftpClient.download("tmp2.txt");
+    Assertions.assertEquals("Hello world!", new String(Files.readAllBytes(file.toPath())));
+    Assertions.assertEquals(2, ftpClient.getListEntries(SUB_DIR).size());
+    Assertions.assertEquals(2, metrics.getCommandLatency("EPSV", HOST).getCount());
+    Assertions.assertNull(metrics.getCommandLatency("PASV", HOST));
+  }
+
+  @Test
+  public void autoModeFallsBackToPasv() throws IOException {
+    CommandHandler feat = fakeFtpServer.getCommandHandler("FEAT");
+    CommandHandler epsv = fakeFtpServer.getCommandHandler("EPSV");
+    fakeFtpServer.setCommandHandler("FEAT", new StaticReplyCommandHandler(211, "Features:\n EPSV\n SIZE\nEnd"));
+    fakeFtpServer.setCommandHandler("EPSV", new StaticReplyCommandHandler(502, "Command not implemented."));
+    try {
+      TransferMetrics metrics = new TransferMetrics();
+      ftpClient.setMetrics(metrics);
+      ftpClient.connect(HOST, PORT, USER, PASSWORD);
+      ftpClient.download("tmp2.txt");
+      ftpClient.download("tmp3.txt");
+
+      Assertions.assertEquals(1, metrics.getCommandLatency("EPSV", HOST).getCount());
+      Assertions.assertEquals(2, metrics.getCommandLatency("PASV", HOST).getCount());
+    } finally {
+      fakeFtpServer.setCommandHandler("FEAT", feat);
+      fakeFtpServer.setCommandHandler("EPSV", epsv);
+    }
+  }
+
+  @Test
+  public void listEntries() throws IOException {
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+
+    Assertions.assertEquals(2, ftpClient.getListEntries(SUB_DIR).size());
+    Assertions.assertEquals(2, ftpClient.getListEntriesNLST(SUB_DIR).size());
+    Assertions.assertEquals(HOME_DIR + SUB_DIR, ftpClient.setWorkingDir(SUB_DIR));
+  }
+
+  @Test
+  public void listTypedEntries() throws IOException {
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+    Assertions.assertTrue(ftpClient.hasFeature("mlst"));
+    Assertions.assertTrue(ftpClient.hasFeature("REST"));
+
+    List<FTPListEntry> entries = new ArrayList<>();
+    ftpClient.listEntries(HOME_DIR, entries::add);
+
+    FTPListEntry file = entries.stream().filter(entry -> entry.getName().equals("tmp3.txt")).findFirst().get();
+    Assertions.assertTrue(file.isFile());
+    Assertions.assertEquals(12, file.getSize());
+    Assertions.assertTrue(file.getModified() > 0);
+    Assertions.assertTrue(entries.stream().anyMatch(entry -> entry.isDirectory() && entry.getName().equals(SUB_DIR)));
+    Assertions.assertFalse(entries.stream().anyMatch(entry -> entry.getName().equals(".")));
+    Assertions.assertEquals(HOME_DIR + SUB_DIR, ftpClient.setWorkingDir(SUB_DIR));
+  }
+
+  @Test
+  public void pipeline() throws IOException {
+    ftpClient.connect(HOST, PORT, USER, PASSWORD);
+
+    List<String> commands = new ArrayList<>();
+    for (int i = 0; i < FTPClient.PIPELINE_DEPTH; i++) {
+      commands.add("CWD " + SUB_DIR);
+      commands.add("PWD");
+      commands.add("CWD ..");
+    }
+    commands.add("CWD invalid_dir");
+    commands.add("NOOP");
+
+    List<FTPReply> replies = ftpClient.pipeline(commands);
+    Assertions.assertEquals(commands.size(), replies.size());
+    Assertions.assertEquals(250, replies.get(0).getCode());
+    Assertions.assertTrue(replies.get(1).getText().contains("\"" + HOME_DIR + SUB_DIR + "\""));
+    Assertions.assertEquals(550, replies.get(commands.size() - 2).getCode());
+    Assertions.assertEquals(200, replies.get(commands.size() - 1).getCode());
+    Assertions.assertEquals(HOME_DIR, ftpClient.getCurrentWorkingDir());
+  }
+
   @Test
   public void currentWorkingDir() throws IOException {
     ftpClient.connect(HOST, PORT, USER, PASSWORD);
@@ -192,6 +448,22 @@ public class FTPClientTest {
     Assertions.assertEquals(String.format("550 [/%s] does not exist.", INVALID_DIR), exception.getMessage());
   }
 
+  @Test
+  public void changeWorkingDirReadsBackPath() throws IOException {
+    CommandHandler cwd = fakeFtpServer.getCommandHandler("CWD");
+    fakeFtpServer.setCommandHandler("CWD", new ListingCommandHandlers.Cwd());
+    try {
+      ftpClient.connect(HOST, PORT, USER, PASSWORD);
+      Assertions.assertEquals(HOME_DIR + SUB_DIR, ftpClient.setWorkingDir(SUB_DIR));
+      Assertions.assertEquals(HOME_DIR + SUB_DIR, ftpClient.getWorkingDir());
+      Assertions.assertEquals(HOME_DIR, ftpClient.setWorkingDir(".."));
+      Assertions.assertThrows(IOException.class, () -> ftpClient.setWorkingDir("invalid_dir"));
+      Assertions.assertEquals(HOME_DIR, ftpClient.getWorkingDir());
+    } finally {
+      fakeFtpServer.setCommandHandler("CWD", cwd);
+    }
+  }
+
   @Test
   public void makeDir() throws IOException {
     final String NEW_DIR = "new_dir";
@@ -223,4 +495,16 @@ public class FTPClientTest {
 
     Assertions.assertEquals(String.format("550 [/%s] does not exist.", NON_EXISTING_DIR), exception.getMessage());
   }
+
+  private byte[] readEntry(FileEntry entry) throws IOException {
+    try (InputStream in = entry.createInputStream()) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    }
+  }
 }
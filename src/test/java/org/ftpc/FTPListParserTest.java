@@ -0,0 +1,61 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+class FTPListParserTest {
+
+  private static long utc(int year, int month, int day, int hour, int minute) {
+    return LocalDateTime.of(year, month, day, hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
+  @Test
+  void unixListing() {
+    FTPListEntry file = FTPListParser.parseList("-rw-r--r--   1 owner    group        1234 Mar 04  2019 my file.txt");
+    Assertions.assertEquals("my file.txt", file.getName());
+    Assertions.assertEquals(FTPListEntry.Type.FILE, file.getType());
+    Assertions.assertEquals(1234, file.getSize());
+    Assertions.assertEquals(utc(2019, 3, 4, 0, 0), file.getModified());
+    Assertions.assertEquals("-rw-r--r--", file.getPermissions());
+
+    FTPListEntry dir = FTPListParser.parseList("drwxr-xr-x 2 ftp 4096 Jan 1 00:00 docs");
+    Assertions.assertEquals("docs", dir.getName());
+    Assertions.assertTrue(dir.isDirectory());
+    Assertions.assertTrue(dir.getModified() <= System.currentTimeMillis() + 24 * 60 * 60 * 1000);
+
+    FTPListEntry link = FTPListParser.parseList("lrwxrwxrwx 1 root root 7 Dec 31 2020 latest -> v1.2.3");
+    Assertions.assertEquals("latest", link.getName());
+    Assertions.assertEquals(FTPListEntry.Type.LINK, link.getType());
+
+    Assertions.assertNull(FTPListParser.parseList("total 12"));
+  }
+
+  @Test
+  void dosListing() {
+    FTPListEntry dir = FTPListParser.parseList("01-31-20  02:15PM       <DIR>          Program Files");
+    Assertions.assertEquals("Program Files", dir.getName());
+    Assertions.assertTrue(dir.isDirectory());
+    Assertions.assertEquals(utc(2020, 1, 31, 14, 15), dir.getModified());
+
+    FTPListEntry file = FTPListParser.parseList("12-01-2019  12:05AM                 5120 report.doc");
+    Assertions.assertEquals(5120, file.getSize());
+    Assertions.assertEquals(utc(2019, 12, 1, 0, 5), file.getModified());
+  }
+
+  @Test
+  void machineListing() {
+    FTPListEntry file = FTPListParser.parseMlsd("type=file;size=42;modify=20200101123045.250;UNIX.mode=0644; a b.txt");
+    Assertions.assertEquals("a b.txt", file.getName());
+    Assertions.assertTrue(file.isFile());
+    Assertions.assertEquals(42, file.getSize());
+    Assertions.assertEquals(utc(2020, 1, 1, 12, 30) + 45250, file.getModified());
+    Assertions.assertEquals("0644", file.getPermissions());
+
+    Assertions.assertTrue(FTPListParser.parseMlsd("Type=dir;Perm=flcdmpe; sub").isDirectory());
+    Assertions.assertNull(FTPListParser.parseMlsd("type=cdir; ."));
+    Assertions.assertEquals(-1, FTPListParser.parseTimeVal("2020"));
+  }
+}
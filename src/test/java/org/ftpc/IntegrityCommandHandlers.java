@@ -0,0 +1,82 @@
+package org.ftpc;
+
+import org.mockftpserver.core.command.Command;
+import org.mockftpserver.core.command.ReplyCodes;
+import org.mockftpserver.core.session.Session;
+import org.mockftpserver.fake.command.AbstractFakeCommandHandler;
+import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.fake.filesystem.FileSystemEntry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+//  Command handlers for FakeFtpServer, which knows neither HASH nor the X-hash commands.
+class IntegrityCommandHandlers {
+
+  static class Feat extends AbstractFakeCommandHandler {
+    volatile String features = " HASH SHA-256*;MD5;CRC32\n SIZE";
+
+    @Override
+    protected void handle(Command command, Session session) {
+      session.sendReply(211, "Features:\n" + features + "\nEnd");
+    }
+  }
+
+  //  Replies like HASH, "213 <algorithm> <start>-<end> <hash> <path>", or like XCRC with "250 <hash>"
+
+  static class Hash extends AbstractFakeCommandHandler {
+    private final HashAlgorithm algorithm;
+    private final boolean extended;
+
+    Hash(HashAlgorithm algorithm, boolean extended) {
+      this.algorithm = algorithm;
+      this.extended = extended;
+    }
+
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      FileSystemEntry entry = getFileSystem().getEntry(path);
+      if (entry == null || entry.isDirectory()) {
+        session.sendReply(550, "[" + path + "] does not exist.");
+        return;
+      }
+      byte[] content = RestartCommandHandlers.readContent((FileEntry) entry);
+      FileDigest digest = new FileDigest(algorithm);
+      digest.update(content, 0, content.length);
+      if (extended) {
+        session.sendReply(213, String.format("%s 0-%d %s %s", algorithm.getHashName(), content.length,
+          digest.getValue(), path));
+      } else {
+        session.sendReply(250, digest.getValue().toUpperCase());
+      }
+    }
+  }
+
+  //  Flips one byte in the first corruptions transfers
+
+  static class CorruptingRetr extends AbstractFakeCommandHandler {
+    final AtomicInteger corruptions = new AtomicInteger();
+    final AtomicInteger transfers = new AtomicInteger();
+
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      FileSystemEntry entry = getFileSystem().getEntry(path);
+      verifyFileSystemCondition(entry != null, path, "filesystem.doesNotExist");
+
+      byte[] data = RestartCommandHandlers.readContent((FileEntry) entry);
+      transfers.incrementAndGet();
+      if (corruptions.getAndDecrement() > 0 && data.length > 0) {
+        data[data.length / 2] ^= 0x20;
+      }
+
+      sendReply(session, ReplyCodes.TRANSFER_DATA_INITIAL_OK);
+      session.openDataConnection();
+      session.sendData(data, data.length);
+      session.closeDataConnection();
+      sendReply(session, ReplyCodes.TRANSFER_DATA_FINAL_OK);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.*;
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.filesystem.FileEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.ftpc.TestFtpServer.HOST;
+import static org.ftpc.TestFtpServer.PASSWORD;
+import static org.ftpc.TestFtpServer.USER;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class IntegrityTest {
+  private final String FEATURES = " HASH SHA-256*;MD5;CRC32\n SIZE";
+  private FakeFtpServer fakeFtpServer;
+  private IntegrityCommandHandlers.Feat feat;
+  private IntegrityCommandHandlers.CorruptingRetr retr;
+  private File workDir;
+  private String content;
+
+  @BeforeAll
+  void setUp() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    for (int line = 0; line < 200; line++) {
+      builder.append(String.format("checked line %03d%n", line));
+    }
+    content = builder.toString();
+
+    fakeFtpServer = TestFtpServer.create();
+    fakeFtpServer.getFileSystem().add(new FileEntry("/data.txt", content));
+    feat = new IntegrityCommandHandlers.Feat();
+    retr = new IntegrityCommandHandlers.CorruptingRetr();
+    fakeFtpServer.setCommandHandler("FEAT", feat);
+    fakeFtpServer.setCommandHandler("HASH", new IntegrityCommandHandlers.Hash(HashAlgorithm.SHA_256, true));
+    fakeFtpServer.setCommandHandler("XCRC", new IntegrityCommandHandlers.Hash(HashAlgorithm.CRC32, false));
+    fakeFtpServer.setCommandHandler("RETR", retr);
+    fakeFtpServer.setCommandHandler("SIZE", new RestartCommandHandlers.Size());
+    fakeFtpServer.start();
+    workDir = Files.createTempDirectory("ftpc-integrity").toFile();
+  }
+
+  @AfterAll
+  void tearDown() {
+    fakeFtpServer.stop();
+  }
+
+  @AfterEach
+  void restoreServer() {
+    feat.features = FEATURES;
+    retr.corruptions.set(0);
+    ((FileEntry) fakeFtpServer.getFileSystem().getEntry("/data.txt")).setContents(content);
+  }
+
+  @Test
+  void digests() {
+    byte[] hello = "Hello world!".getBytes();
+    FileDigest sha = new FileDigest(HashAlgorithm.SHA_256);
+    sha.update(hello, 0, 6);
+    sha.update(hello, 6, hello.length - 6);
+    Assertions.assertEquals("c0535e4be2b79ffd93291305436bf889314e4a3faec05ecffcbb7df31ad9e51a", sha.getValue());
+
+    FileDigest crc = new FileDigest(HashAlgorithm.CRC32);
+    crc.update(hello, 0, hello.length);
+    Assertions.assertEquals("1b851995", crc.getValue());
+    Assertions.assertTrue(FileDigest.matches(HashAlgorithm.CRC32, "1B851995", crc.getValue()));
+    Assertions.assertTrue(FileDigest.matches(HashAlgorithm.CRC32, "ff", "000000FF"));
+  }
+
+  @Test
+  void hashVerification() throws IOException {
+    FTPClient ftpClient = connect();
+    Assertions.assertEquals(HashAlgorithm.SHA_256, ftpClient.getHashAlgorithm());
+
+    FileDigest digest = ftpClient.newDigest("data.txt");
+    File file = ftpClient.download("data.txt", new File(workDir, "data.txt"), 0, null, digest);
+    Assertions.assertTrue(ftpClient.verify("data.txt", file, digest));
+
+    digest = ftpClient.newDigest("data.txt");
+    ftpClient.download("data.txt", file, 0, null, digest);
+    ((FileEntry) fakeFtpServer.getFileSystem().getEntry("/data.txt")).setContents(content.toUpperCase());
+    Assertions.assertFalse(ftpClient.verify("data.txt", file, digest));
+
+    ftpClient.setAsciiExtensions(Collections.singleton("txt"));
+    Assertions.assertNull(ftpClient.newDigest("data.txt"));
+    ftpClient.disconnect();
+  }
+
+  @Test
+  void fallbacks() throws IOException {
+    feat.features = " XCRC\n SIZE";
+    FTPClient ftpClient = connect();
+    Assertions.assertEquals(HashAlgorithm.CRC32, ftpClient.getHashAlgorithm());
+    FileDigest digest = ftpClient.newDigest("data.txt");
+    File file = ftpClient.download("data.txt", new File(workDir, "crc.txt"), 0, null, digest);
+    Assertions.assertTrue(ftpClient.verify("data.txt", file, digest));
+    ftpClient.disconnect();
+
+    feat.features = " SIZE";
+    TransferMetrics metrics = new TransferMetrics();
+    ftpClient = new FTPClient(workDir.getAbsolutePath());
+    ftpClient.setMetrics(metrics);
+    ftpClient.connect(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+    Assertions.assertNull(ftpClient.newDigest("data.txt"));
+    file = ftpClient.download("data.txt", new File(workDir, "size.txt"), 0, null, null);
+    Assertions.assertTrue(ftpClient.verify("data.txt", file, null));
+    Assertions.assertEquals(1, metrics.getCommandLatency("SIZE", HOST).getCount());
+    Assertions.assertTrue(ftpClient.verify("data.txt", file, null, content.length()));
+    Assertions.assertEquals(1, metrics.getCommandLatency("SIZE", HOST).getCount());
+    Assertions.assertTrue(file.delete());
+    Assertions.assertTrue(file.createNewFile());
+    Assertions.assertFalse(ftpClient.verify("data.txt", file, null));
+    Assertions.assertFalse(ftpClient.verify("data.txt", file, null, content.length()));
+    ftpClient.disconnect();
+  }
+
+  @Test
+  void corruptDownloadIsRetried() throws IOException {
+    FTPClientService ftpClientService = new FTPClientService(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+    try {
+      ftpClientService.setDownloadDir(workDir.getAbsolutePath());
+      ftpClientService.setJournal(new TransferJournal(Paths.get(workDir.getAbsolutePath(), "transfers.journal")));
+      ftpClientService.setJournalThreshold(0);
+
+      retr.corruptions.set(1);
+      int transfers = retr.transfers.get();
+      ftpClientService.download(Collections.singletonList("data.txt"));
+      Assertions.assertEquals(transfers + 2, retr.transfers.get());
+      Assertions.assertEquals(content, new String(Files.readAllBytes(new File(workDir, "data.txt").toPath())));
+
+      retr.corruptions.set(10);
+      transfers = retr.transfers.get();
+      ftpClientService.download(Collections.singletonList("data.txt"));
+      Assertions.assertEquals(transfers + 1 + FTPClientService.DEFAULT_VERIFY_RETRIES, retr.transfers.get());
+      Assertions.assertEquals(1, ftpClientService.getJournal().pending().size());
+    } finally {
+      ftpClientService.close();
+    }
+  }
+
+  private FTPClient connect() throws IOException {
+    FTPClient ftpClient = new FTPClient(workDir.getAbsolutePath());
+    ftpClient.connect(HOST, fakeFtpServer.getServerControlPort(), USER, PASSWORD);
+    return ftpClient;
+  }
+}
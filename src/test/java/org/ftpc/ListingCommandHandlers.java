@@ -0,0 +1,62 @@
+package org.ftpc;
+
+import org.mockftpserver.core.command.Command;
+import org.mockftpserver.core.command.ReplyCodes;
+import org.mockftpserver.core.session.Session;
+import org.mockftpserver.core.session.SessionKeys;
+import org.mockftpserver.fake.command.AbstractFakeCommandHandler;
+import org.mockftpserver.fake.filesystem.FileSystemEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.TimeZone;
+
+//  Command handlers for FakeFtpServer, which knows neither FEAT nor MLSD.
+class ListingCommandHandlers {
+
+  //  Replies like vsftpd, without the new directory in the text
+  static class Cwd extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      verifyFileSystemCondition(getFileSystem().isDirectory(path), path, "filesystem.isNotADirectory");
+      session.setAttribute(SessionKeys.CURRENT_DIRECTORY, path);
+      session.sendReply(250, "Directory successfully changed.");
+    }
+  }
+
+  static class Feat extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      session.sendReply(211, "Features:\n MLST type*;size*;modify*;\n SIZE\n REST STREAM\nEnd");
+    }
+  }
+
+  static class Mlsd extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getOptionalString(0));
+      verifyFileSystemCondition(getFileSystem().isDirectory(path), path, "filesystem.isNotADirectory");
+
+      SimpleDateFormat timeVal = new SimpleDateFormat("yyyyMMddHHmmss");
+      timeVal.setTimeZone(TimeZone.getTimeZone("UTC"));
+      StringBuilder listing = new StringBuilder("type=cdir;modify=20200101000000; .\r\n");
+      for (Object file : (List<?>) getFileSystem().listFiles(path)) {
+        FileSystemEntry entry = (FileSystemEntry) file;
+        listing.append(String.format("type=%s;size=%d;modify=%s;unix.mode=0644; %s\r\n",
+          entry.isDirectory() ? "dir" : "file", entry.getSize(), timeVal.format(entry.getLastModified()),
+          entry.getName()));
+      }
+      byte[] data = listing.toString().getBytes(StandardCharsets.UTF_8);
+
+      sendReply(session, ReplyCodes.TRANSFER_DATA_INITIAL_OK);
+      session.openDataConnection();
+      session.sendData(data, data.length);
+      session.closeDataConnection();
+      sendReply(session, ReplyCodes.TRANSFER_DATA_FINAL_OK);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+class RateLimiterTest {
+
+  @Test
+  void limitsRate() throws IOException {
+    RateLimiter unlimited = new RateLimiter();
+    long start = System.nanoTime();
+    for (int i = 0; i < 1000; i++) {
+      unlimited.acquire(1024 * 1024);
+    }
+    Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+
+    RateLimiter limiter = new RateLimiter(1024 * 1024);
+    start = System.nanoTime();
+    for (int i = 0; i < 6; i++) {
+      limiter.acquire(64 * 1024);
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Assertions.assertTrue(elapsed >= 200, "elapsed " + elapsed);
+    Assertions.assertTrue(elapsed < 2000, "elapsed " + elapsed);
+  }
+
+  @Test
+  void streamsFollowParentRate() {
+    RateLimiter perTransfer = new RateLimiter();
+    RateLimiter stream = perTransfer.newStream();
+    Assertions.assertFalse(stream.isLimited());
+    perTransfer.setRate(4096);
+    Assertions.assertEquals(4096, stream.getRate());
+    Assertions.assertThrows(IllegalStateException.class, () -> stream.setRate(1));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> perTransfer.setRate(-1));
+  }
+
+  @Test
+  void sharesFairly() throws Exception {
+    RateLimiter limiter = new RateLimiter(2 * 1024 * 1024);
+    AtomicBoolean running = new AtomicBoolean(true);
+    AtomicLong first = new AtomicLong();
+    AtomicLong second = new AtomicLong();
+    CompletableFuture<Void> one = CompletableFuture.runAsync(() -> consume(limiter, running, first, 16 * 1024));
+    CompletableFuture<Void> two = CompletableFuture.runAsync(() -> consume(limiter, running, second, 16 * 1024));
+    Thread.sleep(600);
+    running.set(false);
+    one.get();
+    two.get();
+    double share = (double) first.get() / (first.get() + second.get());
+    Assertions.assertTrue(share > 0.35 && share < 0.65, "share " + share);
+  }
+
+  @Test
+  void throttlesDataTransfer() throws IOException {
+    File file = File.createTempFile("ftpc-throttle", ".bin");
+    Files.write(file.toPath(), new byte[256 * 1024]);
+    DataTransfer dataTransfer = new DataTransfer();
+    dataTransfer.setRateLimiter(new RateLimiter(1024 * 1024));
+    dataTransfer.setTransferRateLimiter(new RateLimiter(512 * 1024));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      Assertions.assertEquals(file.length(), dataTransfer.send(channel, 0, channel.size(), Channels.newChannel(out)));
+    }
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    Assertions.assertEquals(file.length(), out.size());
+    Assertions.assertTrue(elapsed >= 300, "elapsed " + elapsed);
+    Assertions.assertTrue(file.delete());
+  }
+
+  private static void consume(RateLimiter limiter, AtomicBoolean running, AtomicLong total, int chunk) {
+    try {
+      while (running.get()) {
+        limiter.acquire(chunk);
+        total.addAndGet(chunk);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class ReplyDecoderTest {
+
+  private static ReplyDecoder decoder(String replies) {
+    return new ReplyDecoder(new ByteArrayInputStream(replies.getBytes(StandardCharsets.US_ASCII)),
+      StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  void singleLineReplies() throws IOException {
+    ReplyDecoder decoder = decoder("220 Service ready\r\n150 Opening\r\n226 Closing\n");
+
+    FTPReply reply = decoder.next();
+    Assertions.assertEquals(220, reply.getCode());
+    Assertions.assertEquals("220 Service ready", reply.getText());
+    Assertions.assertEquals("Service ready", reply.getMessage());
+    Assertions.assertTrue(decoder.next().isPreliminary());
+    Assertions.assertTrue(decoder.next().isPositiveCompletion());
+    Assertions.assertNull(decoder.next());
+  }
+
+  @Test
+  void multiLineReplies() throws IOException {
+    ReplyDecoder decoder = decoder(
+      "220-Welcome\r\n220-still banner\r\n 220 indented text\r\n220 Ready\r\n" +
+      "211-Features:\r\n MDTM\r\n SIZE\r\n211 End\r\n" +
+      "200 NOOP ok\r\n");
+
+    FTPReply banner = decoder.next();
+    Assertions.assertEquals(220, banner.getCode());
+    Assertions.assertTrue(banner.isMultiLine());
+    Assertions.assertEquals(4, banner.getLines().size());
+
+    FTPReply features = decoder.next();
+    Assertions.assertEquals(211, features.getCode());
+    Assertions.assertEquals(4, features.getLines().size());
+    Assertions.assertEquals(" SIZE", features.getLines().get(2));
+
+    Assertions.assertEquals(200, decoder.next().getCode());
+  }
+
+  @Test
+  void longReplySpansBuffers() throws IOException {
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      message.append('x');
+    }
+    ReplyDecoder decoder = decoder("214-" + message + "\r\n214 " + message + "\r\n");
+
+    Assertions.assertEquals(2 * (message.length() + 4) + 1, decoder.next().getText().length());
+  }
+
+  @Test
+  void malformedAndTruncatedReplies() {
+    Assertions.assertThrows(IOException.class, () -> decoder("hello\r\n").next());
+    Assertions.assertThrows(IOException.class, () -> decoder("211-Features:\r\n SIZE\r\n").next());
+  }
+
+  @Test
+  void partialRepliesArePolled() throws IOException {
+    ReplyDecoder decoder = new ReplyDecoder(StandardCharsets.US_ASCII);
+    decoder.feed(ByteBuffer.wrap("211-Features:\r\n MDTM\r\n21".getBytes(StandardCharsets.US_ASCII)));
+    Assertions.assertNull(decoder.poll());
+    decoder.feed(ByteBuffer.wrap("1 End\r\n150 Open".getBytes(StandardCharsets.US_ASCII)));
+
+    FTPReply features = decoder.poll();
+    Assertions.assertEquals(211, features.getCode());
+    Assertions.assertEquals(3, features.getLines().size());
+    Assertions.assertNull(decoder.poll());
+    decoder.feed(ByteBuffer.wrap("ing\r\n".getBytes(StandardCharsets.US_ASCII)));
+    Assertions.assertEquals("150 Opening", decoder.poll().getText());
+    Assertions.assertNull(decoder.poll());
+  }
+}
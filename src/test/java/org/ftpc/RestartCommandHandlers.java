@@ -0,0 +1,138 @@
+package org.ftpc;
+
+import org.mockftpserver.core.command.Command;
+import org.mockftpserver.core.command.ReplyCodes;
+import org.mockftpserver.core.session.Session;
+import org.mockftpserver.core.util.IoUtil;
+import org.mockftpserver.fake.command.AbstractFakeCommandHandler;
+import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.fake.filesystem.FileSystemEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+//  Command handlers for FakeFtpServer, which accepts REST but ignores the restart marker.
+class RestartCommandHandlers {
+  static final String REST_ATTRIBUTE = "restartMarker";
+
+  static class Rest extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      session.setAttribute(REST_ATTRIBUTE, Long.parseLong(command.getRequiredParameter(0)));
+      sendReply(session, ReplyCodes.REST_OK, "rest");
+    }
+  }
+
+  static class Size extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      FileSystemEntry entry = getFileSystem().getEntry(path);
+      if (entry == null || entry.isDirectory()) {
+        session.sendReply(550, "[" + path + "] does not exist.");
+        return;
+      }
+      session.sendReply(213, Long.toString(entry.getSize()));
+    }
+  }
+
+  static class Retr extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      FileSystemEntry entry = getFileSystem().getEntry(path);
+      verifyFileSystemCondition(entry != null, path, "filesystem.doesNotExist");
+      verifyFileSystemCondition(!entry.isDirectory(), path, "filesystem.isNotAFile");
+
+      byte[] content = readContent((FileEntry) entry);
+      Long offset = (Long) session.getAttribute(REST_ATTRIBUTE);
+      session.removeAttribute(REST_ATTRIBUTE);
+      int start = offset == null ? 0 : (int) Math.min(offset, content.length);
+      byte[] data = Arrays.copyOfRange(content, start, content.length);
+
+      sendReply(session, ReplyCodes.TRANSFER_DATA_INITIAL_OK);
+      session.openDataConnection();
+      session.sendData(data, data.length);
+      session.closeDataConnection();
+      sendReply(session, ReplyCodes.TRANSFER_DATA_FINAL_OK);
+    }
+  }
+
+  static class Stor extends AbstractFakeCommandHandler {
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      FileSystemEntry entry = getFileSystem().getEntry(path);
+      Long offset = (Long) session.getAttribute(REST_ATTRIBUTE);
+      session.removeAttribute(REST_ATTRIBUTE);
+
+      byte[] existing = entry instanceof FileEntry ? readContent((FileEntry) entry) : new byte[0];
+      int start = offset == null ? 0 : (int) Math.min(offset, existing.length);
+
+      sendReply(session, ReplyCodes.TRANSFER_DATA_INITIAL_OK);
+      session.openDataConnection();
+      byte[] data = session.readData();
+      session.closeDataConnection();
+
+      byte[] content = Arrays.copyOf(existing, start + data.length);
+      System.arraycopy(data, 0, content, start, data.length);
+      if (entry == null) {
+        entry = new FileEntry(path);
+        getFileSystem().add(entry);
+      }
+      ((FileEntry) entry).setContents(content);
+      sendReply(session, ReplyCodes.TRANSFER_DATA_FINAL_OK);
+    }
+  }
+
+  //  Writes at the REST offset without cutting off what follows, like servers storing segments in place.
+  //  STOR without REST truncates the file before data flows.
+
+  static class InPlaceStor extends AbstractFakeCommandHandler {
+    private static final Object LOCK = new Object();
+
+    @Override
+    protected void handle(Command command, Session session) {
+      verifyLoggedIn(session);
+      String path = getRealPath(session, command.getRequiredParameter(0));
+      Long offset = (Long) session.getAttribute(REST_ATTRIBUTE);
+      session.removeAttribute(REST_ATTRIBUTE);
+      synchronized (LOCK) {
+        FileSystemEntry entry = getFileSystem().getEntry(path);
+        if (entry == null) {
+          getFileSystem().add(new FileEntry(path));
+        } else if (offset == null) {
+          ((FileEntry) entry).setContents(new byte[0]);
+        }
+      }
+
+      sendReply(session, ReplyCodes.TRANSFER_DATA_INITIAL_OK);
+      session.openDataConnection();
+      byte[] data = session.readData();
+      session.closeDataConnection();
+
+      synchronized (LOCK) {
+        FileEntry entry = (FileEntry) getFileSystem().getEntry(path);
+        byte[] existing = readContent(entry);
+        int start = offset == null ? 0 : offset.intValue();
+        byte[] content = Arrays.copyOf(existing, Math.max(existing.length, start + data.length));
+        System.arraycopy(data, 0, content, start, data.length);
+        entry.setContents(content);
+      }
+      sendReply(session, ReplyCodes.TRANSFER_DATA_FINAL_OK);
+    }
+  }
+
+  static byte[] readContent(FileEntry entry) {
+    try (InputStream in = entry.createInputStream()) {
+      return IoUtil.readBytes(in);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class SocketOptionsTest {
+
+  @Test
+  void configuresFromSpec() {
+    SocketOptions options = SocketOptions.data().configure("connecttimeout=5, readtimeout=0,sndbuf=1048576," +
+      "RCVBUF=2097152,nodelay=true,keepalive=TRUE,writetimeout=7");
+    Assertions.assertEquals(5000, options.getConnectTimeout());
+    Assertions.assertEquals(0, options.getReadTimeout());
+    Assertions.assertEquals(7000, options.getWriteTimeout());
+    Assertions.assertEquals(7000, options.copy().getWriteTimeout());
+    Assertions.assertEquals(1048576, options.getSendBufferSize());
+    Assertions.assertEquals(2097152, options.getReceiveBufferSize());
+    Assertions.assertTrue(options.isTcpNoDelay());
+    Assertions.assertTrue(options.isKeepAlive());
+
+    SocketOptions control = SocketOptions.control();
+    Assertions.assertTrue(control.isTcpNoDelay());
+    Assertions.assertEquals(SocketOptions.DEFAULT_READ_TIMEOUT, control.copy().getReadTimeout());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> control.configure("linger=1"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> control.configure("nodelay=yes"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> control.configure("rcvbuf=-1"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> control.configure("readtimeout"));
+  }
+
+  @Test
+  void appliesOptionsOnConnect() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      InetSocketAddress address = new InetSocketAddress("localhost", server.getLocalPort());
+      SocketOptions options = SocketOptions.control();
+      options.setReadTimeout(1500);
+      options.setReceiveBufferSize(64 * 1024);
+      try (Socket socket = options.connect(address); Socket accepted = server.accept()) {
+        Assertions.assertTrue(socket.getTcpNoDelay());
+        Assertions.assertTrue(socket.getKeepAlive());
+        Assertions.assertEquals(1500, socket.getSoTimeout());
+        Assertions.assertTrue(socket.getReceiveBufferSize() >= 64 * 1024);
+      }
+    }
+  }
+
+  @Test
+  void timesOutIdleDataReads() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      SocketOptions options = SocketOptions.data();
+      options.setReadTimeout(200);
+      InetSocketAddress address = new InetSocketAddress("localhost", server.getLocalPort());
+      try (ReadableByteChannel channel = options.readable(options.open(address));
+           Socket accepted = server.accept()) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        OutputStream out = accepted.getOutputStream();
+        out.write("data".getBytes());
+        out.flush();
+        while (buffer.position() < 4) {
+          Assertions.assertTrue(channel.read(buffer) > 0);
+        }
+
+        long start = System.nanoTime();
+        Assertions.assertThrows(SocketTimeoutException.class, () -> channel.read(buffer));
+        Assertions.assertTrue(System.nanoTime() - start >= 190 * 1000 * 1000L);
+
+        accepted.close();
+        Assertions.assertEquals(-1, channel.read(buffer));
+      }
+    }
+  }
+
+  @Test
+  void timesOutStalledDataWrites() throws Exception {
+    Path file = Files.createTempFile("ftpc-stalled", ".bin");
+    try (ServerSocket server = new ServerSocket(0)) {
+      Files.write(file, new byte[8 * 1024 * 1024]);
+      SocketOptions options = SocketOptions.data();
+      options.setWriteTimeout(200);
+      options.setSendBufferSize(16 * 1024);
+      InetSocketAddress address = new InetSocketAddress("localhost", server.getLocalPort());
+      DataTransfer dataTransfer = new DataTransfer();
+      try (WritableByteChannel channel = options.writable(options.open(address));
+           Socket accepted = server.accept();
+           FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+        accepted.setReceiveBufferSize(16 * 1024);
+        long start = System.nanoTime();
+        IOException timeout = Assertions.assertThrows(IOException.class,
+          () -> dataTransfer.send(source, 0, source.size(), channel));
+        Assertions.assertTrue(timeout instanceof SocketTimeoutException, timeout.toString());
+        Assertions.assertTrue(System.nanoTime() - start >= 190 * 1000 * 1000L);
+
+        dataTransfer.setZeroCopy(false);
+        Assertions.assertThrows(SocketTimeoutException.class,
+          () -> dataTransfer.send(source, 0, source.size(), channel));
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package org.ftpc;
+
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.filesystem.DirectoryEntry;
+import org.mockftpserver.fake.filesystem.FileSystem;
+import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
+
+//  FakeFtpServer on a free port with one account whose home is an empty root directory. Tests add their files and
+//  command handlers before starting it.
+class TestFtpServer {
+  static final String USER = "admin";
+  static final String PASSWORD = "test";
+  static final String HOST = "localhost";
+
+  static FakeFtpServer create() {
+    FakeFtpServer fakeFtpServer = new FakeFtpServer();
+    fakeFtpServer.addUserAccount(new UserAccount(USER, PASSWORD, "/"));
+    FileSystem fileSystem = new UnixFakeFileSystem();
+    fileSystem.add(new DirectoryEntry("/"));
+    fakeFtpServer.setFileSystem(fileSystem);
+    fakeFtpServer.setServerControlPort(0);
+    return fakeFtpServer;
+  }
+}
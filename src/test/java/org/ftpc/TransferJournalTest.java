@@ -0,0 +1,54 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+class TransferJournalTest {
+
+  @Test
+  void reloadsAppendedRecords() throws IOException {
+    Path file = Files.createTempDirectory("ftpc-journal").resolve("transfers.journal");
+    TransferJournal journal = new TransferJournal(file);
+    journal.checkpoint(TransferJournal.Direction.DOWNLOAD, "/a.bin", "/tmp/a.bin", 0, -1, 0);
+    journal.checkpoint(TransferJournal.Direction.DOWNLOAD, "/a.bin", "/tmp/a.bin", 4096, -1, 0);
+    journal.checkpoint(TransferJournal.Direction.UPLOAD, "/b.bin", "/tmp/b.bin", 0, 100, 7);
+    journal.complete(TransferJournal.Direction.UPLOAD, "/b.bin");
+    journal.close();
+    Assertions.assertEquals(4, Files.readAllLines(file).size());
+
+    Files.write(file, "DOWNLOAD\t/c.bin\t/tmp/c.bin\t12".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    TransferJournal reloaded = new TransferJournal(file);
+    List<TransferJournal.Entry> pending = reloaded.pending();
+    Assertions.assertEquals(1, pending.size());
+    Assertions.assertEquals(4096, pending.get(0).getOffset());
+    Assertions.assertNull(reloaded.get(TransferJournal.Direction.UPLOAD, "/b.bin"));
+
+    reloaded.checkpoint(TransferJournal.Direction.DOWNLOAD, "/a.bin", "/tmp/a.bin", 8192, -1, 0);
+    reloaded.close();
+    Assertions.assertEquals(8192, new TransferJournal(file).get(TransferJournal.Direction.DOWNLOAD, "/a.bin").getOffset());
+  }
+
+  @Test
+  void compactsToPendingEntries() throws IOException {
+    Path file = Files.createTempDirectory("ftpc-journal").resolve("transfers.journal");
+    TransferJournal journal = new TransferJournal(file);
+    journal.checkpoint(TransferJournal.Direction.UPLOAD, "/kept.bin", "/tmp/kept.bin", 0, 100, 7);
+    for (int i = 0; i < TransferJournal.COMPACT_MIN_RECORDS; i++) {
+      journal.checkpoint(TransferJournal.Direction.DOWNLOAD, "/f" + i, "/tmp/f" + i, 0, -1, 0);
+      journal.complete(TransferJournal.Direction.DOWNLOAD, "/f" + i);
+    }
+    journal.close();
+
+    Assertions.assertTrue(Files.readAllLines(file).size() <= TransferJournal.COMPACT_MIN_RECORDS);
+    List<TransferJournal.Entry> pending = new TransferJournal(file).pending();
+    Assertions.assertEquals(1, pending.size());
+    Assertions.assertEquals("/kept.bin", pending.get(0).getRemotePath());
+  }
+}
@@ -0,0 +1,125 @@
+package org.ftpc;
+
+import org.junit.jupiter.api.*;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransferSchedulerTest {
+  private TransferScheduler scheduler;
+
+  @AfterEach
+  public void closeScheduler() {
+    scheduler.close();
+  }
+
+  @Test
+  public void concurrencyLimit() throws Exception {
+    scheduler = new TransferScheduler(2, 100, 10, TransferScheduler.Ordering.FIFO);
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger maxActive = new AtomicInteger();
+    List<CompletableFuture<Void>> results = new LinkedList<>();
+
+    for (int i = 0; i < 10; i++) {
+      results.add(scheduler.submit("host", 0, () -> {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        Thread.sleep(20);
+        active.decrementAndGet();
+        return null;
+      }));
+    }
+    CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+    Assertions.assertEquals(2, maxActive.get());
+  }
+
+  @Test
+  public void perHostLimit() throws Exception {
+    scheduler = new TransferScheduler(4, 100, 1, TransferScheduler.Ordering.FIFO);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<Void> blocking = scheduler.submit("host1", 0, () -> {
+      release.await();
+      return null;
+    });
+    CompletableFuture<String> sameHost = scheduler.submit("host1", 0, () -> "host1");
+    CompletableFuture<String> otherHost = scheduler.submit("host2", 0, () -> "host2");
+
+    Assertions.assertEquals("host2", otherHost.get(5, TimeUnit.SECONDS));
+    Assertions.assertFalse(sameHost.isDone());
+
+    release.countDown();
+    blocking.get(5, TimeUnit.SECONDS);
+    Assertions.assertEquals("host1", sameHost.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void smallestFirst() throws Exception {
+    scheduler = new TransferScheduler(1, 100, 1, TransferScheduler.Ordering.SMALLEST_FIRST);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Long> order = new LinkedList<>();
+
+    CompletableFuture<Void> blocking = scheduler.submit("host", 0, () -> {
+      release.await();
+      return null;
+    });
+    List<CompletableFuture<Void>> results = new LinkedList<>();
+    for (long size : new long[]{300, 100, 200}) {
+      results.add(scheduler.submit("host", size, () -> {
+        order.add(size);
+        return null;
+      }));
+    }
+    CompletableFuture<Void> urgent = scheduler.submit("host", 1000, 1, () -> {
+      order.add(1000L);
+      return null;
+    });
+
+    release.countDown();
+    blocking.get(5, TimeUnit.SECONDS);
+    urgent.get(5, TimeUnit.SECONDS);
+    CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+    Assertions.assertArrayEquals(new Long[]{1000L, 100L, 200L, 300L}, order.toArray(new Long[0]));
+  }
+
+  @Test
+  public void boundedQueue() throws Exception {
+    scheduler = new TransferScheduler(1, 1, 1, TransferScheduler.Ordering.FIFO);
+    CountDownLatch release = new CountDownLatch(1);
+
+    scheduler.submit("host", 0, () -> {
+      release.await();
+      return null;
+    });
+    scheduler.submit("host", 0, () -> null);
+
+    Thread producer = new Thread(() -> {
+      try {
+        scheduler.submit("host", 0, () -> null);
+      } catch (InterruptedException ignored) {
+      }
+    });
+    producer.start();
+    producer.join(200);
+    Assertions.assertTrue(producer.isAlive());
+
+    release.countDown();
+    producer.join(5000);
+    Assertions.assertFalse(producer.isAlive());
+  }
+
+  @Test
+  public void executionMode() throws Exception {
+    scheduler = new TransferScheduler(2, 100, 2, TransferScheduler.Ordering.FIFO);
+    TransferScheduler.ExecutionMode expected = TransferScheduler.isVirtualThreadSupported()
+      ? TransferScheduler.ExecutionMode.VIRTUAL : TransferScheduler.ExecutionMode.PLATFORM;
+
+    Assertions.assertEquals(expected, scheduler.setExecutionMode(TransferScheduler.ExecutionMode.VIRTUAL));
+    Assertions.assertEquals("done", scheduler.submit("host", 0, () -> "done").get(5, TimeUnit.SECONDS));
+  }
+}